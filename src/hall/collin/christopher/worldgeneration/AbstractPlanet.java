@@ -100,6 +100,128 @@ public abstract class AbstractPlanet {
 	 * @return The annual mean temperature (in °C) at this coordinate
 	 */
 	public abstract double getTemperature(double longitude, double latitude, double precision);
+
+	/**
+	 * Calculates the roughness at the location pointed to by a unit vector
+	 * from the center of the planet. The vector uses the same axes as
+	 * <code>SphericalMath.lonLatTo3D(...)</code>, so
+	 * x&nbsp;=&nbsp;sin(lon)*cos(lat), y&nbsp;=&nbsp;sin(lat),
+	 * z&nbsp;=&nbsp;cos(lon)*cos(lat). The default implementation converts
+	 * the vector back to (longitude, latitude), so implementations that sample
+	 * 3D noise should override this method to skip the trigonometry.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is (see
+	 * <code>getRoughness(longitude, latitude, precision)</code>)
+	 * @return Returns a value from 0 to infinity at this coordinate, with a
+	 * value greater than 1 meaning mountains.
+	 */
+	public double getRoughness(double x, double y, double z, double precision){
+		return getRoughness(longitudeOf(x, y, z), latitudeOf(x, y, z), precision);
+	}
+	/**
+	 * Calculates the altitude at the location pointed to by a unit vector
+	 * from the center of the planet (see
+	 * <code>getRoughness(x, y, z, precision)</code> for the axis convention).
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is (see
+	 * <code>getAltitude(longitude, latitude, precision)</code>)
+	 * @return The altitude at this coordinate.
+	 */
+	public double getAltitude(double x, double y, double z, double precision){
+		return getAltitude(longitudeOf(x, y, z), latitudeOf(x, y, z), precision);
+	}
+	/**
+	 * Calculates the water availability at the location pointed to by a unit
+	 * vector from the center of the planet (see
+	 * <code>getRoughness(x, y, z, precision)</code> for the axis convention).
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is (see
+	 * <code>getMoisture(longitude, latitude, precision)</code>)
+	 * @return The moisture availability at this coordinate, roughly measured in
+	 * annual mean precipitation minus evaporation (in cm).
+	 */
+	public double getMoisture(double x, double y, double z, double precision){
+		return getMoisture(longitudeOf(x, y, z), latitudeOf(x, y, z), precision);
+	}
+	/**
+	 * Calculates the temperature at the location pointed to by a unit vector
+	 * from the center of the planet (see
+	 * <code>getRoughness(x, y, z, precision)</code> for the axis convention).
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is (see
+	 * <code>getTemperature(longitude, latitude, precision)</code>)
+	 * @return The annual mean temperature (in °C) at this coordinate
+	 */
+	public double getTemperature(double x, double y, double z, double precision){
+		return getTemperature(longitudeOf(x, y, z), latitudeOf(x, y, z), precision);
+	}
+	/**
+	 * Gets the definitions of this planet's channels. The default graph 
+	 * calculates every channel with the getter methods of this class. 
+	 * Implementations where some channels are calculated from others (e.g. 
+	 * temperature from altitude) should return a graph that declares those 
+	 * dependencies, so that a ChannelSample calculates each of them once.
+	 * @return This planet's channel graph
+	 */
+	public ChannelGraph getChannelGraph(){
+		return ChannelGraph.DEFAULT;
+	}
+	/**
+	 * Creates a ChannelSample for reading several channels at one location, 
+	 * with each channel calculated at most once.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is (see 
+	 * <code>getAltitude(longitude, latitude, precision)</code>)
+	 * @return A new sample
+	 */
+	public ChannelSample sample(double x, double y, double z, double precision){
+		return getChannelGraph().sample(this, x, y, z, precision);
+	}
+	/**
+	 * Creates a ChannelSample for reading several channels at one location, 
+	 * with each channel calculated at most once.
+	 * @param longitude Longitude coordinate of the location of interest
+	 * @param latitude Latitude of the location of interest
+	 * @param precision Determines how fine-grained the calculation is (see 
+	 * <code>getAltitude(longitude, latitude, precision)</code>)
+	 * @return A new sample
+	 */
+	public ChannelSample sample(double longitude, double latitude, double precision){
+		double cosLat = Math.cos(latitude);
+		return sample(Math.sin(longitude)*cosLat, Math.sin(latitude), Math.cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Converts a 3D vector into a longitude (the inverse of
+	 * x&nbsp;=&nbsp;sin(lon)*cos(lat), z&nbsp;=&nbsp;cos(lon)*cos(lat)).
+	 * @param x X component of the vector
+	 * @param y Y component of the vector
+	 * @param z Z component of the vector
+	 * @return Longitude in radians, from -pi to pi
+	 */
+	protected static double longitudeOf(double x, double y, double z){
+		return Math.atan2(x, z);
+	}
+	/**
+	 * Converts a 3D vector into a latitude (the inverse of
+	 * y&nbsp;=&nbsp;sin(lat)). The vector does not need to be normalized.
+	 * @param x X component of the vector
+	 * @param y Y component of the vector
+	 * @param z Z component of the vector
+	 * @return Latitude in radians, from -pi/2 to pi/2
+	 */
+	protected static double latitudeOf(double x, double y, double z){
+		return Math.atan2(y, Math.sqrt(x*x + z*z));
+	}
 	/**
 	 * Gets the size of the planet.
 	 * @return The radius of the planet, in meters;
@@ -0,0 +1,467 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration;
+
+import hall.collin.christopher.worldgeneration.math.DefaultRandomNumberGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.stream.IntStream;
+
+/**
+ * A planet whose data has been pre-computed ("baked") into a file. Baking 
+ * samples every channel of another planet onto a cube-map grid at several 
+ * resolutions. Loading a baked planet memory-maps that file, so a 
+ * TectonicHydrologyPlanet can be drawn without rebuilding its mesh or 
+ * re-running its hydrology simulation. Several processes can map the same 
+ * file at once and the operating system will share the pages between them.
+ * <p>
+ * Every sample is an O(1) bilinear look-up on the grid level that matches 
+ * the requested precision. Requests that are finer than the best baked 
+ * resolution get extra procedural altitude detail, scaled by the baked 
+ * roughness.
+ * </p><p>
+ * File layout (big-endian): a 36-byte header (magic number, format version, 
+ * radius, detail seed, face size of level 0, number of levels, number of 
+ * channels) followed by each level in turn. Level <i>L</i> has 6 faces of 
+ * (faceSize&gt;&gt;<i>L</i>)<sup>2</sup> texels, stored face by face, row 
+ * by row, with the channels of each texel stored next to each other as 
+ * 32-bit floats in the order altitude, roughness, temperature, moisture.
+ * </p>
+ * @author CCHall
+ */
+public class BakedPlanet extends AbstractPlanet{
+	/** Identifies a baked planet file ("CCHB") */
+	public static final int MAGIC_NUMBER = 0x43434842;
+	/** Version of the file layout written by this class */
+	public static final int FORMAT_VERSION = 1;
+	/** Largest supported face size (keeps each mapped level under 2 GB) */
+	public static final int MAX_FACE_SIZE = 4096;
+	/** Smallest face size stored in the mip chain */
+	private static final int MIN_LEVEL_SIZE = 4;
+	
+	private static final int HEADER_SIZE = 36;
+	private static final int NUM_CHANNELS = 4;
+	private static final int CHANNEL_ALTITUDE = 0;
+	private static final int CHANNEL_ROUGHNESS = 1;
+	private static final int CHANNEL_TEMPERATURE = 2;
+	private static final int CHANNEL_MOISTURE = 3;
+	private static final int BYTES_PER_TEXEL = NUM_CHANNELS * Float.BYTES;
+	
+	/** Altitude detail (in meters) per meter of baked grid spacing */
+	private final double detailHeightPerMeter = 0.02;
+	/** The drop in temperature (in C) per rise in altitude (in m) */
+	private final double temperatureDropPerMeter = -6.5 / 1000.0;
+	
+	private final double radius;
+	private final int faceSize;
+	private final MappedByteBuffer[] levels;
+	private final int[] levelSizes;
+	/** grid spacing of level 0, in meters */
+	private final double baseSpacing;
+	/** adds altitude detail above the baked resolution */
+	private final PlanetaryScaling3DCoordinateNoiseGenerator detailNoise;
+	
+	private BakedPlanet(double radius, long detailSeed, int faceSize, MappedByteBuffer[] levels){
+		this.radius = radius;
+		this.faceSize = faceSize;
+		this.levels = levels;
+		this.levelSizes = new int[levels.length];
+		for(int i = 0; i < levels.length; i++){
+			levelSizes[i] = faceSize >> i;
+		}
+		this.baseSpacing = gridSpacing(radius, faceSize);
+		DefaultRandomNumberGenerator prng = new DefaultRandomNumberGenerator(detailSeed);
+		this.detailNoise = new PlanetaryScaling3DCoordinateNoiseGenerator(
+				prng.nextLong(),
+				prng.nextLong(),
+				prng.nextLong(),
+				prng.nextLong(),
+				baseSpacing,
+				1.0);
+	}
+	
+	/**
+	 * Samples a planet onto a multi-resolution grid and writes it to a file 
+	 * that can be opened with <code>BakedPlanet.load(file)</code>. The file 
+	 * is written under a temporary name and then moved into place, so 
+	 * processes that have the old file mapped are not disturbed.
+	 * @param source The planet to bake
+	 * @param seed Seed for the procedural detail that is added above the 
+	 * baked resolution (usually the seed of the source planet)
+	 * @param faceSize Number of texels along each edge of a cube face at the 
+	 * finest level (4 to 4096). The grid spacing is roughly 
+	 * (&pi;/2)&middot;radius/faceSize.
+	 * @param destination The file to write
+	 * @param progressTracker Tracker for progress. Increments will be added 
+	 * to this object such that a complete operation will sum to 1.0. This 
+	 * parameter can be null.
+	 * @throws IOException Thrown if the file could not be written
+	 */
+	public static void bake(AbstractPlanet source, String seed, int faceSize, File destination, DoubleAdder progressTracker) throws IOException{
+		if(faceSize < MIN_LEVEL_SIZE || faceSize > MAX_FACE_SIZE){
+			throw new IllegalArgumentException("Face size must be from "+MIN_LEVEL_SIZE+" to "+MAX_FACE_SIZE);
+		}
+		final double planetRadius = source.getRadius();
+		int numLevels = 0;
+		long totalTexels = 0;
+		for(int n = faceSize; n >= MIN_LEVEL_SIZE; n >>= 1){
+			numLevels++;
+			totalTexels += 6L * n * n;
+		}
+		final double progressPerTexel = 1.0 / totalTexels;
+		File temp = new File(destination.getPath() + ".part");
+		try(FileChannel out = FileChannel.open(temp.toPath(), 
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC_NUMBER);
+			header.putInt(FORMAT_VERSION);
+			header.putDouble(planetRadius);
+			header.putLong(stringHashCode(seed));
+			header.putInt(faceSize);
+			header.putInt(numLevels);
+			header.putInt(NUM_CHANNELS);
+			header.flip();
+			writeFully(out, header);
+			for(int level = 0; level < numLevels; level++){
+				final int n = faceSize >> level;
+				final double precision = gridSpacing(planetRadius, n);
+				for(int face = 0; face < 6; face++){
+					if(Thread.currentThread().isInterrupted()){
+						throw new java.io.InterruptedIOException("Baking was interrupted");
+					}
+					final int f = face;
+					final ByteBuffer faceData = ByteBuffer.allocate(n * n * BYTES_PER_TEXEL);
+					IntStream.range(0, n).parallel().forEach((int row)->{
+						double[] v = new double[3];
+						for(int col = 0; col < n; col++){
+							texelDirection(f, col, row, n, v);
+							int index = (row * n + col) * BYTES_PER_TEXEL;
+							faceData.putFloat(index + CHANNEL_ALTITUDE * Float.BYTES, 
+									(float)source.getAltitude(v[0], v[1], v[2], precision));
+							faceData.putFloat(index + CHANNEL_ROUGHNESS * Float.BYTES, 
+									(float)source.getRoughness(v[0], v[1], v[2], precision));
+							faceData.putFloat(index + CHANNEL_TEMPERATURE * Float.BYTES, 
+									(float)source.getTemperature(v[0], v[1], v[2], precision));
+							faceData.putFloat(index + CHANNEL_MOISTURE * Float.BYTES, 
+									(float)source.getMoisture(v[0], v[1], v[2], precision));
+						}
+						if(progressTracker != null) progressTracker.add(n * progressPerTexel);
+					});
+					writeFully(out, faceData);
+				}
+			}
+		}
+		try{
+			Files.move(temp.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(AtomicMoveNotSupportedException ex){
+			Files.move(temp.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException{
+		while(buffer.hasRemaining()){
+			out.write(buffer);
+		}
+	}
+	
+	/**
+	 * Opens a file written by <code>BakedPlanet.bake(...)</code>. The file is 
+	 * memory-mapped read-only and is not copied into the Java heap.
+	 * @param file A baked planet file
+	 * @return A planet backed by the data in the file
+	 * @throws IOException Thrown if the file cannot be read or is not a 
+	 * supported baked planet file
+	 */
+	public static BakedPlanet load(File file) throws IOException{
+		try(FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			if(in.size() < HEADER_SIZE){
+				throw new IOException(file + " is not a baked planet file");
+			}
+			MappedByteBuffer header = in.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if(header.getInt() != MAGIC_NUMBER){
+				throw new IOException(file + " is not a baked planet file");
+			}
+			int version = header.getInt();
+			if(version != FORMAT_VERSION){
+				throw new IOException(file + " is baked planet format version " + version 
+						+ ", but only version " + FORMAT_VERSION + " is supported");
+			}
+			double radius = header.getDouble();
+			long detailSeed = header.getLong();
+			int faceSize = header.getInt();
+			int numLevels = header.getInt();
+			int numChannels = header.getInt();
+			if(numChannels != NUM_CHANNELS || faceSize < MIN_LEVEL_SIZE || faceSize > MAX_FACE_SIZE 
+					|| numLevels < 1 || (faceSize >> (numLevels - 1)) < MIN_LEVEL_SIZE){
+				throw new IOException(file + " has a corrupt header");
+			}
+			MappedByteBuffer[] levels = new MappedByteBuffer[numLevels];
+			long offset = HEADER_SIZE;
+			for(int level = 0; level < numLevels; level++){
+				int n = faceSize >> level;
+				long levelBytes = 6L * n * n * BYTES_PER_TEXEL;
+				if(offset + levelBytes > in.size()){
+					throw new IOException(file + " is truncated");
+				}
+				levels[level] = in.map(FileChannel.MapMode.READ_ONLY, offset, levelBytes);
+				offset += levelBytes;
+			}
+			// the mappings stay valid after the channel is closed
+			return new BakedPlanet(radius, detailSeed, faceSize, levels);
+		}
+	}
+	
+	/** approximate distance between texels on a face of the given size */
+	private static double gridSpacing(double radius, int n){
+		return 0.5 * Math.PI * radius / n;
+	}
+	
+	/**
+	 * Calculates the unit vector at the center of a texel, using an 
+	 * equal-angle cube map (face coordinates are warped by tan() so that 
+	 * texels cover similar areas).
+	 */
+	private static void texelDirection(int face, int col, int row, int n, double[] out){
+		double a = Math.tan(0.25 * Math.PI * ((col + 0.5) / n * 2 - 1));
+		double b = Math.tan(0.25 * Math.PI * ((row + 0.5) / n * 2 - 1));
+		double x, y, z;
+		switch(face){
+			case 0:  x =  1; y =  b; z = -a; break; // +X
+			case 1:  x = -1; y =  b; z =  a; break; // -X
+			case 2:  x =  a; y =  1; z = -b; break; // +Y
+			case 3:  x =  a; y = -1; z =  b; break; // -Y
+			case 4:  x =  a; y =  b; z =  1; break; // +Z
+			default: x = -a; y =  b; z = -1; break; // -Z
+		}
+		double inv = 1.0 / Math.sqrt(x*x + y*y + z*z);
+		out[0] = x * inv;
+		out[1] = y * inv;
+		out[2] = z * inv;
+	}
+	
+	/**
+	 * Reads one channel at the given direction from the grid level that best 
+	 * matches the precision, with bilinear interpolation.
+	 */
+	private double sample(int channel, double x, double y, double z, double precision){
+		// pick the coarsest level whose spacing is not larger than the precision
+		int level = 0;
+		if(precision > baseSpacing){
+			level = Math.min((int)(Math.log(precision / baseSpacing) / Math.log(2)), levels.length - 1);
+		}
+		int n = levelSizes[level];
+		// inverse of texelDirection(...)
+		double ax = Math.abs(x), ay = Math.abs(y), az = Math.abs(z);
+		int face;
+		double a, b;
+		if(ax >= ay && ax >= az){
+			if(x > 0){ face = 0; a = -z / ax; } else { face = 1; a = z / ax; }
+			b = y / ax;
+		} else if(ay >= az){
+			if(y > 0){ face = 2; b = -z / ay; } else { face = 3; b = z / ay; }
+			a = x / ay;
+		} else {
+			if(z > 0){ face = 4; a = x / az; } else { face = 5; a = -x / az; }
+			b = y / az;
+		}
+		double u = (Math.atan(a) * (4 / Math.PI) + 1) * 0.5 * n - 0.5;
+		double v = (Math.atan(b) * (4 / Math.PI) + 1) * 0.5 * n - 0.5;
+		int c0 = clampIndex((int)Math.floor(u), n);
+		int r0 = clampIndex((int)Math.floor(v), n);
+		int c1 = Math.min(c0 + 1, n - 1);
+		int r1 = Math.min(r0 + 1, n - 1);
+		double wu = Math.min(Math.max(u - c0, 0), 1);
+		double wv = Math.min(Math.max(v - r0, 0), 1);
+		MappedByteBuffer data = levels[level];
+		int faceBase = face * n * n;
+		int channelOffset = channel * Float.BYTES;
+		double v00 = data.getFloat((faceBase + r0 * n + c0) * BYTES_PER_TEXEL + channelOffset);
+		double v01 = data.getFloat((faceBase + r0 * n + c1) * BYTES_PER_TEXEL + channelOffset);
+		double v10 = data.getFloat((faceBase + r1 * n + c0) * BYTES_PER_TEXEL + channelOffset);
+		double v11 = data.getFloat((faceBase + r1 * n + c1) * BYTES_PER_TEXEL + channelOffset);
+		double result = (1 - wv) * ((1 - wu) * v00 + wu * v01) + wv * ((1 - wu) * v10 + wu * v11);
+		if(Double.isNaN(result)){
+			// infinite values (e.g. the moisture of a moon) do not interpolate
+			return (wu < 0.5) ? ((wv < 0.5) ? v00 : v10) : ((wv < 0.5) ? v01 : v11);
+		}
+		return result;
+	}
+	
+	private static int clampIndex(int i, int n){
+		return Math.min(Math.max(i, 0), n - 1);
+	}
+	
+	/** altitude detail that is finer than the baked grid (0 if none is needed) */
+	private double detail(double x, double y, double z, double precision){
+		if(precision >= baseSpacing){
+			return 0;
+		}
+		double roughness = sample(CHANNEL_ROUGHNESS, x, y, z, precision);
+		double amplitude = detailHeightPerMeter * baseSpacing * (0.25 + roughness);
+		return amplitude * detailNoise.getValue(radius * x, radius * y, radius * z, precision);
+	}
+	
+	/**
+	 * Gets the roughness from the baked data.
+	 * @param longitude Longitude coordinate of the location of interest
+	 * @param latitude Latitude of the location of interest
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The roughness at this coordinate.
+	 */
+	@Override
+	public double getRoughness(double longitude, double latitude, double precision) {
+		double cosLat = Math.cos(latitude);
+		return getRoughness(Math.sin(longitude)*cosLat, Math.sin(latitude), Math.cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Gets the roughness from the baked data.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The roughness at this coordinate.
+	 */
+	@Override
+	public double getRoughness(double x, double y, double z, double precision) {
+		return sample(CHANNEL_ROUGHNESS, x, y, z, precision);
+	}
+	/**
+	 * Gets the altitude from the baked data, plus procedural detail if the 
+	 * precision is finer than the baked grid.
+	 * @param longitude Longitude coordinate of the location of interest
+	 * @param latitude Latitude of the location of interest
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The altitude at this coordinate.
+	 */
+	@Override
+	public double getAltitude(double longitude, double latitude, double precision) {
+		double cosLat = Math.cos(latitude);
+		return getAltitude(Math.sin(longitude)*cosLat, Math.sin(latitude), Math.cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Gets the altitude from the baked data, plus procedural detail if the 
+	 * precision is finer than the baked grid.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The altitude at this coordinate.
+	 */
+	@Override
+	public double getAltitude(double x, double y, double z, double precision) {
+		return sample(CHANNEL_ALTITUDE, x, y, z, precision) + detail(x, y, z, precision);
+	}
+	/**
+	 * Gets the moisture from the baked data.
+	 * @param longitude Longitude coordinate of the location of interest
+	 * @param latitude Latitude of the location of interest
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The moisture at this coordinate.
+	 */
+	@Override
+	public double getMoisture(double longitude, double latitude, double precision) {
+		double cosLat = Math.cos(latitude);
+		return getMoisture(Math.sin(longitude)*cosLat, Math.sin(latitude), Math.cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Gets the moisture from the baked data.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The moisture at this coordinate.
+	 */
+	@Override
+	public double getMoisture(double x, double y, double z, double precision) {
+		return sample(CHANNEL_MOISTURE, x, y, z, precision);
+	}
+	/**
+	 * Gets the temperature from the baked data. If procedural altitude detail 
+	 * is added to land, the temperature is adjusted to match.
+	 * @param longitude Longitude coordinate of the location of interest
+	 * @param latitude Latitude of the location of interest
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The annual mean temperature (in °C) at this coordinate
+	 */
+	@Override
+	public double getTemperature(double longitude, double latitude, double precision) {
+		double cosLat = Math.cos(latitude);
+		return getTemperature(Math.sin(longitude)*cosLat, Math.sin(latitude), Math.cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Gets the temperature from the baked data. If procedural altitude detail 
+	 * is added to land, the temperature is adjusted to match.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The annual mean temperature (in °C) at this coordinate
+	 */
+	@Override
+	public double getTemperature(double x, double y, double z, double precision) {
+		double t = sample(CHANNEL_TEMPERATURE, x, y, z, precision);
+		if(precision < baseSpacing && sample(CHANNEL_ALTITUDE, x, y, z, precision) > 0){
+			t += temperatureDropPerMeter * detail(x, y, z, precision);
+		}
+		return t;
+	}
+	/**
+	 * Gets the size of the planet.
+	 * @return The radius of the planet, in meters;
+	 */
+	@Override
+	public double getRadius() {
+		return radius;
+	}
+	/**
+	 * Gets the resolution of the finest baked level.
+	 * @return Number of texels along the edge of each cube face
+	 */
+	public int getFaceSize(){
+		return faceSize;
+	}
+	/**
+	 * Gets the distance between samples of the finest baked level. Requests 
+	 * with a finer precision than this get procedural detail.
+	 * @return Approximate grid spacing, in meters
+	 */
+	public double getBakedResolution(){
+		return baseSpacing;
+	}
+}
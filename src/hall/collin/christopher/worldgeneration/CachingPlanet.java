@@ -0,0 +1,395 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A decorator that remembers the values returned by another planet, so that 
+ * drawing several maps of the same area (e.g. a base map, a biome map and 
+ * hill-shading layers) only samples the underlying planet once per point. 
+ * <p>
+ * Samples are keyed by the requested channel, the longitude and latitude 
+ * (quantized to a fixed angular step) and the octave of the precision (the 
+ * base-2 logarithm, rounded down). Two requests that fall into the same key 
+ * share one value, so the angular step should be smaller than the spacing of 
+ * the maps being drawn.
+ * </p><p>
+ * The cache is a fixed-size, 4-way set-associative table of primitive 
+ * arrays. When a set is full, its least recently used entry is evicted. The 
+ * sets are guarded by a number of lock stripes, so that many render threads 
+ * can use the cache at the same time. The underlying planet is never called 
+ * while a lock is held. NaN values are passed through without being cached.
+ * </p>
+ * @author CCHall
+ */
+public class CachingPlanet extends AbstractPlanet{
+	/** Default number of cached values (about 20 MB of memory) */
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+	/** Default quantization step, in radians (about 6 m on an Earth-sized planet) */
+	public static final double DEFAULT_ANGULAR_QUANTUM = 1e-6;
+	/** Default number of lock stripes */
+	public static final int DEFAULT_CONCURRENCY = 64;
+	
+	private static final int CHANNEL_ROUGHNESS = 0;
+	private static final int CHANNEL_ALTITUDE = 1;
+	private static final int CHANNEL_MOISTURE = 2;
+	private static final int CHANNEL_TEMPERATURE = 3;
+	
+	private static final int WAYS = 4;
+	private static final int COORDINATE_BITS = 27;
+	private static final long COORDINATE_MASK = (1L << COORDINATE_BITS) - 1;
+	/** marks a key slot as occupied (so that 0 can mean "empty") */
+	private static final long OCCUPIED = 1L << 62;
+	private static final double TWO_PI = 2 * Math.PI;
+	private static final double LOG2 = Math.log(2);
+	
+	private final AbstractPlanet planet;
+	private final double angularQuantum;
+	private final double inverseQuantum;
+	private final int setMask;
+	private final int stripeMask;
+	private final long[] keys;
+	private final double[] values;
+	private final long[] lastUsed;
+	private final long[] clocks;
+	private final ReentrantLock[] locks;
+	
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	
+	/**
+	 * Wraps a planet with a cache of the default size.
+	 * @param planet The planet whose values will be cached
+	 */
+	public CachingPlanet(AbstractPlanet planet){
+		this(planet, DEFAULT_CAPACITY);
+	}
+	/**
+	 * Wraps a planet with a cache of the given size.
+	 * @param planet The planet whose values will be cached
+	 * @param capacity Maximum number of values to remember (rounded up to a 
+	 * power of 2). Each value takes about 24 bytes.
+	 */
+	public CachingPlanet(AbstractPlanet planet, int capacity){
+		this(planet, capacity, DEFAULT_ANGULAR_QUANTUM, DEFAULT_CONCURRENCY);
+	}
+	/**
+	 * Wraps a planet with a cache.
+	 * @param planet The planet whose values will be cached
+	 * @param capacity Maximum number of values to remember (rounded up to a 
+	 * power of 2). Each value takes about 24 bytes.
+	 * @param angularQuantum Size of the longitude and latitude steps (in 
+	 * radians) used to build the cache keys. Must be at least 
+	 * 2&pi;/2<sup>27</sup> (about 5e-8).
+	 * @param concurrencyLevel Number of lock stripes (rounded up to a power 
+	 * of 2)
+	 */
+	public CachingPlanet(AbstractPlanet planet, int capacity, double angularQuantum, int concurrencyLevel){
+		if(planet == null){
+			throw new IllegalArgumentException("Planet cannot be null");
+		}
+		if(!(angularQuantum * (1L << COORDINATE_BITS) >= TWO_PI)){
+			throw new IllegalArgumentException("Angular quantum "+angularQuantum+" is too small to be packed into a cache key");
+		}
+		if(capacity < WAYS || concurrencyLevel < 1){
+			throw new IllegalArgumentException("Capacity must be at least "+WAYS+" and concurrency level must be positive");
+		}
+		this.planet = planet;
+		this.angularQuantum = angularQuantum;
+		this.inverseQuantum = 1.0 / angularQuantum;
+		int numSets = ceilingPowerOf2(Math.max(capacity / WAYS, 1));
+		int numStripes = Math.min(ceilingPowerOf2(concurrencyLevel), numSets);
+		setMask = numSets - 1;
+		stripeMask = numStripes - 1;
+		keys = new long[numSets * WAYS];
+		values = new double[numSets * WAYS];
+		lastUsed = new long[numSets * WAYS];
+		clocks = new long[numStripes];
+		locks = new ReentrantLock[numStripes];
+		for(int i = 0; i < numStripes; i++){
+			locks[i] = new ReentrantLock();
+		}
+	}
+	
+	private static int ceilingPowerOf2(int n){
+		int p = Integer.highestOneBit(n);
+		if(p < n) p <<= 1;
+		return p;
+	}
+	
+	/**
+	 * Gets the planet that this cache wraps.
+	 * @return The underlying planet
+	 */
+	public AbstractPlanet getPlanet(){
+		return planet;
+	}
+	
+	/**
+	 * Gets the roughness from the cache, or from the underlying planet if it 
+	 * is not cached yet.
+	 * @param longitude Longitude coordinate of the location of interest
+	 * @param latitude Latitude of the location of interest
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The roughness at this coordinate.
+	 */
+	@Override
+	public double getRoughness(double longitude, double latitude, double precision) {
+		long key = makeKey(CHANNEL_ROUGHNESS, longitude, latitude, precision);
+		double cached = lookup(key);
+		if(!Double.isNaN(cached)) return cached;
+		return store(key, planet.getRoughness(longitude, latitude, precision));
+	}
+	/**
+	 * Gets the altitude from the cache, or from the underlying planet if it 
+	 * is not cached yet.
+	 * @param longitude Longitude coordinate of the location of interest
+	 * @param latitude Latitude of the location of interest
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The altitude at this coordinate.
+	 */
+	@Override
+	public double getAltitude(double longitude, double latitude, double precision) {
+		long key = makeKey(CHANNEL_ALTITUDE, longitude, latitude, precision);
+		double cached = lookup(key);
+		if(!Double.isNaN(cached)) return cached;
+		return store(key, planet.getAltitude(longitude, latitude, precision));
+	}
+	/**
+	 * Gets the moisture from the cache, or from the underlying planet if it 
+	 * is not cached yet.
+	 * @param longitude Longitude coordinate of the location of interest
+	 * @param latitude Latitude of the location of interest
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The moisture at this coordinate.
+	 */
+	@Override
+	public double getMoisture(double longitude, double latitude, double precision) {
+		long key = makeKey(CHANNEL_MOISTURE, longitude, latitude, precision);
+		double cached = lookup(key);
+		if(!Double.isNaN(cached)) return cached;
+		return store(key, planet.getMoisture(longitude, latitude, precision));
+	}
+	/**
+	 * Gets the temperature from the cache, or from the underlying planet if it 
+	 * is not cached yet.
+	 * @param longitude Longitude coordinate of the location of interest
+	 * @param latitude Latitude of the location of interest
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The temperature at this coordinate.
+	 */
+	@Override
+	public double getTemperature(double longitude, double latitude, double precision) {
+		long key = makeKey(CHANNEL_TEMPERATURE, longitude, latitude, precision);
+		double cached = lookup(key);
+		if(!Double.isNaN(cached)) return cached;
+		return store(key, planet.getTemperature(longitude, latitude, precision));
+	}
+	/**
+	 * Gets the size of the planet.
+	 * @return The radius of the underlying planet, in meters
+	 */
+	@Override
+	public double getRadius() {
+		return planet.getRadius();
+	}
+	
+	/** packs channel, octave and quantized coordinates into a single long */
+	private long makeKey(int channel, double longitude, double latitude, double precision){
+		double lon = longitude % TWO_PI;
+		if(lon < 0) lon += TWO_PI;
+		long qlon = ((long)(lon * inverseQuantum)) & COORDINATE_MASK;
+		long qlat = ((long)((latitude + 0.5 * Math.PI) * inverseQuantum)) & COORDINATE_MASK;
+		long octave = Math.min(Math.max((long)Math.floor(Math.log(precision) / LOG2) + 16, 0), 63);
+		return OCCUPIED | ((long)channel << 60) | (octave << 54) | (qlon << COORDINATE_BITS) | qlat;
+	}
+	
+	private int setIndex(long key){
+		// murmur3 finalizer to spread the packed coordinate bits
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int)h & setMask;
+	}
+	
+	/** 
+	 * returns the value cached for the key, or NaN if there is none (and 
+	 * counts a hit or miss). The value is copied while the lock is held, 
+	 * because another thread may re-use the slot as soon as it is released.
+	 */
+	private double lookup(long key){
+		int set = setIndex(key);
+		int stripe = set & stripeMask;
+		int base = set * WAYS;
+		ReentrantLock lock = locks[stripe];
+		lock.lock();
+		try{
+			for(int w = 0; w < WAYS; w++){
+				if(keys[base + w] == key){
+					lastUsed[base + w] = ++clocks[stripe];
+					hits.increment();
+					return values[base + w];
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		misses.increment();
+		return Double.NaN;
+	}
+	
+	/** 
+	 * inserts a value, evicting the least recently used entry of its set 
+	 * (NaN is not cached, because lookup(...) uses it to mean "not found")
+	 */
+	private double store(long key, double value){
+		if(Double.isNaN(value)) return value;
+		int set = setIndex(key);
+		int stripe = set & stripeMask;
+		int base = set * WAYS;
+		ReentrantLock lock = locks[stripe];
+		lock.lock();
+		try{
+			int victim = base;
+			for(int w = 0; w < WAYS; w++){
+				int slot = base + w;
+				if(keys[slot] == key || keys[slot] == 0){
+					// another thread got here first, or an empty way
+					victim = slot;
+					break;
+				}
+				if(lastUsed[slot] < lastUsed[victim]){
+					victim = slot;
+				}
+			}
+			if(keys[victim] != 0 && keys[victim] != key){
+				evictions.increment();
+			}
+			keys[victim] = key;
+			values[victim] = value;
+			lastUsed[victim] = ++clocks[stripe];
+		} finally {
+			lock.unlock();
+		}
+		return value;
+	}
+	
+	/**
+	 * Forgets all cached values. Statistics are not reset.
+	 */
+	public void clear(){
+		for(int stripe = 0; stripe < locks.length; stripe++){
+			locks[stripe].lock();
+		}
+		try{
+			Arrays.fill(keys, 0L);
+			Arrays.fill(lastUsed, 0L);
+		} finally {
+			for(int stripe = 0; stripe < locks.length; stripe++){
+				locks[stripe].unlock();
+			}
+		}
+	}
+	/**
+	 * Resets the hit, miss and eviction counters to 0.
+	 */
+	public void resetStatistics(){
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+	/**
+	 * Gets the number of requests that were answered from the cache.
+	 * @return Number of cache hits since creation (or the last reset)
+	 */
+	public long getHitCount(){
+		return hits.sum();
+	}
+	/**
+	 * Gets the number of requests that had to be passed on to the underlying 
+	 * planet.
+	 * @return Number of cache misses since creation (or the last reset)
+	 */
+	public long getMissCount(){
+		return misses.sum();
+	}
+	/**
+	 * Gets the number of cached values that were thrown out to make room for 
+	 * new ones.
+	 * @return Number of evictions since creation (or the last reset)
+	 */
+	public long getEvictionCount(){
+		return evictions.sum();
+	}
+	/**
+	 * Gets the fraction of requests that were answered from the cache.
+	 * @return A number from 0 to 1 (0 if there have been no requests)
+	 */
+	public double getHitRatio(){
+		long h = hits.sum();
+		long total = h + misses.sum();
+		if(total == 0) return 0;
+		return (double)h / (double)total;
+	}
+	/**
+	 * Gets the maximum number of values that this cache can hold.
+	 * @return The capacity of the cache
+	 */
+	public int getCapacity(){
+		return keys.length;
+	}
+	/**
+	 * Gets the angular step used to quantize coordinates.
+	 * @return The quantization step, in radians
+	 */
+	public double getAngularQuantum(){
+		return angularQuantum;
+	}
+	/**
+	 * Makes a one-line summary of the cache statistics.
+	 * @return A human-readable string
+	 */
+	@Override
+	public String toString(){
+		return "CachingPlanet[capacity=" + getCapacity() 
+				+ ", hits=" + getHitCount() 
+				+ ", misses=" + getMissCount() 
+				+ ", evictions=" + getEvictionCount() 
+				+ ", hit ratio=" + (float)getHitRatio() + "]";
+	}
+}
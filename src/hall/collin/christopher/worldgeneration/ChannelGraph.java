@@ -0,0 +1,142 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * The definitions of the channels of a planet: for each channel, a function 
+ * and the channels that it is calculated from. Any channel that is not 
+ * defined in the graph uses its default definition. Graphs are immutable; 
+ * <code>define(...)</code> returns a new graph.
+ * <p>
+ * For example, a planet whose temperature depends on its altitude can 
+ * define TEMPERATURE with ALTITUDE as an input, so that sampling both 
+ * channels at the same location calculates the altitude only once:
+ * </p><pre>
+ * graph = ChannelGraph.DEFAULT
+ *     .define(PlanetChannel.TEMPERATURE, 
+ *         (ChannelSample s)-&gt;temperatureFromAltitude(s.getX(), s.getY(), s.getZ(), s.get(PlanetChannel.ALTITUDE)), 
+ *         PlanetChannel.ALTITUDE);
+ * </pre>
+ * @author CCHall
+ */
+public final class ChannelGraph {
+	/** The graph where every channel uses its default definition */
+	public static final ChannelGraph DEFAULT = new ChannelGraph(new PlanetChannel.ChannelFunction[0], emptyInputs());
+	
+	/** indexed by channel index, null means default definition */
+	private final PlanetChannel.ChannelFunction[] functions;
+	private final List<PlanetChannel>[] inputs;
+	
+	private ChannelGraph(PlanetChannel.ChannelFunction[] functions, List<PlanetChannel>[] inputs){
+		this.functions = functions;
+		this.inputs = inputs;
+	}
+	
+	/** generic arrays cannot be created directly */
+	@SuppressWarnings("unchecked")
+	private static List<PlanetChannel>[] emptyInputs(){
+		return (List<PlanetChannel>[]) new List<?>[0];
+	}
+	
+	/**
+	 * Creates a copy of this graph with a channel (re)defined.
+	 * @param channel The channel to define
+	 * @param function Calculates the channel
+	 * @param channelInputs The channels that <code>function</code> reads
+	 * @return A new graph
+	 * @throws IllegalArgumentException Thrown if the new definition would 
+	 * make a channel depend on itself
+	 */
+	public ChannelGraph define(PlanetChannel channel, PlanetChannel.ChannelFunction function, PlanetChannel... channelInputs){
+		if(channel == null || function == null) throw new IllegalArgumentException("Channel and function are required");
+		int size = Math.max(functions.length, channel.getIndex() + 1);
+		PlanetChannel.ChannelFunction[] f = Arrays.copyOf(functions, size);
+		List<PlanetChannel>[] in = Arrays.copyOf(inputs, size);
+		f[channel.getIndex()] = function;
+		in[channel.getIndex()] = Collections.unmodifiableList(Arrays.asList(channelInputs.clone()));
+		ChannelGraph g = new ChannelGraph(f, in);
+		if(g.dependsOn(channelInputs, channel)){
+			throw new IllegalArgumentException("Channel "+channel+" cannot depend on itself");
+		}
+		return g;
+	}
+	
+	/** depth-first search of the inputs */
+	private boolean dependsOn(PlanetChannel[] start, PlanetChannel target){
+		boolean[] visited = new boolean[PlanetChannel.getChannelCount()];
+		Deque<PlanetChannel> stack = new ArrayDeque<>(Arrays.asList(start));
+		while(!stack.isEmpty()){
+			PlanetChannel c = stack.pop();
+			if(c == target) return true;
+			if(visited[c.getIndex()]) continue;
+			visited[c.getIndex()] = true;
+			stack.addAll(getInputs(c));
+		}
+		return false;
+	}
+	
+	/**
+	 * Gets the inputs of a channel in this graph.
+	 * @param channel A channel
+	 * @return The channels that it is calculated from
+	 */
+	public List<PlanetChannel> getInputs(PlanetChannel channel){
+		int i = channel.getIndex();
+		if(i < inputs.length && inputs[i] != null) return inputs[i];
+		return channel.getDefaultInputs();
+	}
+	
+	PlanetChannel.ChannelFunction getFunction(PlanetChannel channel){
+		int i = channel.getIndex();
+		if(i < functions.length && functions[i] != null) return functions[i];
+		return channel.getDefaultFunction();
+	}
+	
+	/**
+	 * Creates a sample for reading channels at one location.
+	 * @param planet The planet to sample
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is (see 
+	 * <code>AbstractPlanet.getAltitude(...)</code>)
+	 * @return A new sample
+	 */
+	public ChannelSample sample(AbstractPlanet planet, double x, double y, double z, double precision){
+		return new ChannelSample(planet, this, x, y, z, precision);
+	}
+}
@@ -0,0 +1,135 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration;
+
+import java.util.Arrays;
+
+/**
+ * Reads the channels of a planet at one location, calculating each channel 
+ * at most once no matter how many times it is read (directly or as the input 
+ * of another channel). Create one with <code>AbstractPlanet.sample(...)</code>.
+ * <p>
+ * A ChannelSample is meant to be used by a single thread and then thrown 
+ * away; it is not thread-safe.
+ * </p>
+ * @author CCHall
+ */
+public final class ChannelSample {
+	private static final byte NOT_COMPUTED = 0, COMPUTING = 1, COMPUTED = 2;
+	
+	private final AbstractPlanet planet;
+	private final ChannelGraph graph;
+	private final double x, y, z;
+	private final double precision;
+	private double[] values;
+	private byte[] state;
+	
+	ChannelSample(AbstractPlanet planet, ChannelGraph graph, double x, double y, double z, double precision){
+		this.planet = planet;
+		this.graph = graph;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.precision = precision;
+		int n = PlanetChannel.getChannelCount();
+		values = new double[n];
+		state = new byte[n];
+	}
+	
+	/**
+	 * Gets the value of a channel at this location, calculating it (and its 
+	 * inputs) if it has not been read yet.
+	 * @param channel The channel to read
+	 * @return The value of the channel
+	 * @throws IllegalStateException Thrown if the channel's definition reads 
+	 * the channel itself
+	 */
+	public double get(PlanetChannel channel){
+		int i = channel.getIndex();
+		if(i >= state.length){
+			// channel was created after this sample
+			values = Arrays.copyOf(values, PlanetChannel.getChannelCount());
+			state = Arrays.copyOf(state, values.length);
+		}
+		if(state[i] == COMPUTED) return values[i];
+		if(state[i] == COMPUTING){
+			throw new IllegalStateException("Channel "+channel+" depends on itself");
+		}
+		state[i] = COMPUTING;
+		try{
+			values[i] = graph.getFunction(channel).compute(this);
+			state[i] = COMPUTED;
+		} finally {
+			if(state[i] != COMPUTED) state[i] = NOT_COMPUTED;
+		}
+		return values[i];
+	}
+	
+	/**
+	 * Creates a new sample at a nearby location (e.g. to measure a gradient).
+	 * @param east Distance to move east, in meters
+	 * @param north Distance to move north, in meters
+	 * @return A new sample, with the same planet, graph and precision
+	 */
+	public ChannelSample offset(double east, double north){
+		double r = planet.getRadius();
+		double c = Math.sqrt(x*x + z*z); // cos(latitude)
+		double ex, ez, nx, ny, nz;
+		if(c > 1e-12){
+			ex = z / c; ez = -x / c;
+			nx = -x * y / c; ny = c; nz = -z * y / c;
+		} else {
+			// at a pole, any direction is north
+			ex = 1; ez = 0;
+			nx = 0; ny = 0; nz = -Math.signum(y);
+		}
+		double px = x + (east * ex + north * nx) / r;
+		double py = y + (north * ny) / r;
+		double pz = z + (east * ez + north * nz) / r;
+		double inv = 1.0 / Math.sqrt(px*px + py*py + pz*pz);
+		return new ChannelSample(planet, graph, px * inv, py * inv, pz * inv, precision);
+	}
+	
+	/** @return The planet being sampled */
+	public AbstractPlanet getPlanet(){return planet;}
+	/** @return X component of the unit vector of this location */
+	public double getX(){return x;}
+	/** @return Y component (the polar axis) of the unit vector of this location */
+	public double getY(){return y;}
+	/** @return Z component of the unit vector of this location */
+	public double getZ(){return z;}
+	/** @return The precision of this sample, in meters */
+	public double getPrecision(){return precision;}
+	/** @return The longitude of this location, in radians */
+	public double getLongitude(){return Math.atan2(x, z);}
+	/** @return The latitude of this location, in radians */
+	public double getLatitude(){return Math.atan2(y, Math.sqrt(x*x + z*z));}
+}
@@ -0,0 +1,262 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration;
+
+/**
+ * A deterministic population of impact craters covering a sphere, with crater 
+ * sizes following the power-law of heavily cratered surfaces (the number of 
+ * craters larger than diameter D is proportional to D<sup>-2</sup>). The 
+ * craters are never stored; they are generated on demand from a hash of 
+ * their location, so a crater field can hold millions of craters.
+ * <p>
+ * Craters are divided into size tiers, where each tier holds craters twice as 
+ * wide as the tier below it. Each tier divides space into a grid of cubic 
+ * buckets, sized so that a crater (including its ejecta blanket) never 
+ * reaches past the buckets next to the one that holds its center. Looking up the altitude 
+ * at a location therefore only generates the craters in the 27 buckets 
+ * around it in each tier, and tiers with craters too small to see at the 
+ * requested precision are skipped, so the cost of a look-up is bounded no 
+ * matter how many craters there are.
+ * </p>
+ * @author CCHall
+ */
+public class CraterField {
+	/** crater centers are points within this fraction of a bucket from the surface */
+	private static final double SHELL_HALF_THICKNESS = 0.25;
+	/** E[r^2] / r_min^2 for radii on [r_min, 2 r_min) with density proportional to r^-3 */
+	private static final double MEAN_SQUARE_RADIUS_FACTOR = 8 * Math.log(2) / 3;
+	/** diameter (in meters) above which craters are complex (flat floored, shallower) */
+	private static final double SIMPLE_TO_COMPLEX_DIAMETER = 15000;
+	
+	private final long seed;
+	private final double radius;
+	private final int numTiers;
+	/** smallest crater radius in each tier, in units of the sphere radius */
+	private final double[] tierMinRadius;
+	/** bucket size of each tier, in units of the sphere radius */
+	private final double[] tierBucketSize;
+	/** mean number of craters per bucket (the same for every tier) */
+	private final double cratersPerBucket;
+	/** probability of a bucket having no craters */
+	private final double emptyBucketProbability;
+	
+	/**
+	 * Creates a crater field.
+	 * @param seed Seed for the random placement of craters
+	 * @param radius Radius of the planet or moon, in meters
+	 * @param minCraterRadius Radius of the smallest craters, in meters
+	 * @param maxCraterRadius Radius of the largest craters, in meters
+	 * @param coverage The fraction of the surface covered by the craters of 
+	 * each size tier, from 0 to 1 (e.g. 0.5 for a heavily cratered surface)
+	 * @throws IllegalArgumentException Thrown if the crater radii or coverage 
+	 * are out of range
+	 */
+	public CraterField(long seed, double radius, double minCraterRadius, double maxCraterRadius, double coverage){
+		if(!(minCraterRadius > 0) || !(maxCraterRadius >= minCraterRadius) || maxCraterRadius > radius / 4){
+			throw new IllegalArgumentException("Crater radii must be positive, in order and less than a quarter of the planet radius");
+		}
+		if(!(coverage >= 0 && coverage <= 1)){
+			throw new IllegalArgumentException("Coverage must be between 0 and 1");
+		}
+		this.seed = seed;
+		this.radius = radius;
+		this.numTiers = 1 + (int)Math.floor(Math.log(maxCraterRadius / minCraterRadius) / Math.log(2));
+		tierMinRadius = new double[numTiers];
+		tierBucketSize = new double[numTiers];
+		for(int t = 0; t < numTiers; t++){
+			tierMinRadius[t] = minCraterRadius * Math.pow(2, t) / radius;
+			// the largest crater of a tier (with ejecta) reaches 2 * 2 * r_min 
+			// from its center, which is up to SHELL_HALF_THICKNESS buckets from 
+			// the surface, so this keeps every crater within one bucket
+			tierBucketSize[t] = 4 * tierMinRadius[t] / (1 - SHELL_HALF_THICKNESS);
+		}
+		// a bucket contributes (2 * SHELL_HALF_THICKNESS) of its volume to each 
+		// unit of surface area, so the crater density per area is 
+		// cratersPerBucket / bucketSize^2
+		double bucketSizeFactor = 4 / (1 - SHELL_HALF_THICKNESS);
+		double bucketToAreaRatio = bucketSizeFactor * bucketSizeFactor / (Math.PI * MEAN_SQUARE_RADIUS_FACTOR);
+		this.cratersPerBucket = coverage * bucketToAreaRatio / (2 * SHELL_HALF_THICKNESS);
+		this.emptyBucketProbability = Math.exp(-cratersPerBucket);
+	}
+	
+	/**
+	 * Gets the number of size tiers.
+	 * @return The number of tiers, where each tier has craters twice the size 
+	 * of the tier before it
+	 */
+	public int getNumberOfTiers(){
+		return numTiers;
+	}
+	
+	/**
+	 * Calculates the change in altitude caused by the craters at a location.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is. 
+	 * Craters much smaller than this distance (in meters) are left out.
+	 * @return The sum of the crater profiles at this location, in meters 
+	 * (negative in crater bowls, positive on rims and ejecta)
+	 */
+	public double getAltitude(double x, double y, double z, double precision){
+		double h = 0;
+		for(int t = numTiers - 1; t >= 0; t--){
+			// largest diameter in tier is 4 r_min
+			if(4 * tierMinRadius[t] * radius < 0.5 * precision) break;
+			h += tierAltitude(t, x, y, z, precision);
+		}
+		return h;
+	}
+	
+	private double tierAltitude(int tier, double x, double y, double z, double precision){
+		final double s = tierBucketSize[tier];
+		final double shellMin = 1 - SHELL_HALF_THICKNESS * s;
+		final double shellMax = 1 + SHELL_HALF_THICKNESS * s;
+		final double rMin = tierMinRadius[tier];
+		final double reachSq = 16 * rMin * rMin;
+		final double bucketReachSq = s * s; // reach plus shell thickness
+		final double shellMinSq = shellMin * shellMin, shellMaxSq = shellMax * shellMax;
+		long bx = (long)Math.floor(x / s);
+		long by = (long)Math.floor(y / s);
+		long bz = (long)Math.floor(z / s);
+		// per-axis squared distances for the 3 bucket rows along each axis: 
+		// from the sample, and the nearest and farthest from the origin
+		double[] axes = new double[27];
+		axisDistances(bx, s, x, axes, 0);
+		axisDistances(by, s, y, axes, 9);
+		axisDistances(bz, s, z, axes, 18);
+		final long tierSeed = mix(seed ^ (tier * 0x632BE59BD9B4E019L));
+		double h = 0;
+		for(int i = 0; i < 3; i++){
+			for(int j = 0; j < 3; j++){
+				for(int k = 0; k < 3; k++){
+					if(axes[i] + axes[9 + j] + axes[18 + k] >= bucketReachSq) continue;
+					if(axes[3 + i] + axes[12 + j] + axes[21 + k] >= shellMaxSq
+							|| axes[6 + i] + axes[15 + j] + axes[24 + k] < shellMinSq) continue;
+					long ix = bx - 1 + i, iy = by - 1 + j, iz = bz - 1 + k;
+					long state = mix(tierSeed ^ (ix * 0x9E3779B97F4A7C15L) ^ (iy * 0xC2B2AE3D27D4EB4FL) ^ (iz * 0x165667B19E3779F9L));
+					// Poisson distributed number of craters
+					state = next(state);
+					double u = toUnit(state);
+					double p = emptyBucketProbability;
+					double cdf = p;
+					int count = 0;
+					while(u > cdf && count < 64){
+						count++;
+						p *= cratersPerBucket / count;
+						cdf += p;
+					}
+					for(int c = 0; c < count; c++){
+						// 21 bits of position per axis
+						state = next(state);
+						long bits = mix(state);
+						double cx = (ix + (bits & 0x1FFFFF) * 0x1.0p-21) * s;
+						double cy = (iy + ((bits >>> 21) & 0x1FFFFF) * 0x1.0p-21) * s;
+						double cz = (iz + ((bits >>> 42) & 0x1FFFFF) * 0x1.0p-21) * s;
+						state = next(state);
+						double lenSq = cx*cx + cy*cy + cz*cz;
+						if(lenSq < shellMinSq || lenSq >= shellMaxSq) continue;
+						double inv = 1 / Math.sqrt(lenSq);
+						double dx = x - cx * inv, dy = y - cy * inv, dz = z - cz * inv;
+						double d2 = dx*dx + dy*dy + dz*dz;
+						if(d2 >= reachSq) continue;
+						// inverse CDF of density proportional to r^-3 on [rMin, 2 rMin)
+						double r = rMin / Math.sqrt(1 - 0.75 * toUnit(state));
+						if(d2 >= 4 * r * r) continue;
+						double diameter = 2 * r * radius;
+						// fade out craters that are smaller than the precision
+						double weight = Math.min(1, diameter / precision - 0.5);
+						if(weight <= 0) continue;
+						h += weight * profile(Math.sqrt(d2) / r, diameter);
+					}
+				}
+			}
+		}
+		return h;
+	}
+	
+	/**
+	 * Crater shape: a bowl inside the rim and an ejecta blanket out to twice 
+	 * the crater radius. Depths follow the lunar measurements of Pike (1977).
+	 * @param distance distance from the center, divided by the crater radius
+	 * @param diameter crater diameter, in meters
+	 * @return altitude change, in meters
+	 */
+	private static double profile(double distance, double diameter){
+		double depth, rim;
+		if(diameter < SIMPLE_TO_COMPLEX_DIAMETER){
+			depth = 0.196 * diameter;
+			rim = 0.036 * diameter;
+		} else {
+			double km = diameter * 0.001;
+			depth = 1044 * Math.pow(km, 0.301);
+			rim = 236 * Math.pow(km, 0.399);
+		}
+		if(distance < 1){
+			return -depth + (depth + rim) * distance * distance;
+		}
+		double f = 2 - distance;
+		return rim * f * f;
+	}
+	
+	/**
+	 * For the rows of buckets b-1, b and b+1 along one axis, stores the 
+	 * squared distance from the sample coordinate c (at offset), the squared 
+	 * distance nearest to the origin (at offset + 3) and the squared distance 
+	 * farthest from the origin (at offset + 6).
+	 */
+	private static void axisDistances(long b, double s, double c, double[] out, int offset){
+		for(int i = 0; i < 3; i++){
+			double lo = (b - 1 + i) * s, hi = lo + s;
+			double fromSample = Math.max(0, Math.max(lo - c, c - hi));
+			double near = (lo > 0) ? lo : ((hi < 0) ? hi : 0);
+			double far = Math.max(Math.abs(lo), Math.abs(hi));
+			out[offset + i] = fromSample * fromSample;
+			out[offset + 3 + i] = near * near;
+			out[offset + 6 + i] = far * far;
+		}
+	}
+	
+	/** SplitMix64 step */
+	private static long next(long state){
+		return state + 0x9E3779B97F4A7C15L;
+	}
+	/** SplitMix64 finalizer */
+	private static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+	/** uniform value in [0, 1) from the mixed state */
+	private static double toUnit(long state){
+		return (mix(state) >>> 11) * 0x1.0p-53;
+	}
+}
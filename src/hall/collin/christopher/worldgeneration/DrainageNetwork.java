@@ -0,0 +1,249 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration;
+
+import java.util.stream.IntStream;
+
+/**
+ * Rivers and lakes on the final node layer of a HydrologyNetworkSimulation 
+ * (see GeodesicGrid). 
+ * Depressions are filled with a priority-flood (starting from the ocean and 
+ * always flooding the lowest unvisited node next), which also gives every 
+ * land node a downstream neighbor. Run-off (the simulated precipitation of 
+ * each land node over its share of the planet's surface) is then accumulated 
+ * from the headwaters to the sea. Building the network is O(n log n) in the 
+ * number of nodes and look-ups are O(1).
+ * <p>
+ * Any node whose filled water level is above its altitude is part of a lake, 
+ * and any land node whose accumulated flow is above 
+ * <code>RIVER_MINIMUM_DISCHARGE</code> is the start of a river segment that 
+ * runs straight to its downstream node.
+ * </p>
+ * @author CCHall
+ */
+final class DrainageNetwork {
+	/** Smallest flow (in m^3/s) that is drawn as a river */
+	public static final double RIVER_MINIMUM_DISCHARGE = 10000;
+	/** Depressions shallower than this (in meters) are not lakes */
+	public static final double LAKE_MINIMUM_DEPTH = 5;
+	/** Width of a river (in meters) is this times the square-root of its discharge (in m^3/s) */
+	private static final double RIVER_WIDTH_FACTOR = 4;
+	private static final double SECONDS_PER_YEAR = 365.25 * 24 * 3600;
+	
+	private final double radius;
+	private final GeodesicGrid grid;
+	/** downstream node, or -1 for ocean (and the lowest node of a dry planet) */
+	private final int[] receiver;
+	/** accumulated flow out of each node, in m^3/s */
+	private final double[] discharge;
+	/** water surface altitude for lake nodes, -infinity for all others */
+	private final double[] lakeLevel;
+	
+	private DrainageNetwork(double radius, GeodesicGrid grid){
+		final int numNodes = grid.getNumberNodes();
+		this.radius = radius;
+		this.grid = grid;
+		receiver = new int[numNodes];
+		discharge = new double[numNodes];
+		lakeLevel = new double[numNodes];
+	}
+	
+	/**
+	 * Builds the river and lake network of a planet.
+	 * @param planet The planet
+	 * @param sim A finished hydrology simulation of that planet
+	 * @param nodeAltitude The altitude of each node of the simulation, or 
+	 * null to sample it from the planet
+	 * @return The drainage network
+	 */
+	static DrainageNetwork create(AbstractPlanet planet, HydrologyNetworkSimulation sim, double[] nodeAltitude){
+		final double[] precipitation = sim.getPrecipitationValues();
+		final GeodesicGrid grid = GeodesicGrid.getDefault();
+		final int n = precipitation.length;
+		if(grid.getNumberNodes() != n) throw new IllegalArgumentException("Simulation does not use the standard mesh");
+		final double radius = planet.getRadius();
+		final double cellArea = 4 * Math.PI * radius * radius / n;
+		final double precision = Math.sqrt(cellArea);
+		final DrainageNetwork d = new DrainageNetwork(radius, grid);
+		// sample the planet
+		final double[] altitude = (nodeAltitude != null) ? nodeAltitude : new double[n];
+		final double[] runoff = new double[n];
+		IntStream.range(0, n).parallel().forEach((int i)->{
+			if(nodeAltitude == null) altitude[i] = planet.getAltitude(grid.nx[i], grid.ny[i], grid.nz[i], precision);
+			if(altitude[i] > 0){
+				// cm per year over the cell -> m^3 per second
+				runoff[i] = Math.max(0, precipitation[i]) * 0.01 * cellArea / SECONDS_PER_YEAR;
+			}
+		});
+		d.fillAndRoute(altitude, runoff);
+		return d;
+	}
+	
+	/** priority-flood, then flow accumulation */
+	private void fillAndRoute(double[] altitude, double[] runoff){
+		final int n = altitude.length;
+		double[] level = new double[n];
+		boolean[] visited = new boolean[n];
+		int[] order = new int[n];
+		int popped = 0;
+		NodeHeap heap = new NodeHeap(n);
+		int lowest = 0;
+		for(int i = 0; i < n; i++){
+			receiver[i] = -1;
+			if(altitude[i] <= 0){
+				level[i] = altitude[i];
+				visited[i] = true;
+				heap.push(altitude[i], i);
+			}
+			if(altitude[i] < altitude[lowest]) lowest = i;
+		}
+		if(heap.isEmpty()){
+			// no ocean, everything drains to the lowest point
+			level[lowest] = altitude[lowest];
+			visited[lowest] = true;
+			heap.push(altitude[lowest], lowest);
+		}
+		while(!heap.isEmpty()){
+			int c = heap.pop();
+			order[popped++] = c;
+			for(int k = grid.adjacencyStart[c]; k < grid.adjacencyStart[c+1]; k++){
+				int nb = grid.adjacency[k];
+				if(visited[nb]) continue;
+				visited[nb] = true;
+				level[nb] = Math.max(altitude[nb], level[c]);
+				receiver[nb] = c;
+				heap.push(level[nb], nb);
+			}
+		}
+		// nodes are popped from downstream to upstream, so accumulate in reverse
+		for(int p = popped - 1; p >= 0; p--){
+			int i = order[p];
+			discharge[i] += runoff[i];
+			if(receiver[i] >= 0) discharge[receiver[i]] += discharge[i];
+		}
+		for(int i = 0; i < n; i++){
+			lakeLevel[i] = (altitude[i] > 0 && level[i] - altitude[i] >= LAKE_MINIMUM_DEPTH) 
+					? level[i] : Double.NEGATIVE_INFINITY;
+		}
+	}
+	
+	/**
+	 * Gets the flow of the river at a location.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Locations within half this distance (in meters) of a 
+	 * river are counted as part of it, so that rivers appear on a map with 
+	 * this grid spacing
+	 * @return The discharge of the river, in m^3/s, or 0 if there is no river 
+	 * at this location
+	 */
+	double getRiverDischarge(double x, double y, double z, double precision){
+		int nearest = grid.findNearestNode(x, y, z);
+		double q = riverSegmentDischarge(nearest, x, y, z, precision);
+		for(int k = grid.adjacencyStart[nearest]; k < grid.adjacencyStart[nearest+1]; k++){
+			q = Math.max(q, riverSegmentDischarge(grid.adjacency[k], x, y, z, precision));
+		}
+		return q;
+	}
+	
+	/** discharge of the segment from node i to its receiver, if the location is on it */
+	private double riverSegmentDischarge(int i, double x, double y, double z, double precision){
+		int r = receiver[i];
+		if(r < 0 || discharge[i] < RIVER_MINIMUM_DISCHARGE) return 0;
+		// closest point on the chord from i to r
+		double sx = grid.nx[r] - grid.nx[i], sy = grid.ny[r] - grid.ny[i], sz = grid.nz[r] - grid.nz[i];
+		double px = x - grid.nx[i], py = y - grid.ny[i], pz = z - grid.nz[i];
+		double t = (px*sx + py*sy + pz*sz) / (sx*sx + sy*sy + sz*sz);
+		t = Math.min(Math.max(t, 0), 1);
+		double dx = px - t*sx, dy = py - t*sy, dz = pz - t*sz;
+		double distance = radius * Math.sqrt(dx*dx + dy*dy + dz*dz);
+		double halfWidth = 0.5 * Math.max(precision, RIVER_WIDTH_FACTOR * Math.sqrt(discharge[i]));
+		return (distance <= halfWidth) ? discharge[i] : 0;
+	}
+	
+	/**
+	 * Gets the water surface altitude of the lake nearest to a location.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @return The altitude (in meters) of the lake surface, or -infinity if 
+	 * there is no lake near this location
+	 */
+	double getLakeLevel(double x, double y, double z){
+		return lakeLevel[grid.findNearestNode(x, y, z)];
+	}
+	
+	/** binary min-heap of node indices, keyed by water level */
+	private static final class NodeHeap{
+		private final double[] keys;
+		private final int[] values;
+		private int size = 0;
+		NodeHeap(int capacity){
+			keys = new double[capacity];
+			values = new int[capacity];
+		}
+		boolean isEmpty(){
+			return size == 0;
+		}
+		void push(double key, int value){
+			int i = size++;
+			while(i > 0){
+				int parent = (i - 1) >> 1;
+				if(keys[parent] <= key) break;
+				keys[i] = keys[parent];
+				values[i] = values[parent];
+				i = parent;
+			}
+			keys[i] = key;
+			values[i] = value;
+		}
+		int pop(){
+			int top = values[0];
+			size--;
+			double key = keys[size];
+			int value = values[size];
+			int i = 0;
+			while(true){
+				int child = 2 * i + 1;
+				if(child >= size) break;
+				if(child + 1 < size && keys[child + 1] < keys[child]) child++;
+				if(keys[child] >= key) break;
+				keys[i] = keys[child];
+				values[i] = values[child];
+				i = child;
+			}
+			keys[i] = key;
+			values[i] = value;
+			return top;
+		}
+	}
+}
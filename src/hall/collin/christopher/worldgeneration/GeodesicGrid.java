@@ -0,0 +1,558 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration;
+
+import hall.collin.christopher.worldgeneration.HydrologyNetworkSimulation.HydrologyNetNode;
+import hall.collin.christopher.worldgeneration.automata.sphere.SphereNetNode;
+import hall.collin.christopher.worldgeneration.math.Point3D;
+import hall.collin.christopher.worldgeneration.math.SphericalMath;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * The node positions and connections of the final layer of the hydrology 
+ * mesh, as flat arrays, with an O(1) nearest-node look-up (a cube-map table 
+ * followed by a short walk to the closest neighbor). Every hydrology 
+ * simulation has the same mesh with the same node order, so a single 
+ * instance (see <code>getDefault()</code>) is shared by everything that 
+ * works on the mesh: node i of the grid is node i of any simulation. It also 
+ * has the parallel algorithms used to grow regions, measure distances, 
+ * label connected components and solve diffusion problems over the mesh, 
+ * and a smooth O(1) interpolation of node values.
+ * @author CCHall
+ */
+final class GeodesicGrid {
+	/** number of look-up table cells along each edge of a cube face */
+	private static final int LOCATOR_SIZE = 64;
+	
+	// node positions (unit vectors)
+	final double[] nx, ny, nz;
+	// adjacency, compressed sparse row format
+	final int[] adjacencyStart;
+	final int[] adjacency;
+	/** straight-line length of each edge of the adjacency, on a unit sphere */
+	final double[] edgeLength;
+	/** mean straight-line distance between connected nodes, on a unit sphere */
+	private final double meanEdgeLength;
+	/** nodes per block of the reductions in solveDiffusion(...) */
+	private static final int REDUCTION_BLOCK_SIZE = 512;
+	/** squared radius of the interpolation kernel, on a unit sphere */
+	private final double kernelRadiusSquared;
+	/** nearest node to the center of each cell of a cube map */
+	private final int[] locator = new int[6 * LOCATOR_SIZE * LOCATOR_SIZE];
+	
+	private GeodesicGrid(HydrologyNetworkSimulation sim){
+		HydrologyNetNode[] nodes = sim.getNodeNetwork();
+		final int n = nodes.length;
+		IdentityHashMap<SphereNetNode, Integer> indices = new IdentityHashMap<>(2 * n);
+		int numEdges = 0;
+		for(int i = 0; i < n; i++){
+			indices.put(nodes[i], i);
+			for(SphereNetNode c : nodes[i].getConnections()){
+				if(c != null) numEdges++;
+			}
+		}
+		nx = new double[n];
+		ny = new double[n];
+		nz = new double[n];
+		adjacencyStart = new int[n + 1];
+		adjacency = new int[numEdges];
+		edgeLength = new double[numEdges];
+		final SphericalMath math = SphericalMath.getInstance();
+		int e = 0;
+		for(int i = 0; i < n; i++){
+			Point3D v = math.lonLatTo3D(nodes[i].getCoordinate());
+			nx[i] = v.x;
+			ny[i] = v.y;
+			nz[i] = v.z;
+			adjacencyStart[i] = e;
+			for(SphereNetNode c : nodes[i].getConnections()){
+				if(c != null) adjacency[e++] = indices.get(c);
+			}
+			// the mesh is connected in parallel, so sort the neighbors to make the order repeatable
+			Arrays.sort(adjacency, adjacencyStart[i], e);
+		}
+		adjacencyStart[n] = e;
+		double sum = 0;
+		for(int i = 0; i < n; i++){
+			for(int k = adjacencyStart[i]; k < adjacencyStart[i+1]; k++){
+				edgeLength[k] = distance(i, adjacency[k]);
+				sum += edgeLength[k];
+			}
+		}
+		meanEdgeLength = sum / numEdges;
+		kernelRadiusSquared = meanEdgeLength * meanEdgeLength;
+		buildLocator();
+	}
+	
+	/**
+	 * Gets the grid of the hydrology mesh. It is built the first time it is 
+	 * needed.
+	 * @return The shared grid
+	 */
+	static GeodesicGrid getDefault(){
+		return DefaultHolder.GRID;
+	}
+	private static final class DefaultHolder{
+		static final GeodesicGrid GRID = new GeodesicGrid(HydrologyNetworkSimulation.createEmptyNetwork(()->false, null));
+	}
+	
+	/**
+	 * Gets the number of nodes.
+	 * @return The number of nodes
+	 */
+	int getNumberNodes(){
+		return nx.length;
+	}
+	/**
+	 * Gets the mean distance between connected nodes.
+	 * @return The mean straight-line distance between connected nodes, on a 
+	 * unit sphere
+	 */
+	double getMeanEdgeLength(){
+		return meanEdgeLength;
+	}
+	/**
+	 * Gets the straight-line distance between two nodes.
+	 * @param i Index of a node
+	 * @param j Index of a node
+	 * @return The distance, on a unit sphere
+	 */
+	double distance(int i, int j){
+		double dx = nx[i] - nx[j], dy = ny[i] - ny[j], dz = nz[i] - nz[j];
+		return Math.sqrt(dx*dx + dy*dy + dz*dz);
+	}
+	
+	/**
+	 * Finds the closest node to a location.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @return The index of the closest node
+	 */
+	int findNearestNode(double x, double y, double z){
+		return walkToNearest(locator[locatorCell(x, y, z)], x, y, z);
+	}
+	
+	/**
+	 * Lowers the cost of every node to the cheapest cost of reaching it from 
+	 * a neighbor, until nothing changes. Each round only visits the neighbors 
+	 * of the nodes that changed in the previous round, and calculates all of 
+	 * them from the previous round's values before any are changed, so the 
+	 * result is the same however the work is split between threads.
+	 * @param cost Cost of each node (infinite if it has not been reached)
+	 * @param label Source of each node (-1 if it has not been reached), which 
+	 * it passes on to the nodes that it reaches
+	 * @param speed Speed of each source (the cost of a step is divided by it)
+	 * @param resistance Cost multiplier of each node (null for 1)
+	 */
+	void relax(final double[] cost, final int[] label, final double[] speed, final double[] resistance){
+		final int n = getNumberNodes();
+		final int[] visited = new int[n];
+		int round = 0;
+		int[] active = IntStream.range(0, n).toArray();
+		while(active.length > 0){
+			final int[] nodes = active;
+			final double[] newCost = new double[nodes.length];
+			final int[] newLabel = new int[nodes.length];
+			IntStream.range(0, nodes.length).parallel().forEach((int j)->{
+				int i = nodes[j];
+				double best = cost[i];
+				int bestLabel = label[i];
+				double r = (resistance == null) ? 1 : resistance[i];
+				for(int k = adjacencyStart[i]; k < adjacencyStart[i+1]; k++){
+					int nb = adjacency[k];
+					int p = label[nb];
+					if(p < 0) continue;
+					double c = cost[nb] + edgeLength[k] * r / speed[p];
+					if(c < best || (c == best && p < bestLabel)){
+						best = c;
+						bestLabel = p;
+					}
+				}
+				newCost[j] = best;
+				newLabel[j] = bestLabel;
+			});
+			// apply the changes and visit the neighbors of changed nodes next
+			round++;
+			int numNext = 0;
+			int[] next = new int[Math.min(n, 7 * nodes.length)];
+			for(int j = 0; j < nodes.length; j++){
+				int i = nodes[j];
+				if(newCost[j] == cost[i] && newLabel[j] == label[i]) continue;
+				cost[i] = newCost[j];
+				label[i] = newLabel[j];
+				for(int k = adjacencyStart[i]; k < adjacencyStart[i+1]; k++){
+					int nb = adjacency[k];
+					if(visited[nb] != round){
+						visited[nb] = round;
+						next[numNext++] = nb;
+					}
+				}
+			}
+			active = Arrays.copyOf(next, numNext);
+		}
+	}
+	
+	/**
+	 * Measures the distance from every node to the nearest boundary between 
+	 * regions. The boundary is taken to run through the midpoints of the 
+	 * edges that connect nodes of different regions. Rather than adding up 
+	 * edge lengths (which overestimates distances that do not run along the 
+	 * edges, making star-shaped artifacts), each node keeps the position of 
+	 * its nearest boundary point, and takes a neighbor's point instead if it 
+	 * is closer. Like <code>relax(...)</code>, each round only visits the 
+	 * neighbors of changed nodes and reads the previous round's values.
+	 * @param region Region of each node
+	 * @return The distance of each node from the nearest boundary, along the 
+	 * surface of a unit sphere (infinite if there is only one region)
+	 */
+	double[] distanceToBoundary(final int[] region){
+		final int n = getNumberNodes();
+		final double[] distance = new double[n];
+		// nearest boundary point of each node
+		final double[] bx = new double[n], by = new double[n], bz = new double[n];
+		IntStream.range(0, n).parallel().forEach((int i)->{
+			double best = Double.POSITIVE_INFINITY;
+			for(int k = adjacencyStart[i]; k < adjacencyStart[i+1]; k++){
+				int nb = adjacency[k];
+				if(region[nb] != region[i] && 0.5 * edgeLength[k] < best){
+					best = 0.5 * edgeLength[k];
+					bx[i] = 0.5 * (nx[i] + nx[nb]);
+					by[i] = 0.5 * (ny[i] + ny[nb]);
+					bz[i] = 0.5 * (nz[i] + nz[nb]);
+				}
+			}
+			distance[i] = best;
+		});
+		final int[] visited = new int[n];
+		int round = 0;
+		int[] active = IntStream.range(0, n).toArray();
+		while(active.length > 0){
+			final int[] nodes = active;
+			final boolean[] changed = new boolean[nodes.length];
+			final double[] newDistance = new double[nodes.length];
+			final double[] newBx = new double[nodes.length], newBy = new double[nodes.length], newBz = new double[nodes.length];
+			IntStream.range(0, nodes.length).parallel().forEach((int j)->{
+				int i = nodes[j];
+				double best = distance[i];
+				int source = -1;
+				for(int k = adjacencyStart[i]; k < adjacencyStart[i+1]; k++){
+					int nb = adjacency[k];
+					if(distance[nb] == Double.POSITIVE_INFINITY) continue;
+					double dx = nx[i] - bx[nb], dy = ny[i] - by[nb], dz = nz[i] - bz[nb];
+					double d = Math.sqrt(dx*dx + dy*dy + dz*dz);
+					if(d < best){
+						best = d;
+						source = nb;
+					}
+				}
+				if(source >= 0){
+					changed[j] = true;
+					newDistance[j] = best;
+					newBx[j] = bx[source];
+					newBy[j] = by[source];
+					newBz[j] = bz[source];
+				}
+			});
+			round++;
+			int numNext = 0;
+			int[] next = new int[Math.min(n, 7 * nodes.length)];
+			for(int j = 0; j < nodes.length; j++){
+				if(!changed[j]) continue;
+				int i = nodes[j];
+				distance[i] = newDistance[j];
+				bx[i] = newBx[j];
+				by[i] = newBy[j];
+				bz[i] = newBz[j];
+				for(int k = adjacencyStart[i]; k < adjacencyStart[i+1]; k++){
+					int nb = adjacency[k];
+					if(visited[nb] != round){
+						visited[nb] = round;
+						next[numNext++] = nb;
+					}
+				}
+			}
+			active = Arrays.copyOf(next, numNext);
+		}
+		// straight-line distance to distance along the surface
+		for(int i = 0; i < n; i++){
+			if(distance[i] < Double.POSITIVE_INFINITY){
+				distance[i] = 2 * Math.asin(Math.min(1, 0.5 * distance[i]));
+			}
+		}
+		return distance;
+	}
+	
+	/**
+	 * Labels the connected components of regions: two nodes are in the same 
+	 * component if they are joined by a path of connected nodes of the same 
+	 * region. The edges are joined in parallel with a lock-free union-find, 
+	 * in which the root of a component is always its smallest node, so the 
+	 * result does not depend on the order in which the edges are joined.
+	 * @param region Region of each node
+	 * @return The component of each node, numbered from 0 in order of the 
+	 * smallest node in each component
+	 */
+	int[] labelComponents(final int[] region){
+		final int n = getNumberNodes();
+		final AtomicIntegerArray parent = new AtomicIntegerArray(n);
+		for(int i = 0; i < n; i++){
+			parent.set(i, i);
+		}
+		IntStream.range(0, n).parallel().forEach((int i)->{
+			for(int k = adjacencyStart[i]; k < adjacencyStart[i+1]; k++){
+				int nb = adjacency[k];
+				if(nb > i && region[nb] == region[i]) union(parent, i, nb);
+			}
+		});
+		int[] label = new int[n];
+		int count = 0;
+		for(int i = 0; i < n; i++){
+			int root = find(parent, i);
+			// the root is the smallest node, so it has already been numbered
+			label[i] = (root == i) ? count++ : label[root];
+		}
+		return label;
+	}
+	/** root of a node, halving the path on the way */
+	private static int find(AtomicIntegerArray parent, int i){
+		while(true){
+			int p = parent.get(i);
+			if(p == i) return i;
+			int gp = parent.get(p);
+			if(gp != p) parent.compareAndSet(i, p, gp);
+			i = gp;
+		}
+	}
+	/** joins two components, putting the larger root under the smaller one */
+	private static void union(AtomicIntegerArray parent, int a, int b){
+		while(true){
+			a = find(parent, a);
+			b = find(parent, b);
+			if(a == b) return;
+			if(a < b){
+				int t = a;
+				a = b;
+				b = t;
+			}
+			// fails if another thread has just moved a under a different root
+			if(parent.compareAndSet(a, a, b)) return;
+		}
+	}
+	
+	/**
+	 * Solves a steady-state diffusion problem on the mesh, 
+	 * (d<sub>i</sub>&nbsp;+&nbsp;c&nbsp;k<sub>i</sub>)&nbsp;u<sub>i</sub>&nbsp;-&nbsp;c&nbsp;&Sigma;<sub>j</sub>&nbsp;u<sub>j</sub>&nbsp;=&nbsp;b<sub>i</sub>, 
+	 * where the sum is over the k<sub>i</sub> neighbours of node i. This is 
+	 * the finite-volume form of d&nbsp;u&nbsp;-&nbsp;D&nbsp;&nabla;<sup>2</sup>u&nbsp;=&nbsp;b 
+	 * on a mesh of (almost) equal cells, with c&nbsp;=&nbsp;D&nbsp;/&nbsp;(&radic;3&nbsp;A) 
+	 * for cells of area A (see <code>diffusionCoupling(diffusivity)</code>). 
+	 * The matrix is symmetric and positive definite, so it is solved with 
+	 * the conjugate gradient method, preconditioned by the diagonal. Each 
+	 * step is parallel, and the sums are added up in fixed blocks so that 
+	 * the result does not depend on the number of threads.
+	 * @param diagonal d<sub>i</sub>, which must be positive at one node at least
+	 * @param coupling c, which must not be negative
+	 * @param rhs b<sub>i</sub>
+	 * @param guess Starting solution (can be null to start from 0)
+	 * @param tolerance The iterations stop when the norm of the residual is 
+	 * less than this fraction of the norm of <code>rhs</code>
+	 * @param maxIterations Maximum number of iterations
+	 * @return u<sub>i</sub>
+	 */
+	double[] solveDiffusion(final double[] diagonal, final double coupling, final double[] rhs, 
+			double[] guess, double tolerance, int maxIterations){
+		final int n = getNumberNodes();
+		if(diagonal.length != n || rhs.length != n || (guess != null && guess.length != n)){
+			throw new IllegalArgumentException("Expected one value per node ("+n+")");
+		}
+		if(!(coupling >= 0)) throw new IllegalArgumentException("Coupling must not be negative");
+		final double[] u = (guess == null) ? new double[n] : guess.clone();
+		final double[] r = new double[n], z = new double[n], p = new double[n], ap = new double[n];
+		final double[] inverseDiagonal = new double[n];
+		IntStream.range(0, n).parallel().forEach((int i)->{
+			inverseDiagonal[i] = 1.0 / (diagonal[i] + coupling * (adjacencyStart[i+1] - adjacencyStart[i]));
+		});
+		applyDiffusion(diagonal, coupling, u, ap);
+		IntStream.range(0, n).parallel().forEach((int i)->{
+			r[i] = rhs[i] - ap[i];
+			z[i] = inverseDiagonal[i] * r[i];
+			p[i] = z[i];
+		});
+		final double limit = tolerance * tolerance * dot(rhs, rhs);
+		double rz = dot(r, z);
+		for(int iteration = 0; iteration < maxIterations && dot(r, r) > limit; iteration++){
+			applyDiffusion(diagonal, coupling, p, ap);
+			final double alpha = rz / dot(p, ap);
+			IntStream.range(0, n).parallel().forEach((int i)->{
+				u[i] += alpha * p[i];
+				r[i] -= alpha * ap[i];
+				z[i] = inverseDiagonal[i] * r[i];
+			});
+			double rzNext = dot(r, z);
+			final double beta = rzNext / rz;
+			rz = rzNext;
+			IntStream.range(0, n).parallel().forEach((int i)->{
+				p[i] = z[i] + beta * p[i];
+			});
+		}
+		return u;
+	}
+	/**
+	 * Gets the coupling c of <code>solveDiffusion(...)</code> for a 
+	 * diffusivity D.
+	 * @param diffusivity D, in the units of the diagonal times the square of 
+	 * the radius (D is per radian<sup>2</sup> on a unit sphere)
+	 * @return c
+	 */
+	double diffusionCoupling(double diffusivity){
+		double cellArea = 4 * Math.PI / getNumberNodes();
+		return diffusivity / (Math.sqrt(3) * cellArea);
+	}
+	/** out = A * u, for the matrix of solveDiffusion(...) */
+	private void applyDiffusion(final double[] diagonal, final double coupling, final double[] u, final double[] out){
+		IntStream.range(0, getNumberNodes()).parallel().forEach((int i)->{
+			double sum = 0;
+			for(int k = adjacencyStart[i]; k < adjacencyStart[i+1]; k++){
+				sum += u[i] - u[adjacency[k]];
+			}
+			out[i] = diagonal[i] * u[i] + coupling * sum;
+		});
+	}
+	/** dot product, summed in fixed blocks so that it is deterministic */
+	private static double dot(final double[] a, final double[] b){
+		final int numBlocks = (a.length + REDUCTION_BLOCK_SIZE - 1) / REDUCTION_BLOCK_SIZE;
+		final double[] partial = new double[numBlocks];
+		IntStream.range(0, numBlocks).parallel().forEach((int block)->{
+			int end = Math.min(a.length, (block + 1) * REDUCTION_BLOCK_SIZE);
+			double sum = 0;
+			for(int i = block * REDUCTION_BLOCK_SIZE; i < end; i++){
+				sum += a[i] * b[i];
+			}
+			partial[block] = sum;
+		});
+		double sum = 0;
+		for(double v : partial){
+			sum += v;
+		}
+		return sum;
+	}
+	
+	/**
+	 * Interpolates a value between the nodes near a location, weighting each 
+	 * node within one mean edge length by (1 - d^2/r^2)^2, which is smooth 
+	 * and falls to 0 at that distance. Every such node is the nearest node or 
+	 * one of its neighbors, so this is O(1).
+	 * @param values Value of each node
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @return The interpolated value
+	 */
+	double interpolate(double[] values, double x, double y, double z){
+		int nearest = findNearestNode(x, y, z);
+		double sum = 0, weightSum = 0;
+		for(int k = adjacencyStart[nearest] - 1; k < adjacencyStart[nearest+1]; k++){
+			int i = (k < adjacencyStart[nearest]) ? nearest : adjacency[k];
+			double dx = x - nx[i], dy = y - ny[i], dz = z - nz[i];
+			double w = 1 - (dx*dx + dy*dy + dz*dz) / kernelRadiusSquared;
+			if(w <= 0) continue;
+			w *= w;
+			sum += w * values[i];
+			weightSum += w;
+		}
+		if(weightSum == 0) return values[nearest];
+		return sum / weightSum;
+	}
+	
+	private int walkToNearest(int start, double x, double y, double z){
+		int current = start;
+		double best = x*nx[current] + y*ny[current] + z*nz[current];
+		while(true){
+			int next = current;
+			for(int k = adjacencyStart[current]; k < adjacencyStart[current+1]; k++){
+				int nb = adjacency[k];
+				double dot = x*nx[nb] + y*ny[nb] + z*nz[nb];
+				if(dot > best){
+					best = dot;
+					next = nb;
+				}
+			}
+			if(next == current) return current;
+			current = next;
+		}
+	}
+	
+	/** cube-map cell containing a direction */
+	private static int locatorCell(double x, double y, double z){
+		double ax = Math.abs(x), ay = Math.abs(y), az = Math.abs(z);
+		int face;
+		double u, v;
+		if(ax >= ay && ax >= az){
+			face = (x > 0) ? 0 : 1;
+			u = y / ax; v = z / ax;
+		} else if(ay >= az){
+			face = (y > 0) ? 2 : 3;
+			u = x / ay; v = z / ay;
+		} else {
+			face = (z > 0) ? 4 : 5;
+			u = x / az; v = y / az;
+		}
+		int iu = Math.min(LOCATOR_SIZE - 1, (int)((u + 1) * 0.5 * LOCATOR_SIZE));
+		int iv = Math.min(LOCATOR_SIZE - 1, (int)((v + 1) * 0.5 * LOCATOR_SIZE));
+		return (face * LOCATOR_SIZE + iv) * LOCATOR_SIZE + iu;
+	}
+	
+	private void buildLocator(){
+		int node = 0;
+		for(int face = 0; face < 6; face++){
+			double sign = ((face & 1) == 0) ? 1 : -1;
+			for(int iv = 0; iv < LOCATOR_SIZE; iv++){
+				for(int iu = 0; iu < LOCATOR_SIZE; iu++){
+					double u = (iu + 0.5) * 2.0 / LOCATOR_SIZE - 1;
+					double v = (iv + 0.5) * 2.0 / LOCATOR_SIZE - 1;
+					double x, y, z;
+					switch(face >> 1){
+						case 0: x = sign; y = u; z = v; break;
+						case 1: x = u; y = sign; z = v; break;
+						default: x = u; y = v; z = sign; break;
+					}
+					// start from the previous cell, which is usually adjacent
+					node = walkToNearest(node, x, y, z);
+					locator[(face * LOCATOR_SIZE + iv) * LOCATOR_SIZE + iu] = node;
+				}
+			}
+		}
+	}
+}
@@ -43,23 +43,38 @@ import hall.collin.christopher.worldgeneration.math.SphericalMath;
 import hall.collin.christopher.worldgeneration.util.GUI;
 import static hall.collin.christopher.worldgeneration.util.GUI.colorLUT;
 import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.atomic.DoubleAdder;
-import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * This class runs a water diffusion simulation via a node-network 
- * arranged to emulate the surface of a sphere.
+ * arranged to emulate the surface of a sphere. The network of nodes and 
+ * cells is only used for its geometry (e.g. to find the cell around a 
+ * point); the state of the simulation is kept in flat arrays indexed by the 
+ * position of each node in the final layer, and the connections between 
+ * nodes in compressed sparse row (CSR) format, so that an iteration is a 
+ * single pass that gathers water from each node's neighbors into a second 
+ * set of arrays (without atomic operations or contention between threads).
  * @author CCHall
  */
 public class HydrologyNetworkSimulation {
@@ -68,6 +83,47 @@ public class HydrologyNetworkSimulation {
 	
 	private SphereNetCell[] starting20 = new SphereNetCell[20];
 	private long numWaterSourceNodes = -1;
+	
+	// layout of the final layer (shared with copies of the mesh)
+	/** 
+	 * outbound connections of each node (CSR): the neighbors of node i are 
+	 * <code>adjacency[adjacencyStart[i]]</code> to 
+	 * <code>adjacency[adjacencyStart[i+1]-1]</code>
+	 */
+	private int[] adjacencyStart, adjacency;
+	/** 
+	 * inbound connections of each node (CSR), i.e. the nodes that give water 
+	 * to it, in ascending order so that the sums are repeatable
+	 */
+	private int[] inboundStart, inbound;
+	
+	// state of the simulation, one element per node of the final layer
+	/** water held by each node (swapped with nextCloud every iteration) */
+	private volatile double[] cloud;
+	/** Water dropped on each node as precipitation (swapped with nextPrecipitate every iteration) */
+	private volatile double[] precipitate;
+	/** buffers for the next iteration */
+	private double[] nextCloud, nextPrecipitate;
+	/** factor describing how much of each node's water it gives to neighbors per iteration */
+	private double[] conductivity;
+	/** the share of each node's water that it gives to each neighbor per iteration (conductivity / number of neighbors) */
+	private double[] outflowFraction;
+	/** factor for what fraction of each node's water falls as precipitation */
+	private double[] precipitivity;
+	/** How much water moves from precipitant to water buffer each iteration */
+	private double[] evaporativity;
+	/** What fraction of dropped water disappears into rivers and groundwater */
+	private double[] runoff;
+	/** Ocean nodes are designated as water source nodes and they produce water */
+	private boolean[] isWaterSource;
+	/** how the last run went (null until the simulation has been run) */
+	private volatile Convergence convergence = null;
+	/** 
+	 * true from <code>initializeNodes(...)</code> or 
+	 * <code>warmStartFrom(...)</code> until the simulation is iterated, i.e. 
+	 * while the simulation can be started from the coarse layers
+	 */
+	private boolean initialState = false;
 	/**
 	 * Creates a network with the given starting value at all nodes.
 	 * @param initialValue 
@@ -78,7 +134,31 @@ public class HydrologyNetworkSimulation {
 	
 	
 	private static final int numSubDivisions = 5;
+	/** the most iterations that a simulation runs for */
 	private static final int numIterations = 1600;
+	/** 
+	 * Default tolerance of <code>runSimulation(...)</code>: the simulation 
+	 * stops when no node's precipitate or cloud water changes by more than 
+	 * this much (in cm) in one iteration
+	 */
+	public static final double DEFAULT_TOLERANCE = 0.05;
+	/** nodes per block of the reductions of each iteration */
+	private static final int REDUCTION_BLOCK_SIZE = 512;
+	/** coarsest layer that a simulation is started from (layer 2 has 162 nodes) */
+	private static final int NESTED_COARSEST_LAYER = 2;
+	/** the most iterations run on each of the coarse layers */
+	private static final int NESTED_MAX_ITERATIONS = 4000;
+	/** tolerance of the coarse layers, relative to the tolerance of the final layer */
+	private static final double NESTED_TOLERANCE_FACTOR = 0.1;
+	/** 
+	 * largest fraction of a node's water that it can lose in an iteration 
+	 * of a coarse layer (at 1 the iterations can oscillate forever)
+	 */
+	private static final double NESTED_STABILITY = 0.9;
+	/** relative residual at which solveSteadyState(...) stops */
+	private static final double STEADY_STATE_TOLERANCE = 1e-10;
+	/** the most conjugate gradient iterations run by solveSteadyState(...) */
+	private static final int STEADY_STATE_MAX_ITERATIONS = 5000;
 	private static final double initialPrecipitation = 0;
 	private static final double initialWater = 0;
 	private static final double minConductivity = 0.05;
@@ -86,6 +166,11 @@ public class HydrologyNetworkSimulation {
 	private static final double oceanRefillValue = 0.0;
 	private static final double oceanInitialPrecipitate = 500;
 	
+	/** Version of the binary layout written by <code>saveState(...)</code> */
+	public static final int STATE_FORMAT_VERSION = 1;
+	/** number of doubles stored per node by <code>saveState(...)</code> */
+	private static final int STATE_DOUBLES_PER_NODE = 6;
+	
 	/**
 	 * Creates a node-network around the planet and then initializes the 
 	 * values to the starting point of the simulation (but does not 
@@ -97,49 +182,386 @@ public class HydrologyNetworkSimulation {
 	 * simulate
 	 */
 	public static HydrologyNetworkSimulation createHydrologyNetwork(AbstractPlanet p, double atmosphericPressure_kPa){
-		final HydrologyNetworkSimulation sim = new HydrologyNetworkSimulation();
-		for(int i = 0; i < numSubDivisions; i++){
-			sim.subdivideNetwork();
-		}
+		return createHydrologyNetwork(p, atmosphericPressure_kPa, ()->false, null, null);
+	}
+	/**
+	 * Creates a node-network around the planet and then initializes the 
+	 * values to the starting point of the simulation (but does not 
+	 * run the simulation), reporting the progress of each step and stopping 
+	 * early if asked to.
+	 * @param p Planet whose weather you want to simulate
+	 * @param atmosphericPressure_kPa The planet's atmospheric pressure at 
+	 * sea-level, in kPa.
+	 * @param abortSignal Checked regularly; if it returns true, the 
+	 * operation stops by throwing a CancellationException
+	 * @param meshProgress Sums to 1.0 when the network has been built. Can 
+	 * be null.
+	 * @param samplingProgress Sums to 1.0 when all nodes have been sampled 
+	 * from the planet. Can be null.
+	 * @return An instance of HydrologyNetworkSimulation that is ready to 
+	 * simulate
+	 * @throws CancellationException Thrown if <code>abortSignal</code> 
+	 * returned true
+	 */
+	public static HydrologyNetworkSimulation createHydrologyNetwork(AbstractPlanet p, double atmosphericPressure_kPa, 
+			BooleanSupplier abortSignal, DoubleAdder meshProgress, DoubleAdder samplingProgress){
+		final HydrologyNetworkSimulation sim = createMesh(abortSignal, meshProgress);
 		HydrologyNetNode[] net = sim.getNodeNetwork();
 		final double precision = Math.sqrt((4*Math.PI*p.getRadius()*p.getRadius()) / (double)net.length);
-		Arrays.asList(net).parallelStream().forEach((HydrologyNetNode n)->{
+		final double progressPerNode = 1.0 / net.length;
+		final double[] altitude = new double[net.length];
+		final double[] roughness = new double[net.length];
+		final double[] temperature = new double[net.length];
+		IntStream.range(0, net.length).parallel().forEach((int i)->{
+			if(abortSignal.getAsBoolean()){
+				throw new CancellationException("Hydrology network creation was aborted");
+			}
+			Point3D v = sim.getNodeVector(i);
+			ChannelSample sample = p.sample(v.x, v.y, v.z, precision);
+			altitude[i] = sample.get(PlanetChannel.ALTITUDE);
+			roughness[i] = sample.get(PlanetChannel.ROUGHNESS);
+			temperature[i] = sample.get(PlanetChannel.TEMPERATURE);
+			if(samplingProgress != null) samplingProgress.add(progressPerNode);
+		});
+		sim.initializeNodes(altitude, roughness, temperature, atmosphericPressure_kPa);
+		return sim;
+	}
+	
+	/**
+	 * Builds the node network without setting any hydrology values (see 
+	 * <code>initializeNodes(...)</code>).
+	 * @param abortSignal Checked between subdivisions; if it returns true, 
+	 * the operation stops by throwing a CancellationException
+	 * @param progressTracker Sums to 1.0 when the network has been built. Can 
+	 * be null.
+	 * @return A new, uninitialized simulation
+	 */
+	static HydrologyNetworkSimulation createEmptyNetwork(BooleanSupplier abortSignal, DoubleAdder progressTracker){
+		return createMesh(abortSignal, progressTracker);
+	}
+	
+	/**
+	 * Creates a new, uninitialized simulation with a copy of this network's 
+	 * mesh, which is much faster than building the mesh again. Only the 
+	 * topology is copied (the node coordinates are shared), not the node 
+	 * values, so this network can be used as a template by several threads 
+	 * at once as long as it is not initialized or simulated.
+	 * @return A new simulation with the same node order as this one
+	 */
+	HydrologyNetworkSimulation copyMesh(){
+		return new HydrologyNetworkSimulation(this);
+	}
+	/** copies the cells and nodes of every layer of the template's mesh */
+	private HydrologyNetworkSimulation(HydrologyNetworkSimulation template){
+		final int numLayers = template.cellLayers.size();
+		List<Map<SphereNetCell, SphereNetCell>> cellCopies = new ArrayList<>(numLayers);
+		for(int layer = 0; layer < numLayers; layer++){
+			HydrologyNetNode[] oldNodes = template.nodeLayers.get(layer);
+			HydrologyNetNode[] newNodes = new HydrologyNetNode[oldNodes.length];
+			Map<SphereNetNode, HydrologyNetNode> nodeCopy = new IdentityHashMap<>(oldNodes.length);
+			for(int i = 0; i < oldNodes.length; i++){
+				newNodes[i] = new HydrologyNetNode(oldNodes[i].getCoordinate(), oldNodes[i].getNumberConnections());
+				newNodes[i].index = i;
+				nodeCopy.put(oldNodes[i], newNodes[i]);
+			}
+			for(int i = 0; i < oldNodes.length; i++){
+				for(SphereNetNode c : oldNodes[i].getConnections()){
+					if(c != null) newNodes[i].pushConnection(nodeCopy.get(c));
+				}
+			}
+			SphereNetCell[] oldCells = template.cellLayers.get(layer);
+			SphereNetCell[] newCells = new SphereNetCell[oldCells.length];
+			Map<SphereNetCell, SphereNetCell> cellCopy = new IdentityHashMap<>(oldCells.length);
+			for(int i = 0; i < oldCells.length; i++){
+				SphereNetCell c = oldCells[i];
+				newCells[i] = new SphereNetCell(nodeCopy.get(c.node[0]), nodeCopy.get(c.node[1]), nodeCopy.get(c.node[2]));
+				cellCopy.put(c, newCells[i]);
+			}
+			nodeLayers.add(newNodes);
+			cellLayers.add(newCells);
+			cellCopies.add(cellCopy);
+		}
+		// link neighbors (same layer) and children (next layer)
+		for(int layer = 0; layer < numLayers; layer++){
+			Map<SphereNetCell, SphereNetCell> cellCopy = cellCopies.get(layer);
+			Map<SphereNetCell, SphereNetCell> childCopy = layer + 1 < numLayers ? cellCopies.get(layer + 1) : null;
+			for(Map.Entry<SphereNetCell, SphereNetCell> e : cellCopy.entrySet()){
+				SphereNetCell oldCell = e.getKey(), newCell = e.getValue();
+				for(int i = 0; i < 3; i++){
+					newCell.neighbor[i] = cellCopy.get(oldCell.neighbor[i]);
+				}
+				if(childCopy != null){
+					for(int i = 0; i < 4; i++){
+						newCell.child[i] = childCopy.get(oldCell.child[i]);
+					}
+				}
+			}
+		}
+		starting20 = cellLayers.get(0);
+		// the layout never changes, so it can be shared
+		adjacencyStart = template.adjacencyStart;
+		adjacency = template.adjacency;
+		inboundStart = template.inboundStart;
+		inbound = template.inbound;
+		allocateState(getNodeNetwork().length);
+	}
+	
+	/** 
+	 * builds the CSR layout of the final layer and allocates the state arrays 
+	 * (every time a layer is added, so that the layout always matches the 
+	 * final layer)
+	 */
+	private void buildLayout(){
+		HydrologyNetNode[] net = getNodeNetwork();
+		final int n = net.length;
+		adjacencyStart = new int[n + 1];
+		int numEdges = 0;
+		for(int i = 0; i < n; i++){
+			adjacencyStart[i] = numEdges;
+			for(SphereNetNode c : net[i].getConnections()){
+				if(c != null) numEdges++;
+			}
+		}
+		adjacencyStart[n] = numEdges;
+		adjacency = new int[numEdges];
+		int[] inboundCount = new int[n + 1];
+		for(int i = 0; i < n; i++){
+			int e = adjacencyStart[i];
+			for(SphereNetNode c : net[i].getConnections()){
+				if(c != null){
+					int j = ((HydrologyNetNode)c).index;
+					adjacency[e++] = j;
+					inboundCount[j + 1]++;
+				}
+			}
+			// the mesh is connected in parallel, so sort the neighbors to make the order repeatable
+			Arrays.sort(adjacency, adjacencyStart[i], e);
+		}
+		// transpose, so that each node can gather the water given to it
+		inboundStart = new int[n + 1];
+		for(int i = 0; i < n; i++){
+			inboundStart[i + 1] = inboundStart[i] + inboundCount[i + 1];
+		}
+		inbound = new int[numEdges];
+		int[] next = Arrays.copyOf(inboundStart, n);
+		for(int i = 0; i < n; i++){
+			for(int e = adjacencyStart[i]; e < adjacencyStart[i + 1]; e++){
+				inbound[next[adjacency[e]]++] = i;
+			}
+		}
+		allocateState(n);
+	}
+	private void allocateState(int n){
+		cloud = new double[n];
+		precipitate = new double[n];
+		nextCloud = new double[n];
+		nextPrecipitate = new double[n];
+		conductivity = new double[n];
+		outflowFraction = new double[n];
+		precipitivity = new double[n];
+		evaporativity = new double[n];
+		runoff = new double[n];
+		isWaterSource = new boolean[n];
+	}
+	
+	/** number of (outbound) connections of a node */
+	private int degree(int i){
+		return adjacencyStart[i + 1] - adjacencyStart[i];
+	}
+	
+	/**
+	 * Gets the position of a node of the final layer.
+	 * @param index Index of the node (the order is the same for every 
+	 * network)
+	 * @return The unit vector of the node
+	 */
+	Point3D getNodeVector(int index){
+		return mathHelper.lonLatTo3D(getNodeNetwork()[index].getCoordinate());
+	}
+	
+	/**
+	 * Sets the initial state of every node from the planet's properties at 
+	 * that node.
+	 * @param altitude Altitude of each node, in meters
+	 * @param roughness Roughness of each node
+	 * @param temperature Annual mean temperature of each node, in °C
+	 * @param atmosphericPressure_kPa The planet's atmospheric pressure at 
+	 * sea-level, in kPa.
+	 */
+	void initializeNodes(double[] altitude, double[] roughness, double[] temperature, double atmosphericPressure_kPa){
+		final int n = isWaterSource.length;
+		final double[] cloud = this.cloud, precipitate = this.precipitate;
+		IntStream.range(0, n).parallel().forEach((int i)->{
 			// set initial values
-			n.precipitate = initialPrecipitation;
-			n.cloud = initialWater;
-			SpherePoint coord = n.getCoordinate();
-			double altitude = p.getAltitude(coord.getLongitude(), coord.getLatitude(), precision);
-			double roughness = p.getRoughness(coord.getLongitude(), coord.getLatitude(), precision);
-			double temperature = p.getTemperature(coord.getLongitude(), coord.getLatitude(), precision);
-			n.conductivity = sim.calculateConductivity(roughness);
-			n.evaporativity = sim.calculateEvaporation(temperature, atmosphericPressure_kPa);
-			n.precipitivity = sim.calculatePreciptivity(roughness);
-			n.runoff = sim.calculateRunOff(altitude, numIterations);
-			n.isWaterSource = (altitude <= 0);
+			precipitate[i] = initialPrecipitation;
+			cloud[i] = initialWater;
+			conductivity[i] = calculateConductivity(roughness[i]);
+			outflowFraction[i] = conductivity[i] / degree(i);
+			evaporativity[i] = calculateEvaporation(temperature[i], atmosphericPressure_kPa);
+			precipitivity[i] = calculatePreciptivity(roughness[i]);
+			runoff[i] = calculateRunOff(altitude[i], numIterations);
+			isWaterSource[i] = (altitude[i] <= 0);
 		});
 		// remove source status of costal nodes (avoids interpolation artifact)
-		List<HydrologyNetNode> costalNodes = Collections.synchronizedList(new ArrayList<>());
-		Arrays.asList(net).parallelStream().forEach((HydrologyNetNode n)->{
-			if(n.isWaterSource){
-				for(SphereNetNode c : n.getConnections()){
-					if(!((HydrologyNetNode)c).isWaterSource){
-						costalNodes.add(n);
+		final boolean[] coastal = new boolean[n];
+		IntStream.range(0, n).parallel().forEach((int i)->{
+			if(isWaterSource[i]){
+				for(int e = adjacencyStart[i]; e < adjacencyStart[i + 1]; e++){
+					if(!isWaterSource[adjacency[e]]){
+						coastal[i] = true;
 						break;
 					}
 				}
 			}
 		});
-		costalNodes.parallelStream().forEach((n) -> {
-			n.isWaterSource = false;
-		});
 		// set parameters specific to watersource nodes
-		final LongAdder waterSourceCounter = new LongAdder();
-		Arrays.asList(net).parallelStream().filter((HydrologyNetNode n)->n.isWaterSource).forEach((HydrologyNetNode n)->{
-			n.runoff = -1*oceanRefillValue;
-			n.precipitate = oceanInitialPrecipitate;
-			waterSourceCounter.increment();
+		long waterSourceCount = 0;
+		for(int i = 0; i < n; i++){
+			if(coastal[i]){
+				isWaterSource[i] = false;
+			} else if(isWaterSource[i]){
+				runoff[i] = -1*oceanRefillValue;
+				precipitate[i] = oceanInitialPrecipitate;
+				waterSourceCount++;
+			}
+		}
+		numWaterSourceNodes = waterSourceCount;
+		initialState = true;
+	}
+	
+	/**
+	 * Starts this simulation from the water distribution of another (finished) 
+	 * simulation of the same planet, so that it needs fewer iterations after 
+	 * a small change to the planet's parameters. Nodes that changed between 
+	 * land and water source keep their initial values, and all of the values 
+	 * are then scaled so that the total amount of water is the same as after 
+	 * <code>initializeNodes(...)</code> (the simulation conserves water, so 
+	 * its steady state depends on the total). Call this after 
+	 * <code>initializeNodes(...)</code>. The next run of the simulation still 
+	 * starts from the coarse layers of the mesh, which take their starting 
+	 * values from these, because the fine layer alone is slow to move water 
+	 * across large distances.
+	 * @param previous A simulation with the same mesh
+	 * @throws IllegalArgumentException Thrown if the meshes are different
+	 */
+	void warmStartFrom(HydrologyNetworkSimulation previous){
+		if(previous.isWaterSource.length != isWaterSource.length){
+			throw new IllegalArgumentException("Cannot warm-start from a different network");
+		}
+		final double[] cloud = this.cloud, precipitate = this.precipitate;
+		final double[] oldCloud = previous.cloud, oldPrecipitate = previous.precipitate;
+		double total = 0;
+		for(int i = 0; i < cloud.length; i++){
+			total += cloud[i] + precipitate[i];
+		}
+		IntStream.range(0, isWaterSource.length).parallel().forEach((int i)->{
+			if(isWaterSource[i] == previous.isWaterSource[i]){
+				precipitate[i] = oldPrecipitate[i];
+				cloud[i] = oldCloud[i];
+			}
 		});
-		sim.numWaterSourceNodes = waterSourceCounter.sum();
+		double newTotal = 0;
+		for(int i = 0; i < cloud.length; i++){
+			newTotal += cloud[i] + precipitate[i];
+		}
+		final double scale = total / newTotal;
+		if(scale > 0 && !Double.isInfinite(scale)){
+			for(int i = 0; i < cloud.length; i++){
+				cloud[i] *= scale;
+				precipitate[i] *= scale;
+			}
+		}
+		// the coarse layers start from these values too
+		initialState = true;
+	}
+	
+	/** builds the subdivided node network, without any hydrology values */
+	private static HydrologyNetworkSimulation createMesh(){
+		return createMesh(()->false, null);
+	}
+	/** builds the subdivided node network, without any hydrology values */
+	private static HydrologyNetworkSimulation createMesh(BooleanSupplier abortSignal, DoubleAdder progressTracker){
+		final HydrologyNetworkSimulation sim = new HydrologyNetworkSimulation();
+		// each subdivision has 4 times as many cells as the last one
+		final double totalWork = (Math.pow(4, numSubDivisions) - 1) / 3;
+		for(int i = 0; i < numSubDivisions; i++){
+			if(abortSignal.getAsBoolean()){
+				throw new CancellationException("Hydrology network creation was aborted");
+			}
+			sim.subdivideNetwork();
+			if(progressTracker != null) progressTracker.add(Math.pow(4, i) / totalWork);
+		}
+		return sim;
+	}
+	
+	/**
+	 * Writes the state of every node (precipitate, cloud water, water source 
+	 * flag and the per-node coefficients) so that the simulation can later be 
+	 * restored with <code>restoreHydrologyNetwork(...)</code> instead of being 
+	 * re-run. The node order of the network is deterministic, so only the 
+	 * node values are written, not the mesh.
+	 * @param out Stream to write to
+	 * @throws IOException Thrown if there was a problem writing to the stream
+	 */
+	public void saveState(DataOutputStream out) throws IOException{
+		final int n = isWaterSource.length;
+		final double[] cloud = this.cloud, precipitate = this.precipitate;
+		out.writeInt(STATE_FORMAT_VERSION);
+		out.writeInt(numSubDivisions);
+		out.writeInt(n);
+		out.writeLong(numWaterSourceNodes);
+		ByteBuffer values = ByteBuffer.allocate(n * STATE_DOUBLES_PER_NODE * Double.BYTES);
+		DoubleBuffer dv = values.asDoubleBuffer();
+		byte[] waterSources = new byte[(n + 7) / 8];
+		for(int i = 0; i < n; i++){
+			dv.put(precipitate[i]);
+			dv.put(cloud[i]);
+			dv.put(conductivity[i]);
+			dv.put(precipitivity[i]);
+			dv.put(evaporativity[i]);
+			dv.put(runoff[i]);
+			if(isWaterSource[i]){
+				waterSources[i >> 3] |= (byte)(1 << (i & 7));
+			}
+		}
+		out.write(values.array());
+		out.write(waterSources);
+	}
+	
+	/**
+	 * Re-creates a simulation from data written by <code>saveState(...)</code>.
+	 * @param in Stream to read from
+	 * @return A simulation in the same state as the one that was saved, or 
+	 * null if the data was written by an incompatible version of this class
+	 * @throws IOException Thrown if there was a problem reading the stream 
+	 * (including if the stream ended too soon)
+	 */
+	public static HydrologyNetworkSimulation restoreHydrologyNetwork(DataInputStream in) throws IOException{
+		if(in.readInt() != STATE_FORMAT_VERSION || in.readInt() != numSubDivisions){
+			return null;
+		}
+		int numNodes = in.readInt();
+		long numSources = in.readLong();
+		final HydrologyNetworkSimulation sim = createMesh();
+		if(numNodes != sim.isWaterSource.length){
+			return null;
+		}
+		byte[] values = new byte[numNodes * STATE_DOUBLES_PER_NODE * Double.BYTES];
+		in.readFully(values);
+		byte[] waterSources = new byte[(numNodes + 7) / 8];
+		in.readFully(waterSources);
+		DoubleBuffer dv = ByteBuffer.wrap(values).asDoubleBuffer();
+		for(int i = 0; i < numNodes; i++){
+			sim.precipitate[i] = dv.get();
+			sim.cloud[i] = dv.get();
+			sim.conductivity[i] = dv.get();
+			sim.outflowFraction[i] = sim.conductivity[i] / sim.degree(i);
+			sim.precipitivity[i] = dv.get();
+			sim.evaporativity[i] = dv.get();
+			sim.runoff[i] = dv.get();
+			sim.isWaterSource[i] = (waterSources[i >> 3] & (1 << (i & 7))) != 0;
+		}
+		sim.numWaterSourceNodes = numSources;
 		return sim;
 	}
 	
@@ -161,64 +583,455 @@ public class HydrologyNetworkSimulation {
 		return 0.17;
 	}
 	
-	private void computeHydrology(HydrologyNetNode node, DoubleAdder runoffBuffer){
-		double dP, dW;
-		dP = node.precipitivity * node.cloud - node.evaporativity * node.precipitate - node.runoff;
-		dW = node.evaporativity * node.precipitate - node.precipitivity * node.cloud;
-		for(int n = 0; n < node.getNumberConnections(); n++){
-			double dWn = node.conductivity * node.cloud /  node.getNumberConnections();
-			((HydrologyNetNode)node.getConnection(n)).addToWaterChangeBuffer(dWn);
-			dW -= dWn;
-		}
-		node.addToPrecipitationChangeBuffer(dP);
-		node.addToWaterChangeBuffer(dW);
-		runoffBuffer.add(node.runoff); // used to make the water cycle zero-sum
+	/**
+	 * Gets the precipitation (minus evaporation) of every node of the final 
+	 * layer, in the same order as <code>getNodeNetwork()</code>.
+	 * @return A new array
+	 */
+	double[] getPrecipitationValues(){
+		return precipitate.clone();
 	}
 	
-	private HydrologyNetNode[] getNodeNetwork(){
+	/** the final (finest) node layer */
+	HydrologyNetNode[] getNodeNetwork(){
 		return nodeLayers.get(nodeLayers.size()-1);
 	}
 	/**
-	 * Runs the water diffusion simulation.
+	 * Runs the water diffusion simulation until it converges to 
+	 * <code>DEFAULT_TOLERANCE</code> (see <code>getConvergence()</code>).
 	 * @param progressTracker An instance of <code>java.util.concurrent.atomic.DoubleAdder</code>. 
 	 * As the simulation progresses, incremental values will be added to this 
 	 * object such that a total value of 1 is added at the time of completion 
 	 * for the simulation. This is useful for showing a progress bar. Can be null.
 	 */
 	public void runSimulation(DoubleAdder progressTracker){
+		runSimulation(DEFAULT_TOLERANCE, progressTracker);
+	}
+	/**
+	 * Runs the water diffusion simulation until it converges to a tolerance, 
+	 * stopping early (without an exception) if the thread is interrupted.
+	 * @param tolerance The largest change in precipitate or cloud water (in 
+	 * cm per iteration) of a converged simulation
+	 * @param progressTracker Sums to 1.0 when the simulation is done. Can be 
+	 * null.
+	 */
+	void runSimulation(double tolerance, DoubleAdder progressTracker){
+		runNested(tolerance, progressTracker, ()->Thread.currentThread().isInterrupted());
+	}
+	/**
+	 * Runs the water diffusion simulation until it converges to 
+	 * <code>DEFAULT_TOLERANCE</code>, stopping early if asked to.
+	 * @param progressTracker An instance of <code>java.util.concurrent.atomic.DoubleAdder</code>. 
+	 * As the simulation progresses, incremental values will be added to this 
+	 * object such that a total value of 1 is added at the time of completion 
+	 * for the simulation. This is useful for showing a progress bar. Can be null.
+	 * @param abortSignal Checked before every iteration; if it returns true, 
+	 * the simulation stops by throwing a CancellationException
+	 * @throws CancellationException Thrown if <code>abortSignal</code> 
+	 * returned true
+	 */
+	public void runSimulation(DoubleAdder progressTracker, BooleanSupplier abortSignal){
+		runSimulation(progressTracker, abortSignal, DEFAULT_TOLERANCE);
+	}
+	/**
+	 * Runs the water diffusion simulation until no node's precipitate or 
+	 * cloud water changes by more than <code>tolerance</code> in an 
+	 * iteration (or for at most 1600 iterations), stopping early if asked 
+	 * to. The number of iterations and the final residual can be read from 
+	 * <code>getConvergence()</code> afterwards.
+	 * <p>
+	 * If the simulation has not been run yet, it is first solved on the 
+	 * coarser layers of the mesh, starting from the coarsest layer and 
+	 * interpolating each solution onto the next layer (nested iteration). 
+	 * Water only moves one node per iteration, so the coarse layers spread 
+	 * it across the planet in far fewer (and much cheaper) iterations, and 
+	 * the final layer starts close to its steady state.
+	 * </p>
+	 * @param progressTracker An instance of <code>java.util.concurrent.atomic.DoubleAdder</code>. 
+	 * As the simulation progresses, incremental values will be added to this 
+	 * object such that a total value of 1 is added at the time of completion 
+	 * for the simulation (including if it converges early). Can be null.
+	 * @param abortSignal Checked before every iteration; if it returns true, 
+	 * the simulation stops by throwing a CancellationException
+	 * @param tolerance The largest change in precipitate or cloud water (in 
+	 * cm per iteration) of a converged simulation, or 0 to always run all 
+	 * 1600 iterations
+	 * @throws CancellationException Thrown if <code>abortSignal</code> 
+	 * returned true
+	 */
+	public void runSimulation(DoubleAdder progressTracker, BooleanSupplier abortSignal, double tolerance){
+		if(!(tolerance >= 0)) throw new IllegalArgumentException("Tolerance cannot be negative");
+		if(!runNested(tolerance, progressTracker, abortSignal)){
+			throw new CancellationException("Hydrology simulation was aborted");
+		}
+	}
+	/**
+	 * Solves the steady state of the simulation directly, instead of running 
+	 * the simulation towards it. With fixed coefficients, each iteration is 
+	 * a linear map of the cloud water and precipitate, and at its fixed 
+	 * point the water given to each node by its neighbors balances the 
+	 * water that it gives away and the run-off: 
+	 * &Sigma;<sub>j</sub>&nbsp;v<sub>j</sub>&nbsp;-&nbsp;k<sub>i</sub>&nbsp;v<sub>i</sub>&nbsp;=&nbsp;r<sub>i</sub>, 
+	 * where v is the water that a node gives to each neighbor, k is its 
+	 * number of neighbors and r is its run-off (minus its share of the 
+	 * returned run-off if it is a water source). This is a graph Laplacian, 
+	 * which is solved with <code>GeodesicGrid.solveDiffusion(...)</code> 
+	 * (the conjugate gradient method), and the precipitate of each node 
+	 * then follows from its cloud water. The Laplacian only defines v up to 
+	 * a constant, which is set so that the total amount of water is the 
+	 * same as now, because the simulation conserves water.
+	 * <p>
+	 * This gives the state that <code>runSimulation(...)</code> would reach 
+	 * after infinitely many iterations. Afterwards, 
+	 * <code>getConvergence()</code> returns null.
+	 * </p>
+	 * @param progressTracker An instance of <code>java.util.concurrent.atomic.DoubleAdder</code>. 
+	 * A total value of 1 is added to it by the time the solution is 
+	 * finished. Can be null.
+	 */
+	public void solveSteadyState(DoubleAdder progressTracker){
+		final GeodesicGrid grid = GeodesicGrid.getDefault();
+		final int n = isWaterSource.length;
+		final double runoffRedist = runoffRedistribution();
+		final double[] cloud = this.cloud, precipitate = this.precipitate;
+		double total = 0;
+		final double[] rhs = new double[n];
+		for(int i = 0; i < n; i++){
+			total += cloud[i] + precipitate[i];
+			rhs[i] = (isWaterSource[i] ? runoffRedist : 0) - runoff[i];
+		}
+		// the run-off adds up to zero, but not quite in floating point
+		final double mean = Arrays.stream(rhs).sum() / n;
+		for(int i = 0; i < n; i++){
+			rhs[i] -= mean;
+		}
+		// k v - sum(v_j) = -r, so the diagonal is 0 and the coupling is 1
+		final double[] outflow = grid.solveDiffusion(new double[n], 1, rhs, null, 
+				STEADY_STATE_TOLERANCE, STEADY_STATE_MAX_ITERATIONS);
+		// water with constant outflow is the part that the Laplacian cannot see
+		double solvedTotal = 0, constantTotal = 0;
+		for(int i = 0; i < n; i++){
+			double c = outflow[i] / outflowFraction[i];
+			double c1 = 1 / outflowFraction[i];
+			solvedTotal += c + steadyPrecipitate(i, c, runoffRedist);
+			constantTotal += c1 + precipitivity[i] * c1 / evaporativity[i];
+		}
+		final double offset = (total - solvedTotal) / constantTotal;
+		IntStream.range(0, n).parallel().forEach((int i)->{
+			cloud[i] = (outflow[i] + offset) / outflowFraction[i];
+			precipitate[i] = steadyPrecipitate(i, cloud[i], runoffRedist);
+		});
+		initialState = false;
+		convergence = null;
+		clearCaches();
+		if(progressTracker != null) progressTracker.add(1);
+	}
+	/** the precipitate that balances a node's cloud water in a steady state */
+	private double steadyPrecipitate(int i, double cloud, double runoffRedist){
+		double supply = precipitivity[i] * cloud - runoff[i];
+		if(isWaterSource[i]) supply += runoffRedist;
+		return supply / evaporativity[i];
+	}
+	/** 
+	 * starts the simulation from the solutions of the coarser layers of the 
+	 * mesh (if it is still in its initial state), then runs it, returning 
+	 * false if aborted
+	 */
+	private boolean runNested(double tolerance, DoubleAdder progressTracker, BooleanSupplier abortSignal){
+		if(!initialState){
+			return runIterations(numIterations, tolerance, progressTracker, 1, abortSignal);
+		}
+		final List<HydrologyNetworkSimulation> levels = createCoarseLevels();
+		final int n = isWaterSource.length;
+		double totalWork = numIterations;
+		for(HydrologyNetworkSimulation level : levels){
+			totalWork += (double)NESTED_MAX_ITERATIONS * level.isWaterSource.length / n;
+		}
+		HydrologyNetworkSimulation coarser = null;
+		for(HydrologyNetworkSimulation level : levels){
+			if(coarser != null) level.prolongFrom(coarser);
+			double share = (double)NESTED_MAX_ITERATIONS * level.isWaterSource.length / n / totalWork;
+			if(!level.runIterations(NESTED_MAX_ITERATIONS, tolerance * NESTED_TOLERANCE_FACTOR, progressTracker, share, abortSignal)){
+				return false;
+			}
+			coarser = level;
+		}
+		if(coarser != null) prolongFrom(coarser);
+		return runIterations(numIterations, tolerance, progressTracker, numIterations / totalWork, abortSignal);
+	}
+	/** 
+	 * copies of the layers from NESTED_COARSEST_LAYER to the layer before the 
+	 * final layer, coarsest first (empty if they have no water sources)
+	 */
+	private List<HydrologyNetworkSimulation> createCoarseLevels(){
+		final int finalLayer = nodeLayers.size() - 1;
+		// position of each node of each layer in the final layer (the corners 
+		// of a cell are the first corners of its first three children)
+		int[][] finalIndex = new int[finalLayer + 1][];
+		finalIndex[finalLayer] = IntStream.range(0, getNodeNetwork().length).toArray();
+		for(int layer = finalLayer - 1; layer >= NESTED_COARSEST_LAYER; layer--){
+			finalIndex[layer] = new int[nodeLayers.get(layer).length];
+			for(SphereNetCell c : cellLayers.get(layer)){
+				for(int i = 0; i < 3; i++){
+					finalIndex[layer][indexOf(c.node[i])] = finalIndex[layer + 1][indexOf(c.child[i].node[0])];
+				}
+			}
+		}
+		List<HydrologyNetworkSimulation> levels = new ArrayList<>();
+		for(int layer = NESTED_COARSEST_LAYER; layer < finalLayer; layer++){
+			HydrologyNetworkSimulation level = new HydrologyNetworkSimulation(this, layer, finalIndex[layer]);
+			// without water sources the run-off has nowhere to go
+			if(level.numWaterSourceNodes == 0) return new ArrayList<>();
+			levels.add(level);
+		}
+		return levels;
+	}
+	/** 
+	 * a simulation of a coarse layer of the mesh, with the values of the 
+	 * nodes that it shares with the final layer. The conductivity is 
+	 * divided by 4 for each subdivision between the layers, so that water 
+	 * diffuses over the same distance as on the final layer, and all of 
+	 * the rates are then multiplied by the largest (stable) time step, so 
+	 * that each iteration covers several iterations of the final layer. 
+	 * Scaling all rates by the same amount does not change the steady state.
+	 */
+	private HydrologyNetworkSimulation(HydrologyNetworkSimulation fine, int layer, int[] finalIndex){
+		nodeLayers.addAll(fine.nodeLayers.subList(0, layer + 1));
+		cellLayers.addAll(fine.cellLayers.subList(0, layer + 1));
+		starting20 = cellLayers.get(0);
+		buildLayout();
+		final int n = finalIndex.length;
+		final double spacingFactor = Math.pow(4, fine.nodeLayers.size() - 1 - layer);
+		double maxEvaporativity = 0, maxCloudLoss = 0;
+		for(int i = 0; i < n; i++){
+			final int f = finalIndex[i];
+			maxEvaporativity = Math.max(maxEvaporativity, fine.evaporativity[f]);
+			maxCloudLoss = Math.max(maxCloudLoss, fine.precipitivity[f] + fine.conductivity[f] / spacingFactor);
+		}
+		// no node may lose more than all of its water in an iteration
+		final double timeStep = Math.min(spacingFactor, 
+				NESTED_STABILITY / Math.max(maxEvaporativity, maxCloudLoss));
+		long waterSourceCount = 0;
+		for(int i = 0; i < n; i++){
+			final int f = finalIndex[i];
+			precipitate[i] = fine.precipitate[f];
+			cloud[i] = fine.cloud[f];
+			conductivity[i] = fine.conductivity[f] / spacingFactor * timeStep;
+			outflowFraction[i] = conductivity[i] / degree(i);
+			precipitivity[i] = fine.precipitivity[f] * timeStep;
+			evaporativity[i] = fine.evaporativity[f] * timeStep;
+			runoff[i] = fine.runoff[f] * timeStep;
+			isWaterSource[i] = fine.isWaterSource[f];
+			if(isWaterSource[i]) waterSourceCount++;
+		}
+		numWaterSourceNodes = waterSourceCount;
+	}
+	private static int indexOf(SphereNetNode node){
+		return ((HydrologyNetNode)node).index;
+	}
+	/** 
+	 * replaces the state of this simulation with the (linear) interpolation 
+	 * of the state of a simulation of the previous layer, scaled so that 
+	 * the total amount of water does not change (the simulation conserves 
+	 * water, so its steady state depends on the total)
+	 */
+	private void prolongFrom(HydrologyNetworkSimulation coarser){
+		final double[] cloud = this.cloud, precipitate = this.precipitate;
+		final double[] coarseCloud = coarser.cloud, coarsePrecipitate = coarser.precipitate;
+		double total = 0;
+		for(int i = 0; i < cloud.length; i++){
+			total += cloud[i] + precipitate[i];
+		}
+		// old nodes are the first corners of the outer children and new 
+		// nodes are the corners of the center child (see SphereNetCell)
+		for(SphereNetCell c : cellLayers.get(coarser.nodeLayers.size() - 1)){
+			for(int i = 0; i < 3; i++){
+				final int corner = indexOf(c.child[i].node[0]), a = indexOf(c.node[i]);
+				cloud[corner] = coarseCloud[a];
+				precipitate[corner] = coarsePrecipitate[a];
+				final int mid = indexOf(c.child[3].node[i]);
+				final int b = indexOf(c.node[(i + 1) % 3]), d = indexOf(c.node[(i + 2) % 3]);
+				cloud[mid] = 0.5 * (coarseCloud[b] + coarseCloud[d]);
+				precipitate[mid] = 0.5 * (coarsePrecipitate[b] + coarsePrecipitate[d]);
+			}
+		}
+		double newTotal = 0;
+		for(int i = 0; i < cloud.length; i++){
+			newTotal += cloud[i] + precipitate[i];
+		}
+		final double scale = total / newTotal;
+		if(scale > 0 && !Double.isInfinite(scale)){
+			for(int i = 0; i < cloud.length; i++){
+				cloud[i] *= scale;
+				precipitate[i] *= scale;
+			}
+		}
+	}
+	/** returns false if aborted */
+	private boolean runIterations(int iterations, double tolerance, DoubleAdder progressTracker, 
+			double progressShare, BooleanSupplier abortSignal){
 		clearCaches();
-		final double progressIncrement = 1.0 / numIterations;
-		List<HydrologyNetNode> net = Arrays.asList(getNodeNetwork());
-		for(int i = 0; i < numIterations; i++){
-			if(Thread.currentThread().isInterrupted()){
+		final double progressIncrement = progressShare / iterations;
+		final double runoffRedist = runoffRedistribution();
+		double[] residual = null;
+		int i = 0;
+		while(i < iterations){
+			if(abortSignal.getAsBoolean()){
 				// ABORT CALCULATION
-				break;
+				return false;
 			}
-			iterateSimulation(net);
+			residual = iterateSimulation(runoffRedist);
+			i++;
 			if(progressTracker != null)progressTracker.add(progressIncrement);
+			if(residual[0] <= tolerance){
+				break;
+			}
+		}
+		if(progressTracker != null && i < iterations){
+			progressTracker.add((iterations - i) * progressIncrement);
 		}
+		convergence = (residual == null) ? new Convergence(0, iterations, tolerance, 0, 0, 0) 
+				: new Convergence(i, iterations, tolerance, residual[0], residual[1], residual[2]);
+		// values cached while the simulation was running are out of date
+		clearCaches();
+		return true;
+	}
+	/**
+	 * Gets the number of iterations and the residual of the last run of the 
+	 * simulation.
+	 * @return How the last run went, or null if the simulation has not been 
+	 * run (e.g. if it was restored with 
+	 * <code>restoreHydrologyNetwork(...)</code>)
+	 */
+	public Convergence getConvergence(){
+		return convergence;
 	}
 	/**
 	 * Performs a single iteration of the simulation over the whole network.
-	 * @param net the network over which to iterate.
 	 */
-	protected void iterateSimulation(List<HydrologyNetNode> net){
-		DoubleAdder runoff = new DoubleAdder();
-		// water sim
-		net.parallelStream().forEach((HydrologyNetNode n)->{
-				computeHydrology(n,runoff);
-			});
-		// make zero-sum
-		double runoffRedist = runoff.sum() / numWaterSourceNodes;
-		net.parallelStream().filter((HydrologyNetNode n)->n.isWaterSource).forEach((HydrologyNetNode n)->{
-			n.precipitationChangeBuffer.add(runoffRedist);
-		});
-		// apply changes
-		net.parallelStream().forEach((HydrologyNetNode n)->{
-			n.applyPrecipitationChangeBuffer();
-			n.applyWaterChangeBuffer();
+	protected void iterateSimulation(){
+		iterateSimulation(runoffRedistribution());
+	}
+	/** 
+	 * the run-off of all nodes, shared among the water source nodes to make 
+	 * the water cycle zero-sum (the run-off does not change during a 
+	 * simulation, so this is the same for every iteration)
+	 */
+	private double runoffRedistribution(){
+		double sum = 0;
+		for(double r : runoff){
+			sum += r;
+		}
+		return sum / numWaterSourceNodes;
+	}
+	/** 
+	 * one iteration, from the current arrays into the buffers (which are then 
+	 * swapped), returning the largest and mean absolute change of a node 
+	 * (the larger of the changes in its precipitate and cloud water) and 
+	 * the total change in precipitate (summed in blocks, so that the sums 
+	 * are repeatable)
+	 */
+	private double[] iterateSimulation(final double runoffRedist){
+		final double[] cloud = this.cloud, precipitate = this.precipitate;
+		final double[] newCloud = nextCloud, newPrecipitate = nextPrecipitate;
+		final int n = cloud.length;
+		final int numBlocks = (n + REDUCTION_BLOCK_SIZE - 1) / REDUCTION_BLOCK_SIZE;
+		final double[] blockMax = new double[numBlocks], blockAbsSum = new double[numBlocks], blockSum = new double[numBlocks];
+		IntStream.range(0, numBlocks).parallel().forEach((int b)->{
+			double max = 0, absSum = 0, sum = 0;
+			final int end = Math.min(n, (b + 1) * REDUCTION_BLOCK_SIZE);
+			for(int i = b * REDUCTION_BLOCK_SIZE; i < end; i++){
+				double inflow = 0;
+				for(int e = inboundStart[i]; e < inboundStart[i + 1]; e++){
+					int j = inbound[e];
+					inflow += outflowFraction[j] * cloud[j];
+				}
+				double c = cloud[i], p = precipitate[i];
+				double dP = precipitivity[i] * c - evaporativity[i] * p - runoff[i];
+				double dW = evaporativity[i] * p - precipitivity[i] * c - conductivity[i] * c + inflow;
+				if(isWaterSource[i]) dP += runoffRedist;
+				newPrecipitate[i] = p + dP;
+				newCloud[i] = c + dW;
+				// the precipitate can be balanced while the clouds are not
+				double change = Math.max(Math.abs(dP), Math.abs(dW));
+				max = Math.max(max, change);
+				absSum += change;
+				sum += dP;
+			}
+			blockMax[b] = max;
+			blockAbsSum[b] = absSum;
+			blockSum[b] = sum;
 		});
+		nextCloud = cloud;
+		nextPrecipitate = precipitate;
+		initialState = false;
+		this.cloud = newCloud;
+		this.precipitate = newPrecipitate;
+		double max = 0, absSum = 0, sum = 0;
+		for(int b = 0; b < numBlocks; b++){
+			max = Math.max(max, blockMax[b]);
+			absSum += blockAbsSum[b];
+			sum += blockSum[b];
+		}
+		return new double[]{max, absSum / n, sum};
+	}
+	
+	/**
+	 * The result of a run of the simulation: how many iterations it took 
+	 * and how far from a steady state it was at the end.
+	 */
+	public static final class Convergence{
+		private final int iterations;
+		private final int maxIterations;
+		private final double tolerance;
+		private final double maxResidual;
+		private final double meanResidual;
+		private final double waterBalance;
 		
+		Convergence(int iterations, int maxIterations, double tolerance, 
+				double maxResidual, double meanResidual, double waterBalance){
+			this.iterations = iterations;
+			this.maxIterations = maxIterations;
+			this.tolerance = tolerance;
+			this.maxResidual = maxResidual;
+			this.meanResidual = meanResidual;
+			this.waterBalance = waterBalance;
+		}
+		/** @return Number of iterations that were run */
+		public int getIterations(){return iterations;}
+		/** @return The most iterations that could have been run */
+		public int getMaxIterations(){return maxIterations;}
+		/** @return The tolerance that the simulation was run with */
+		public double getTolerance(){return tolerance;}
+		/** 
+		 * @return True if the simulation stopped because it reached the 
+		 * tolerance (rather than the maximum number of iterations)
+		 */
+		public boolean isConverged(){return maxResidual <= tolerance;}
+		/** 
+		 * @return Largest change in a node's precipitate or cloud water (in 
+		 * cm) in the last iteration 
+		 */
+		public double getMaxResidual(){return maxResidual;}
+		/** 
+		 * @return Mean absolute change in the nodes' precipitate or cloud 
+		 * water (whichever is larger, in cm) in the last iteration 
+		 */
+		public double getMeanResidual(){return meanResidual;}
+		/** 
+		 * @return The change in the total precipitate of all nodes in the 
+		 * last iteration, which is the global precipitation minus evaporation 
+		 * once the run-off has been returned to the water sources (zero in a 
+		 * steady state)
+		 */
+		public double getWaterBalance(){return waterBalance;}
+		@Override
+		public String toString(){
+			return iterations + " of " + maxIterations + " iterations, " 
+					+ (isConverged() ? "converged" : "not converged") + " (tolerance " + tolerance 
+					+ "), residual max=" + maxResidual + " mean=" + meanResidual 
+					+ ", water balance=" + waterBalance;
+		}
 	}
 	/**
 	 * Gets the closest cell to the given coordinate.
@@ -305,7 +1118,6 @@ public class HydrologyNetworkSimulation {
 						midpoints[i] = mathHelper.midpoint(n.node[(i+1)%3].getCoordinate(), n.node[(i+2)%3].getCoordinate());
 						
 						newCorners[i] = newPoints.computeIfAbsent(midpoints[j],(SpherePoint p)->{
-							double v = 0.5*(((HydrologyNetNode)n.node[(j+1)%3]).getWaterValue() + ((HydrologyNetNode)n.node[(j+2)%3]).getWaterValue());
 							HydrologyNetNode nc = new HydrologyNetNode(p, 6);
 							return nc;
 						});
@@ -415,7 +1227,23 @@ public class HydrologyNetworkSimulation {
 	private static final double GRID_MULTIPLIER = 1.0 / GRID_SPACING;
 	private static final int GRID_SIZE = (int)(2*GRID_MULTIPLIER)+6;
 	private static final int GRID_OFFSET = (int)(GRID_MULTIPLIER)+3;
-	private Double[][][] precititationInterpolationCache = new Double[GRID_SIZE][GRID_SIZE][GRID_SIZE];
+	/** edge length of a block of the precipitation cache, in grid points */
+	private static final int CACHE_BLOCK_SIZE = 4;
+	private static final int CACHE_BLOCKS_PER_SIDE = (GRID_SIZE + CACHE_BLOCK_SIZE - 1) / CACHE_BLOCK_SIZE;
+	/** 
+	 * XOR-ed with the bits of the cached values, so that an empty (zero) 
+	 * element of the cache is a signaling NaN that doubleToLongBits(...) 
+	 * never returns
+	 */
+	private static final long CACHE_EMPTY_BITS = 0x7FF0000000000001L;
+	/** 
+	 * precipitation at the grid points around the unit sphere, in blocks 
+	 * that are allocated the first time they are needed (only the blocks 
+	 * near the surface are ever used). Replaced with an empty cache whenever 
+	 * the simulation runs, and thread-safe without locks: a value that two 
+	 * threads calculate at the same time is the same value.
+	 */
+	private volatile AtomicReferenceArray<AtomicLongArray> precipitationCache = newPrecipitationCache();
 	/**
 	 * Like interpolatePrecipitationValueAt(coordinate), but less prone to 
 	 * interpolation artifacts.
@@ -424,28 +1252,59 @@ public class HydrologyNetworkSimulation {
 	 */
 	public double cubicInterpolatePrecipitation(SpherePoint coordinate){
 		Point3D temp  = SphericalMath.getInstance().lonLatTo3D(coordinate);
+		return cubicInterpolatePrecipitation(temp.getX(), temp.getY(), temp.getZ());
+	}
+	/**
+	 * Like cubicInterpolatePrecipitation(coordinate), but takes a unit vector 
+	 * (as made by <code>SphericalMath.lonLatTo3D(...)</code>) instead of a 
+	 * (longitude, latitude) coordinate.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector
+	 * @param z Z component of a unit vector
+	 * @return The amount of precipitation at the specified location.
+	 */
+	public double cubicInterpolatePrecipitation(double x, double y, double z){
 		double[] xyz = new double[3];
-		xyz[0] = temp.getX() * GRID_MULTIPLIER;
-		xyz[1] = temp.getY() * GRID_MULTIPLIER;
-		xyz[2] = temp.getZ() * GRID_MULTIPLIER;
+		xyz[0] = x * GRID_MULTIPLIER;
+		xyz[1] = y * GRID_MULTIPLIER;
+		xyz[2] = z * GRID_MULTIPLIER;
 		int[] intxyz = new int[3];
 		for(int i = 0; i < 3; i++)intxyz[i] = (int)Math.floor(xyz[i]);
+		final AtomicReferenceArray<AtomicLongArray> cache = precipitationCache;
 		double[][][] local64 = new double[4][4][4];
 		for (int dx = -1; dx < 3; dx++) {
 			for (int dy = -1; dy < 3; dy++) {
 				for (int dz = -1; dz < 3; dz++) {
-					Double v = precititationInterpolationCache[intxyz[0]+dx+GRID_OFFSET][intxyz[1]+dy+GRID_OFFSET][intxyz[2]+dz+GRID_OFFSET];
-					if(v == null){
-						SpherePoint p = SphericalMath.getInstance().point3DToLonLat(intxyz[0]+dx, intxyz[1]+dy, intxyz[2]+dz);
-						v = this.interpolatePrecipitationValueAt(p);
-						precititationInterpolationCache[intxyz[0]+dx+GRID_OFFSET][intxyz[1]+dy+GRID_OFFSET][intxyz[2]+dz+GRID_OFFSET] = v; // note: primitive double assignment is not atomic, but Object assignment is
-					}
-					local64[dx + 1][dy + 1][dz + 1] = v;
+					local64[dx + 1][dy + 1][dz + 1] = cachedPrecipitation(cache, intxyz[0]+dx, intxyz[1]+dy, intxyz[2]+dz);
 				}
 			}
 		}
 		return CubicInterpolator.interpolate3d(xyz[0],xyz[1],xyz[2], local64);
 	}
+	/** the precipitation at a grid point, calculated the first time it is needed */
+	private double cachedPrecipitation(AtomicReferenceArray<AtomicLongArray> cache, int gx, int gy, int gz){
+		final int ix = gx + GRID_OFFSET, iy = gy + GRID_OFFSET, iz = gz + GRID_OFFSET;
+		final int blockIndex = ((ix / CACHE_BLOCK_SIZE) * CACHE_BLOCKS_PER_SIDE 
+				+ (iy / CACHE_BLOCK_SIZE)) * CACHE_BLOCKS_PER_SIDE + (iz / CACHE_BLOCK_SIZE);
+		final int index = ((ix % CACHE_BLOCK_SIZE) * CACHE_BLOCK_SIZE 
+				+ (iy % CACHE_BLOCK_SIZE)) * CACHE_BLOCK_SIZE + (iz % CACHE_BLOCK_SIZE);
+		AtomicLongArray block = cache.get(blockIndex);
+		if(block == null){
+			cache.compareAndSet(blockIndex, null, new AtomicLongArray(CACHE_BLOCK_SIZE * CACHE_BLOCK_SIZE * CACHE_BLOCK_SIZE));
+			block = cache.get(blockIndex);
+		}
+		long bits = block.get(index);
+		if(bits != 0){
+			return Double.longBitsToDouble(bits ^ CACHE_EMPTY_BITS);
+		}
+		SpherePoint p = SphericalMath.getInstance().point3DToLonLat(gx, gy, gz);
+		double v = this.interpolatePrecipitationValueAt(p);
+		block.set(index, Double.doubleToLongBits(v) ^ CACHE_EMPTY_BITS);
+		return v;
+	}
+	private static AtomicReferenceArray<AtomicLongArray> newPrecipitationCache(){
+		return new AtomicReferenceArray<>(CACHE_BLOCKS_PER_SIDE * CACHE_BLOCKS_PER_SIDE * CACHE_BLOCKS_PER_SIDE);
+	}
 	/**
 	 * Like interpolateCloudValueAt(coordinate), but less prone to 
 	 * interpolation artifacts.
@@ -475,10 +1334,11 @@ public class HydrologyNetworkSimulation {
 	private double interpolateCloudWater(SpherePoint pt, SphereNetCell closest) {
 	//	if(true) return (closest.point[0].getValue()+closest.point[1].getValue()+closest.point[2].getValue())/3;
 		// barycentric interpolation on midpoints
+		final double[] cloud = this.cloud;
 		return interpolate(pt, 
-				((HydrologyNetNode)closest.node[0]).getWaterValue(), closest.node[0].getCoordinate(), 
-				((HydrologyNetNode)closest.node[1]).getWaterValue(), closest.node[1].getCoordinate(), 
-				((HydrologyNetNode)closest.node[2]).getWaterValue(), closest.node[2].getCoordinate());
+				cloud[((HydrologyNetNode)closest.node[0]).index], closest.node[0].getCoordinate(), 
+				cloud[((HydrologyNetNode)closest.node[1]).index], closest.node[1].getCoordinate(), 
+				cloud[((HydrologyNetNode)closest.node[2]).index], closest.node[2].getCoordinate());
 	}
 	/**
 	 * Gets the value at a given coordinate by interpolating the nodes of the 
@@ -510,10 +1370,11 @@ public class HydrologyNetworkSimulation {
 	private double interpolatePrecipitation(SpherePoint pt, SphereNetCell closest) {
 	//	if(true) return (closest.point[0].getValue()+closest.point[1].getValue()+closest.point[2].getValue())/3;
 		// barycentric interpolation on midpoints
+		final double[] precipitate = this.precipitate;
 		return interpolate(pt, 
-				((HydrologyNetNode)closest.node[0]).getPrecipitationValue(), closest.node[0].getCoordinate(), 
-				((HydrologyNetNode)closest.node[1]).getPrecipitationValue(), closest.node[1].getCoordinate(), 
-				((HydrologyNetNode)closest.node[2]).getPrecipitationValue(), closest.node[2].getCoordinate());
+				precipitate[((HydrologyNetNode)closest.node[0]).index], closest.node[0].getCoordinate(), 
+				precipitate[((HydrologyNetNode)closest.node[1]).index], closest.node[1].getCoordinate(), 
+				precipitate[((HydrologyNetNode)closest.node[2]).index], closest.node[2].getCoordinate());
 	}
 	
 	
@@ -532,13 +1393,19 @@ public class HydrologyNetworkSimulation {
 	}	
 
 	private void addAllCorners(SphereNetCell[] cellNet) {
-		HashSet<SphereNetNode> nodes = new HashSet<>();
+		// insertion order keeps the node order the same from run to run
+		LinkedHashSet<SphereNetNode> nodes = new LinkedHashSet<>();
 		for(SphereNetCell t : cellNet){
 			nodes.add(t.node[0]);
 			nodes.add(t.node[1]);
 			nodes.add(t.node[2]);
 		}
-		nodeLayers.add(nodes.toArray(new HydrologyNetNode[nodes.size()]));
+		HydrologyNetNode[] layer = nodes.toArray(new HydrologyNetNode[nodes.size()]);
+		for(int i = 0; i < layer.length; i++){
+			layer[i].index = i;
+		}
+		nodeLayers.add(layer);
+		buildLayout();
 	}
 	/**
 	 * Returns the number of nodes marked as water sources (ocean).
@@ -556,79 +1423,27 @@ public class HydrologyNetworkSimulation {
 	}
 	/** empties caches used by interpolation methods */
 	protected final void clearCaches() {
-		for(Double[][] d : precititationInterpolationCache){
-			for(Double[] dd : d){
-				Arrays.fill(dd, null);
-			}
-		}
+		precipitationCache = newPrecipitationCache();
 	}
 	
 	
 
 	/**
-	 * Implementation of the SphereNetNode that carries a hydrology data.
-	 * Ocean nodes are designated as water source nodes and they produce water. 
-	 * Other nodes carry water. 
-	 * On each iteration, a node passes some water to neighboring nodes, drops 
-	 * some water as precipitation, retakes some of the dropped water as 
-	 * evaporation, looses some of the dropped water as run-off, and passes some 
-	 * water to connected nodes.
+	 * Node of the hydrology network. The hydrology values of the nodes of 
+	 * the final layer are kept by the simulation, at the index of the node.
 	 */
 	protected static class HydrologyNetNode extends SphereNetNode{
 		/**
 		 * Constructor
 		 * @param p coorinate
-		 * @param val initial value
 		 * @param numConnections Number of possible connections to other nodes 
 		 * in the network.
 		 */
 		HydrologyNetNode(SpherePoint p, int numConnections) {
 			super(p,numConnections);
 		}
-		
-		boolean isWaterSource = false;
-		/** water held by this node */
-		double cloud = 0; // TODO: make atomic if simulation uses direct assignment
-		/** water change buffer */
-		DoubleAdder waterChangeBuffer = new DoubleAdder();
-		/** Water dropped on this node as precipitation */
-		double precipitate = 0;
-		/** precipitant change buffer */
-		DoubleAdder precipitationChangeBuffer = new DoubleAdder();
-		/** factor describing how much of this node's water it gives to neighbors per iteration */
-		double conductivity = 1;
-		/** factor for what fraction of this nodes water falls as precipitation */
-		double precipitivity = 0;
-		/** How much water moves from precipitant to water buffer each iteration */
-		double evaporativity = 0;
-		/** What fraction of dropped water disappears into rivers and groundwater */
-		double runoff = 0;
-		
-		public void addToWaterChangeBuffer(double val){
-			waterChangeBuffer.add(val);
-		}
-		public void applyWaterChangeBuffer(){
-			cloud += waterChangeBuffer.sumThenReset();
-		}
-		public double getWaterValue(){
-			return cloud;
-		}
-		public void setWaterValue(double value){
-			this.cloud = value;
-		}
-		
-		public void addToPrecipitationChangeBuffer(double val){
-			precipitationChangeBuffer.add(val);
-		}
-		public void applyPrecipitationChangeBuffer(){
-			precipitate += precipitationChangeBuffer.sumThenReset();
-		}
-		public double getPrecipitationValue(){
-			return precipitate;
-		}
-		public void setPrecipitationValue(double value){
-			this.precipitate = value;
-		}
+		/** position of this node in its layer */
+		int index = -1;
 	}
 	
 	@Deprecated public static void main(String[] args){
@@ -655,7 +1470,6 @@ public class HydrologyNetworkSimulation {
 	//	GUI.showImagePopupNonmodal(GUI.visualize(tempmap,0,30),"Temperature");
 		
 		HydrologyNetworkSimulation sim = HydrologyNetworkSimulation.createHydrologyNetwork(p, 101.0);
-		List<HydrologyNetNode> net = Arrays.asList(sim.nodeLayers.get(sim.nodeLayers.size()-1));
 		double legendMin = -50;
 		double legendMax = 150;
 //		double[][] legend = new double[21][10];
@@ -667,7 +1481,7 @@ public class HydrologyNetworkSimulation {
 		for(int i = 0; i <= 1000; i+= stepSize){
 			if (i != 0) {
 				for (int d = 0; d < stepSize; d++) {
-					sim.iterateSimulation(net);
+					sim.iterateSimulation();
 				}
 			};
 			System.out.println("iteration #"+i);
@@ -0,0 +1,235 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration;
+
+import hall.collin.christopher.worldgeneration.TectonicHydrologyPlanet.CreationFuture;
+import hall.collin.christopher.worldgeneration.TectonicHydrologyPlanet.Parameters;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Creates many TectonicHydrologyPlanets at once (e.g. the planets of a star 
+ * system, or a list of seeds), sharing resources between them. Calling 
+ * <code>TectonicHydrologyPlanet.createPlanetAsync(...)</code> for each planet 
+ * would start every creation at once, each of them spreading its parallel 
+ * streams over the common pool, so that they compete for the same threads 
+ * and all of their simulations are in memory at the same time. A batch 
+ * instead:
+ * <ul>
+ * <li>runs the creations in its own ForkJoinPool (so the common pool stays 
+ * free for the rest of the application),</li>
+ * <li>runs at most <code>getMaxConcurrentCreations()</code> creations at a 
+ * time and queues the rest, in the order they were submitted,</li>
+ * <li>limits that number further so that the estimated memory used by the 
+ * running creations stays under the memory limit, and</li>
+ * <li>builds the hydrology mesh once and gives each planet a copy of it, 
+ * instead of building it again for every planet.</li>
+ * </ul>
+ * Each submitted planet has its own CreationFuture, for per-planet progress 
+ * and cancellation. The memory limit only covers the creations that are 
+ * running; the finished planets belong to the caller.
+ * @author CCHall
+ */
+public final class PlanetBatch {
+	/** 
+	 * Estimated memory used by one running creation, in bytes. A finished 
+	 * simulation (mesh, node values and interpolation cache) holds about 
+	 * 25 MB, and the rest is working space.
+	 */
+	public static final long ESTIMATED_BYTES_PER_CREATION = 40L << 20;
+	/** Default number of creations that run at the same time */
+	public static final int DEFAULT_MAX_CONCURRENT_CREATIONS = 2;
+	
+	private final ForkJoinPool pool;
+	private final int maxConcurrent;
+	private final Object lock = new Object();
+	private final Object meshLock = new Object();
+	/** creation tasks waiting for a free slot */
+	private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+	private final List<CreationFuture> futures = new ArrayList<>();
+	private int running = 0;
+	private boolean shutdown = false;
+	private HydrologyNetworkSimulation meshTemplate = null;
+	
+	/**
+	 * Creates a batch that runs up to <code>DEFAULT_MAX_CONCURRENT_CREATIONS</code> 
+	 * creations at once, using all processors and at most half of the 
+	 * maximum heap size.
+	 */
+	public PlanetBatch(){
+		this(DEFAULT_MAX_CONCURRENT_CREATIONS, Runtime.getRuntime().maxMemory() / 2, 
+				Runtime.getRuntime().availableProcessors());
+	}
+	/**
+	 * Creates a batch.
+	 * @param maxConcurrentCreations The maximum number of planets that are 
+	 * created at the same time. Each creation is itself parallel, so a small 
+	 * number (2 or 3) is usually enough to keep every processor busy.
+	 * @param memoryLimit_bytes The memory that the running creations may use, 
+	 * in bytes. If this is less than 
+	 * <code>maxConcurrentCreations * ESTIMATED_BYTES_PER_CREATION</code>, 
+	 * fewer creations run at a time (but always at least one).
+	 * @param parallelism Number of threads in this batch's pool
+	 */
+	public PlanetBatch(int maxConcurrentCreations, long memoryLimit_bytes, int parallelism){
+		if(maxConcurrentCreations < 1) throw new IllegalArgumentException("Must allow at least one creation at a time");
+		if(memoryLimit_bytes <= 0) throw new IllegalArgumentException("Memory limit must be positive");
+		if(parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1");
+		long memorySlots = Math.max(1, memoryLimit_bytes / ESTIMATED_BYTES_PER_CREATION);
+		this.maxConcurrent = (int)Math.min(maxConcurrentCreations, memorySlots);
+		this.pool = new ForkJoinPool(parallelism);
+	}
+	
+	/**
+	 * Queues the creation of a planet.
+	 * @param seed A string to use as the seed for random number generators.
+	 * @param parameters The physical properties of the planet
+	 * @return A future for the planet (its stage is <code>QUEUED</code> until 
+	 * a slot is free). A queued planet that is cancelled is skipped.
+	 * @throws IllegalStateException Thrown if this batch has been shut down
+	 */
+	public CreationFuture submit(String seed, Parameters parameters){
+		if(parameters == null) throw new IllegalArgumentException("Parameters cannot be null");
+		CreationFuture f;
+		synchronized(lock){
+			if(shutdown) throw new IllegalStateException("Planet batch has been shut down");
+			f = TectonicHydrologyPlanet.createPlanetAsync(seed, parameters, queue::add, this::getMeshTemplate);
+			futures.add(f);
+		}
+		dispatch();
+		return f;
+	}
+	/**
+	 * Queues the creation of a planet for every seed.
+	 * @param seeds Seeds of the planets, in the order that they should be 
+	 * created
+	 * @param parameters The physical properties of every planet
+	 * @return A future for each planet, in the same order as the seeds
+	 * @throws IllegalStateException Thrown if this batch has been shut down
+	 */
+	public List<CreationFuture> submitAll(Collection<String> seeds, Parameters parameters){
+		List<CreationFuture> list = new ArrayList<>(seeds.size());
+		for(String seed : seeds){
+			list.add(submit(seed, parameters));
+		}
+		return list;
+	}
+	
+	/**
+	 * Gets the number of creations that may run at the same time, after 
+	 * applying the memory limit.
+	 * @return The maximum number of running creations
+	 */
+	public int getMaxConcurrentCreations(){
+		return maxConcurrent;
+	}
+	/**
+	 * Gets the futures of every planet submitted to this batch.
+	 * @return An unmodifiable list of futures, in the order they were 
+	 * submitted
+	 */
+	public List<CreationFuture> getFutures(){
+		synchronized(lock){
+			return Collections.unmodifiableList(new ArrayList<>(futures));
+		}
+	}
+	/**
+	 * Gets the overall progress of the batch.
+	 * @return The mean progress of every submitted planet, from 0 to 1 (1 if 
+	 * nothing has been submitted)
+	 */
+	public double getProgress(){
+		List<CreationFuture> list = getFutures();
+		if(list.isEmpty()) return 1;
+		double sum = 0;
+		for(CreationFuture f : list){
+			sum += f.getProgress();
+		}
+		return sum / list.size();
+	}
+	/**
+	 * Stops accepting new planets. The planets that were already submitted 
+	 * are still created, and the pool's threads end when they are done.
+	 */
+	public void shutdown(){
+		synchronized(lock){
+			shutdown = true;
+			if(running == 0 && queue.isEmpty()) pool.shutdown();
+		}
+	}
+	/**
+	 * Stops accepting new planets and cancels every planet that has not 
+	 * finished yet.
+	 */
+	public void shutdownNow(){
+		shutdown();
+		for(CreationFuture f : getFutures()){
+			f.cancel(false);
+		}
+	}
+	
+	/** starts queued tasks while there are free slots */
+	private void dispatch(){
+		synchronized(lock){
+			while(running < maxConcurrent && !queue.isEmpty()){
+				final Runnable task = queue.poll();
+				running++;
+				pool.execute(()->{
+					try{
+						task.run();
+					} finally {
+						finished();
+					}
+				});
+			}
+		}
+	}
+	private void finished(){
+		synchronized(lock){
+			running--;
+			if(shutdown && running == 0 && queue.isEmpty()) pool.shutdown();
+		}
+		dispatch();
+	}
+	/** builds the shared mesh the first time it is needed */
+	private HydrologyNetworkSimulation getMeshTemplate(){
+		synchronized(meshLock){
+			if(meshTemplate == null){
+				meshTemplate = HydrologyNetworkSimulation.createEmptyNetwork(()->false, null);
+			}
+			return meshTemplate;
+		}
+	}
+}
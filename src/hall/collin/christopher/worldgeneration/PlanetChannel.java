@@ -0,0 +1,252 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A kind of data that can be read from a planet at a location, such as 
+ * altitude or temperature. A channel may be derived from other channels 
+ * (its inputs). Channels are read through a ChannelSample, which computes 
+ * each channel at most once per location, so a channel that many others 
+ * depend on (e.g. altitude) is not recalculated for each of them.
+ * <p>
+ * Every channel has a default definition, which a planet can replace in its 
+ * ChannelGraph (see <code>AbstractPlanet.getChannelGraph()</code>) to take 
+ * advantage of the dependencies between its own calculations.
+ * </p>
+ * @author CCHall
+ */
+public final class PlanetChannel {
+	/**
+	 * Calculates the value of a channel at a sample location. Implementations 
+	 * read their inputs with <code>sample.get(input)</code>.
+	 */
+	@FunctionalInterface
+	public static interface ChannelFunction{
+		/**
+		 * Calculates a channel value.
+		 * @param sample The location being sampled
+		 * @return The value of the channel at that location
+		 */
+		double compute(ChannelSample sample);
+	}
+	
+	private static final AtomicInteger channelCount = new AtomicInteger(0);
+	
+	/** Distance from the coast (in meters) at which CONTINENTALITY is 1-1/e */
+	public static final double CONTINENTALITY_SCALE = 1000000;
+	/** Number of months in a year (see <code>monthlyTemperature(month)</code>) */
+	public static final int MONTHS_PER_YEAR = 12;
+	private static final String[] MONTH_NAMES = {"January", "February", "March", 
+			"April", "May", "June", "July", "August", "September", "October", 
+			"November", "December"};
+	
+	/** Roughness (from <code>AbstractPlanet.getRoughness(...)</code>) */
+	public static final PlanetChannel ROUGHNESS = new PlanetChannel("Roughness", 
+			(ChannelSample s)->s.getPlanet().getRoughness(s.getX(), s.getY(), s.getZ(), s.getPrecision()));
+	/** Altitude, in meters (from <code>AbstractPlanet.getAltitude(...)</code>) */
+	public static final PlanetChannel ALTITUDE = new PlanetChannel("Altitude", 
+			(ChannelSample s)->s.getPlanet().getAltitude(s.getX(), s.getY(), s.getZ(), s.getPrecision()));
+	/** Annual mean temperature, in °C (from <code>AbstractPlanet.getTemperature(...)</code>) */
+	public static final PlanetChannel TEMPERATURE = new PlanetChannel("Temperature", 
+			(ChannelSample s)->s.getPlanet().getTemperature(s.getX(), s.getY(), s.getZ(), s.getPrecision()));
+	/** Moisture availability, in cm (from <code>AbstractPlanet.getMoisture(...)</code>) */
+	public static final PlanetChannel MOISTURE = new PlanetChannel("Moisture", 
+			(ChannelSample s)->s.getPlanet().getMoisture(s.getX(), s.getY(), s.getZ(), s.getPrecision()));
+	/** 
+	 * Discharge (in m^3/s) of the river at a location, or 0 if there is no 
+	 * river there. NaN on planets that do not simulate rivers.
+	 */
+	public static final PlanetChannel RIVER = new PlanetChannel("River", (ChannelSample s)->Double.NaN);
+	/** 
+	 * Depth (in meters) of the lake at a location. Negative values are the 
+	 * height above the surface of a nearby lake, and -infinity means that 
+	 * there is no lake nearby. NaN on planets that do not simulate lakes.
+	 */
+	public static final PlanetChannel LAKE = new PlanetChannel("Lake", (ChannelSample s)->Double.NaN);
+	/** 
+	 * Distance (in meters) to the nearest coast, positive on land and 
+	 * negative at sea. NaN on planets that do not measure it.
+	 */
+	public static final PlanetChannel COAST_DISTANCE = new PlanetChannel("Coast Distance", (ChannelSample s)->Double.NaN);
+	/** 
+	 * How far inland a location is, from 0 (at sea or on the coast) towards 
+	 * 1 (deep in the interior of a continent), as 
+	 * 1&nbsp;-&nbsp;exp(-coastDistance&nbsp;/&nbsp;<code>CONTINENTALITY_SCALE</code>). 
+	 * NaN where COAST_DISTANCE is NaN.
+	 */
+	public static final PlanetChannel CONTINENTALITY = new PlanetChannel("Continentality", (ChannelSample s)->{
+			double d = s.get(PlanetChannel.COAST_DISTANCE);
+			return Double.isNaN(d) ? Double.NaN : continentality(d);
+		}, PlanetChannel.COAST_DISTANCE);
+	/** 
+	 * Steepness of the terrain, as rise over run (0 is flat, 1 is a 45&deg; 
+	 * slope), measured over a distance equal to the sample precision 
+	 */
+	public static final PlanetChannel SLOPE = new PlanetChannel("Slope", (ChannelSample s)->{
+			double step = s.getPrecision();
+			double h = s.get(PlanetChannel.ALTITUDE);
+			double dEast = s.offset(step, 0).get(PlanetChannel.ALTITUDE) - h;
+			double dNorth = s.offset(0, step).get(PlanetChannel.ALTITUDE) - h;
+			return Math.sqrt(dEast * dEast + dNorth * dNorth) / step;
+		}, PlanetChannel.ALTITUDE);
+	/** monthly mean temperature of each month (see monthlyTemperature(month)) */
+	private static final PlanetChannel[] MONTHLY_TEMPERATURE = monthlyChannels("Temperature", TEMPERATURE);
+	/** moisture of each month (see monthlyMoisture(month)) */
+	private static final PlanetChannel[] MONTHLY_MOISTURE = monthlyChannels("Moisture", MOISTURE);
+	
+	private final int index;
+	private final String name;
+	private final ChannelFunction defaultFunction;
+	private final List<PlanetChannel> defaultInputs;
+	
+	private PlanetChannel(String name, ChannelFunction defaultFunction, PlanetChannel... defaultInputs){
+		if(name == null || defaultFunction == null) throw new IllegalArgumentException("Name and function are required");
+		for(PlanetChannel c : defaultInputs){
+			if(c == null) throw new IllegalArgumentException("Input channels cannot be null");
+		}
+		this.index = channelCount.getAndIncrement();
+		this.name = name;
+		this.defaultFunction = defaultFunction;
+		this.defaultInputs = Collections.unmodifiableList(Arrays.asList(defaultInputs.clone()));
+	}
+	/**
+	 * Creates a new channel that is calculated from other channels. Because 
+	 * the inputs must already exist, channels cannot depend on each other in 
+	 * a loop.
+	 * @param name Name of the channel
+	 * @param function Calculates the channel from its inputs
+	 * @param inputs The channels that <code>function</code> reads
+	 * @return A new channel
+	 */
+	public static PlanetChannel derive(String name, ChannelFunction function, PlanetChannel... inputs){
+		return new PlanetChannel(name, function, inputs);
+	}
+	/**
+	 * Creates a new channel that only has a value on planets whose 
+	 * ChannelGraph defines it (e.g. a channel specific to one kind of 
+	 * planet). On other planets its value is NaN.
+	 * @param name Name of the channel
+	 * @return A new channel
+	 */
+	public static PlanetChannel create(String name){
+		return new PlanetChannel(name, (ChannelSample s)->Double.NaN);
+	}
+	
+	/**
+	 * Gets the channel of the mean temperature (in °C) of a month. Month 0 
+	 * (January) is winter in the northern hemisphere, and the northern 
+	 * spring equinox falls in month 2 (March). Planets that do not simulate 
+	 * seasons return the annual mean temperature (TEMPERATURE) for every 
+	 * month.
+	 * @param month Month, from 0 (January) to 11 (December)
+	 * @return The channel of that month
+	 * @throws IllegalArgumentException Thrown if the month is not from 0 to 11
+	 */
+	public static PlanetChannel monthlyTemperature(int month){
+		checkMonth(month);
+		return MONTHLY_TEMPERATURE[month];
+	}
+	/**
+	 * Gets the channel of the moisture availability of a month, as the 
+	 * annual moisture (precipitation minus evaporation, in cm) that a 
+	 * location would have if every month of the year were like this one. 
+	 * Planets that do not simulate seasons return the annual moisture 
+	 * (MOISTURE) for every month.
+	 * @param month Month, from 0 (January) to 11 (December)
+	 * @return The channel of that month
+	 * @throws IllegalArgumentException Thrown if the month is not from 0 to 11
+	 */
+	public static PlanetChannel monthlyMoisture(int month){
+		checkMonth(month);
+		return MONTHLY_MOISTURE[month];
+	}
+	/** channels of a monthly value, which default to the annual value */
+	private static PlanetChannel[] monthlyChannels(String name, PlanetChannel annual){
+		PlanetChannel[] c = new PlanetChannel[MONTHS_PER_YEAR];
+		for(int m = 0; m < MONTHS_PER_YEAR; m++){
+			c[m] = new PlanetChannel(name + " (" + MONTH_NAMES[m] + ")", 
+					(ChannelSample s)->s.get(annual), annual);
+		}
+		return c;
+	}
+	/** throws an IllegalArgumentException if a month is not from 0 to 11 */
+	static void checkMonth(int month){
+		if(month < 0 || month >= MONTHS_PER_YEAR){
+			throw new IllegalArgumentException("Month must be from 0 (January) to 11 (December), not " + month);
+		}
+	}
+	
+	/** 
+	 * the CONTINENTALITY of a location from its COAST_DISTANCE (for planets 
+	 * that calculate it without a sample)
+	 */
+	static double continentality(double coastDistance){
+		return 1 - Math.exp(-Math.max(0, coastDistance) / CONTINENTALITY_SCALE);
+	}
+	
+	/**
+	 * Gets the name of this channel.
+	 * @return The name
+	 */
+	public String getName(){
+		return name;
+	}
+	/**
+	 * Gets the inputs of the default definition of this channel (a 
+	 * ChannelGraph may define it differently).
+	 * @return The channels that this channel is calculated from by default
+	 */
+	public List<PlanetChannel> getDefaultInputs(){
+		return defaultInputs;
+	}
+	
+	ChannelFunction getDefaultFunction(){
+		return defaultFunction;
+	}
+	/** unique index, used for array look-ups */
+	int getIndex(){
+		return index;
+	}
+	/** number of channels created so far */
+	static int getChannelCount(){
+		return channelCount.get();
+	}
+	
+	@Override
+	public String toString(){
+		return name;
+	}
+}
@@ -0,0 +1,409 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration;
+
+import hall.collin.christopher.worldgeneration.biomes.Biome;
+import hall.collin.christopher.worldgeneration.biomes.BiomeFactory;
+import hall.collin.christopher.worldgeneration.math.FibonacciSphere;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the statistics of a planet (distributions of altitude, 
+ * roughness, temperature and moisture, and the area covered by each biome) 
+ * by sampling a set of equal-area points in parallel. Because every point 
+ * represents the same area, the results are not biased towards the poles the 
+ * way that a longitude-latitude grid is. 
+ * <p>
+ * Each channel is recorded in a fine fixed-width histogram, from which the 
+ * quantiles are estimated to within one bin width. Area fractions are 
+ * reported with a confidence interval; more samples give a narrower interval 
+ * (see <code>samplesForMargin(...)</code>).
+ * </p>
+ * @author CCHall
+ */
+public class PlanetStatistics {
+	/** The planet data that is measured */
+	public static enum Channel{
+		/** Altitude, in meters */
+		ALTITUDE(-12000, 10, 2400),
+		/** Roughness (0 and up) */
+		ROUGHNESS(0, 0.002, 2000),
+		/** Annual mean temperature, in °C */
+		TEMPERATURE(-275, 0.1, 4500),
+		/** Moisture availability, in cm */
+		MOISTURE(-500, 1, 2500);
+		
+		final double histogramMin;
+		final double binWidth;
+		final int numBins;
+		
+		private Channel(double histogramMin, double binWidth, int numBins){
+			this.histogramMin = histogramMin;
+			this.binWidth = binWidth;
+			this.numBins = numBins;
+		}
+	}
+	/** z-score for a 95% confidence interval */
+	private static final double Z_95 = 1.959964;
+	/** Default number of sample points */
+	public static final int DEFAULT_SAMPLE_COUNT = 20000;
+	
+	private final long sampleCount;
+	private final Histogram[] histograms;
+	private final Map<String, Long> biomeCounts;
+	
+	private PlanetStatistics(long sampleCount, Histogram[] histograms, Map<String, Long> biomeCounts){
+		this.sampleCount = sampleCount;
+		this.histograms = histograms;
+		this.biomeCounts = biomeCounts;
+	}
+	
+	/**
+	 * Measures a planet.
+	 * @param planet The planet to measure
+	 * @param biomeFactory Used to measure the area of each biome. Can be null, 
+	 * in which case biomes are not measured.
+	 * @param numSamples Number of equal-area sample points. The 95% margin 
+	 * of error of an area fraction is at most 0.98/sqrt(numSamples).
+	 * @param progressTracker Tracker for progress. Increments will be added 
+	 * to this object such that a complete operation will sum to 1.0. This 
+	 * parameter can be null.
+	 * @return The statistics of the planet
+	 */
+	public static PlanetStatistics measure(AbstractPlanet planet, BiomeFactory biomeFactory, int numSamples, DoubleAdder progressTracker){
+		if(numSamples < 1) throw new IllegalArgumentException("Number of samples must be at least 1");
+		final FibonacciSphere points = new FibonacciSphere(numSamples);
+		final double precision = points.getSpacing() * planet.getRadius();
+		final Channel[] channels = Channel.values();
+		final Histogram[] histograms = new Histogram[channels.length];
+		for(int i = 0; i < channels.length; i++){
+			histograms[i] = new Histogram(channels[i]);
+		}
+		final ConcurrentHashMap<String, LongAdder> biomes = new ConcurrentHashMap<>();
+		final double progressPerSample = 1.0 / numSamples;
+		IntStream.range(0, numSamples).parallel().forEach((int i)->{
+			double x = points.getX(i), y = points.getY(i), z = points.getZ(i);
+			ChannelSample sample = planet.sample(x, y, z, precision);
+			histograms[Channel.ALTITUDE.ordinal()].add(sample.get(PlanetChannel.ALTITUDE));
+			histograms[Channel.ROUGHNESS.ordinal()].add(sample.get(PlanetChannel.ROUGHNESS));
+			histograms[Channel.TEMPERATURE.ordinal()].add(sample.get(PlanetChannel.TEMPERATURE));
+			histograms[Channel.MOISTURE.ordinal()].add(sample.get(PlanetChannel.MOISTURE));
+			if(biomeFactory != null){
+				Biome b = biomeFactory.getBiome(sample);
+				biomes.computeIfAbsent(b.getName(), (String k)->new LongAdder()).increment();
+			}
+			if(progressTracker != null) progressTracker.add(progressPerSample);
+		});
+		Map<String, Long> biomeCounts = new TreeMap<>();
+		for(Map.Entry<String, LongAdder> e : biomes.entrySet()){
+			biomeCounts.put(e.getKey(), e.getValue().sum());
+		}
+		return new PlanetStatistics(numSamples, histograms, Collections.unmodifiableMap(biomeCounts));
+	}
+	/**
+	 * Measures a planet with the default number of samples.
+	 * @param planet The planet to measure
+	 * @param biomeFactory Used to measure the area of each biome. Can be null.
+	 * @return The statistics of the planet
+	 */
+	public static PlanetStatistics measure(AbstractPlanet planet, BiomeFactory biomeFactory){
+		return measure(planet, biomeFactory, DEFAULT_SAMPLE_COUNT, null);
+	}
+	/**
+	 * Calculates how many samples are needed for every area fraction to have 
+	 * a 95% confidence interval no wider than +/- <code>margin</code>.
+	 * @param margin Desired margin of error (e.g. 0.01 for +/- 1%)
+	 * @return The number of samples to pass to <code>measure(...)</code>
+	 */
+	public static int samplesForMargin(double margin){
+		if(!(margin > 0 && margin < 1)) throw new IllegalArgumentException("Margin must be between 0 and 1");
+		return (int)Math.ceil(Z_95 * Z_95 * 0.25 / (margin * margin));
+	}
+	
+	/**
+	 * Gets the number of sample points that were measured.
+	 * @return The number of samples
+	 */
+	public long getSampleCount(){
+		return sampleCount;
+	}
+	/**
+	 * Gets the area-weighted mean of a channel. Infinite values (e.g. the 
+	 * moisture of a moon) are not included.
+	 * @param channel The channel of interest
+	 * @return The mean value
+	 */
+	public double getMean(Channel channel){
+		return histograms[channel.ordinal()].mean();
+	}
+	/**
+	 * Gets the area-weighted standard deviation of a channel. Infinite values 
+	 * are not included.
+	 * @param channel The channel of interest
+	 * @return The standard deviation
+	 */
+	public double getStandardDeviation(Channel channel){
+		return histograms[channel.ordinal()].standardDeviation();
+	}
+	/**
+	 * Gets the lowest sampled value of a channel.
+	 * @param channel The channel of interest
+	 * @return The minimum value
+	 */
+	public double getMin(Channel channel){
+		return histograms[channel.ordinal()].min.get();
+	}
+	/**
+	 * Gets the highest sampled value of a channel.
+	 * @param channel The channel of interest
+	 * @return The maximum value
+	 */
+	public double getMax(Channel channel){
+		return histograms[channel.ordinal()].max.get();
+	}
+	/**
+	 * Estimates the value below which a given fraction of the surface lies 
+	 * (e.g. q=0.5 is the median). The estimate is accurate to within one 
+	 * histogram bin (10 m of altitude, 0.1 °C, 1 cm of moisture, 0.002 
+	 * roughness).
+	 * @param channel The channel of interest
+	 * @param q Fraction of surface area, from 0 to 1
+	 * @return The estimated quantile
+	 */
+	public double getQuantile(Channel channel, double q){
+		if(!(q >= 0 && q <= 1)) throw new IllegalArgumentException("Quantile must be from 0 to 1");
+		return histograms[channel.ordinal()].quantile(q);
+	}
+	/**
+	 * Estimates the fraction of the surface where a channel is below a value 
+	 * (e.g. the fraction below sea-level is 
+	 * <code>getFractionBelow(Channel.ALTITUDE, 0)</code>).
+	 * @param channel The channel of interest
+	 * @param value Threshold value
+	 * @return The estimated area fraction, with a 95% confidence interval
+	 */
+	public Estimate getFractionBelow(Channel channel, double value){
+		return Estimate.of(histograms[channel.ordinal()].countBelow(value), sampleCount);
+	}
+	/**
+	 * Estimates the fraction of the surface covered by a biome.
+	 * @param biomeName The name of the biome (see <code>Biome.getName()</code>)
+	 * @return The estimated area fraction, with a 95% confidence interval
+	 */
+	public Estimate getBiomeFraction(String biomeName){
+		return Estimate.of(biomeCounts.getOrDefault(biomeName, 0L), sampleCount);
+	}
+	/**
+	 * Gets the area fractions of all biomes that were found.
+	 * @return Map of biome name to estimated area fraction, sorted by name
+	 */
+	public Map<String, Estimate> getBiomeFractions(){
+		Map<String, Estimate> result = new TreeMap<>();
+		for(Map.Entry<String, Long> e : biomeCounts.entrySet()){
+			result.put(e.getKey(), Estimate.of(e.getValue(), sampleCount));
+		}
+		return Collections.unmodifiableMap(result);
+	}
+	/**
+	 * Makes a histogram of a channel with coarser bins. Values outside of the 
+	 * recorded range are put in the first or last bin.
+	 * @param channel The channel of interest
+	 * @param binSize Width of each bin (should be a multiple of the recorded 
+	 * bin width for exact counts)
+	 * @return Map of bin start to number of samples, for bins that have at 
+	 * least one sample
+	 */
+	public SortedMap<Double, Long> getHistogram(Channel channel, double binSize){
+		if(!(binSize > 0)) throw new IllegalArgumentException("Bin size must be positive");
+		return histograms[channel.ordinal()].coarsen(binSize);
+	}
+	
+	@Override
+	public String toString(){
+		StringBuilder sb = new StringBuilder();
+		sb.append("Planet statistics from ").append(sampleCount).append(" equal-area samples\n");
+		for(Channel c : Channel.values()){
+			sb.append(String.format("%-12s mean %10.2f  sd %9.2f  min %10.2f  median %10.2f  max %10.2f%n", 
+					c, getMean(c), getStandardDeviation(c), getMin(c), getQuantile(c, 0.5), getMax(c)));
+		}
+		sb.append("Below sea level: ").append(getFractionBelow(Channel.ALTITUDE, 0)).append('\n');
+		for(Map.Entry<String, Estimate> e : getBiomeFractions().entrySet()){
+			sb.append(String.format("%-16s %s%n", e.getKey(), e.getValue()));
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * An estimated area fraction with a 95% confidence interval (Wilson score 
+	 * interval, which stays within 0 to 1 even for rare biomes).
+	 */
+	public static final class Estimate{
+		private final double fraction;
+		private final double lower;
+		private final double upper;
+		
+		private Estimate(double fraction, double lower, double upper){
+			this.fraction = fraction;
+			this.lower = lower;
+			this.upper = upper;
+		}
+		static Estimate of(long count, long total){
+			double n = total;
+			double p = count / n;
+			double z2 = Z_95 * Z_95;
+			double center = (p + z2 / (2 * n)) / (1 + z2 / n);
+			double halfWidth = Z_95 * Math.sqrt(p * (1 - p) / n + z2 / (4 * n * n)) / (1 + z2 / n);
+			return new Estimate(p, Math.max(0, center - halfWidth), Math.min(1, center + halfWidth));
+		}
+		/** @return The estimated fraction (0 to 1) */
+		public double getFraction(){return fraction;}
+		/** @return Lower bound of the 95% confidence interval */
+		public double getLowerBound(){return lower;}
+		/** @return Upper bound of the 95% confidence interval */
+		public double getUpperBound(){return upper;}
+		@Override
+		public String toString(){
+			return String.format("%.2f%% (95%% CI %.2f%% to %.2f%%)", 100 * fraction, 100 * lower, 100 * upper);
+		}
+	}
+	
+	/** fixed-width histogram that can be added to from many threads */
+	private static final class Histogram{
+		final Channel channel;
+		final LongAdder[] bins;
+		final LongAdder underflow = new LongAdder();
+		final LongAdder overflow = new LongAdder();
+		final LongAdder finiteCount = new LongAdder();
+		final DoubleAdder sum = new DoubleAdder();
+		final DoubleAdder sumOfSquares = new DoubleAdder();
+		final DoubleAccumulator min = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+		final DoubleAccumulator max = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+		
+		Histogram(Channel channel){
+			this.channel = channel;
+			bins = new LongAdder[channel.numBins];
+			for(int i = 0; i < bins.length; i++){
+				bins[i] = new LongAdder();
+			}
+		}
+		void add(double v){
+			if(Double.isNaN(v)) return;
+			min.accumulate(v);
+			max.accumulate(v);
+			if(!Double.isInfinite(v)){
+				finiteCount.increment();
+				sum.add(v);
+				sumOfSquares.add(v * v);
+			}
+			double b = (v - channel.histogramMin) / channel.binWidth;
+			if(b < 0){
+				underflow.increment();
+			} else if(b >= bins.length){
+				overflow.increment();
+			} else {
+				bins[(int)b].increment();
+			}
+		}
+		double mean(){
+			return sum.sum() / finiteCount.sum();
+		}
+		double standardDeviation(){
+			double n = finiteCount.sum();
+			double m = sum.sum() / n;
+			return Math.sqrt(Math.max(0, sumOfSquares.sum() / n - m * m));
+		}
+		long total(){
+			long t = underflow.sum() + overflow.sum();
+			for(LongAdder b : bins) t += b.sum();
+			return t;
+		}
+		double quantile(double q){
+			long total = total();
+			if(total == 0) return Double.NaN;
+			double target = q * total;
+			double cumulative = underflow.sum();
+			// outside of the recorded range, only the extremes are known
+			if(cumulative >= target && cumulative > 0) return min.get();
+			for(int i = 0; i < bins.length; i++){
+				long c = bins[i].sum();
+				if(c > 0 && cumulative + c >= target){
+					// interpolate within the bin
+					double f = (target - cumulative) / c;
+					double v = channel.histogramMin + (i + f) * channel.binWidth;
+					return Math.min(Math.max(v, min.get()), max.get());
+				}
+				cumulative += c;
+			}
+			return max.get();
+		}
+		long countBelow(double value){
+			double b = (value - channel.histogramMin) / channel.binWidth;
+			if(b <= 0){
+				// below the recorded range, so only the extremes are known
+				return (value > min.get()) ? underflow.sum() : 0;
+			}
+			long count = underflow.sum();
+			int whole = (int)Math.min(b, bins.length);
+			for(int i = 0; i < whole; i++) count += bins[i].sum();
+			if(whole < bins.length){
+				// assume values are spread evenly within the partial bin
+				count += Math.round(bins[whole].sum() * (b - whole));
+			} else {
+				if(value > max.get()) count += overflow.sum();
+			}
+			return count;
+		}
+		SortedMap<Double, Long> coarsen(double binSize){
+			TreeMap<Double, Long> result = new TreeMap<>();
+			double first = Math.floor(channel.histogramMin / binSize) * binSize;
+			if(underflow.sum() > 0) result.merge(first, underflow.sum(), Long::sum);
+			for(int i = 0; i < bins.length; i++){
+				long c = bins[i].sum();
+				if(c == 0) continue;
+				double start = channel.histogramMin + (i + 0.5) * channel.binWidth;
+				result.merge(Math.floor(start / binSize) * binSize, c, Long::sum);
+			}
+			if(overflow.sum() > 0){
+				double last = Math.floor((channel.histogramMin + bins.length * channel.binWidth) / binSize) * binSize;
+				result.merge(last, overflow.sum(), Long::sum);
+			}
+			return result;
+		}
+	}
+}
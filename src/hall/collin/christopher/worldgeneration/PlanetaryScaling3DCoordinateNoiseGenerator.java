@@ -32,8 +32,7 @@ package hall.collin.christopher.worldgeneration;
 
 import hall.collin.christopher.worldgeneration.math.CubicInterpolator;
 import hall.collin.christopher.worldgeneration.math.XorShiftRandomNumberGenerator;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -46,9 +45,11 @@ public class PlanetaryScaling3DCoordinateNoiseGenerator  {
 
 	
 	private final XorShiftRandomNumberGenerator seedGenerator;
-	private final List<Planetary3CoordinatePRNG> layers = new ArrayList<>();
-	private final List<Double> magnitudes = new ArrayList<>();
-	private final List<Double> units = new ArrayList<>();
+	/** 
+	 * the generated layers, which are replaced (never modified) when more 
+	 * are needed, so that they can be read without locking
+	 */
+	private volatile Layers layers = new Layers(new Planetary3CoordinatePRNG[0], new double[0], new double[0]);
 	private final double initialUnitSize;
 	private final double unitScaleFactor;
 	private final double initialMagnitude;
@@ -76,17 +77,39 @@ public class PlanetaryScaling3DCoordinateNoiseGenerator  {
 	
 	
 	
+	/** an immutable set of noise layers */
+	private static final class Layers{
+		final Planetary3CoordinatePRNG[] prngs;
+		final double[] units;
+		final double[] magnitudes;
+		Layers(Planetary3CoordinatePRNG[] prngs, double[] units, double[] magnitudes){
+			this.prngs = prngs;
+			this.units = units;
+			this.magnitudes = magnitudes;
+		}
+	}
+	
 	private final Lock seedLock = new ReentrantLock();
-	/** ensures that all of the layers have been generated */
-	private void checkLayers(int depth){
-		if(layers.size() > depth){return;}
+	/** ensures that all of the layers have been generated, returning them */
+	private Layers checkLayers(int depth){
+		Layers l = layers;
+		if(l.prngs.length > depth){return l;}
 		seedLock.lock();
 		try{
-			while(layers.size() <= depth){
-				layers.add(new Planetary3CoordinatePRNG(seedGenerator.nextLong()));
-				units.add(Math.pow(unitScaleFactor, units.size())*initialUnitSize);
-				magnitudes.add(Math.pow(magnitudeScaleFactor, magnitudes.size())*initialMagnitude);
+			l = layers;
+			int n = l.prngs.length;
+			if(n > depth){return l;}
+			Planetary3CoordinatePRNG[] prngs = Arrays.copyOf(l.prngs, depth + 1);
+			double[] units = Arrays.copyOf(l.units, depth + 1);
+			double[] magnitudes = Arrays.copyOf(l.magnitudes, depth + 1);
+			for(int i = n; i <= depth; i++){
+				prngs[i] = new Planetary3CoordinatePRNG(seedGenerator.nextLong());
+				units[i] = Math.pow(unitScaleFactor, i)*initialUnitSize;
+				magnitudes[i] = Math.pow(magnitudeScaleFactor, i)*initialMagnitude;
 			}
+			l = new Layers(prngs, units, magnitudes);
+			layers = l;
+			return l;
 		} finally {
 			seedLock.unlock();
 		}
@@ -105,17 +128,17 @@ public class PlanetaryScaling3DCoordinateNoiseGenerator  {
 		if(depth < 1){
 			depth = 1;
 		}
-		checkLayers(depth);
+		Layers l = checkLayers(depth);
 		
 		double sum = 0;
 		for(int i = 0; i < depth; i++){
-			sum += interpolateValue(x,y,z,i) * magnitudes.get(i);
+			sum += interpolateValue(x,y,z,l,i) * l.magnitudes[i];
 		}
 		return sum;
 	}
 	
-	private double interpolateValue(double x, double y, double z, int depth){
-		double unitSize = units.get(depth);
+	private double interpolateValue(double x, double y, double z, Layers l, int depth){
+		double unitSize = l.units[depth];
 		double xp = x/unitSize;
 		double yp = y/unitSize;
 		double zp = z/unitSize;
@@ -126,7 +149,7 @@ public class PlanetaryScaling3DCoordinateNoiseGenerator  {
 		for (int dx = -1; dx < 3; dx++) {
 			for (int dy = -1; dy < 3; dy++) {
 				for (int dz = -1; dz < 3; dz++) {
-					local64[dx + 1][dy + 1][dz + 1] = layers.get(depth).valueAt(x0 + dx, y0 + dy, z0 + dz);
+					local64[dx + 1][dy + 1][dz + 1] = l.prngs[depth].valueAt(x0 + dx, y0 + dy, z0 + dz);
 				}
 			}
 		}
@@ -37,7 +37,8 @@ import hall.collin.christopher.worldgeneration.math.DefaultRandomNumberGenerator
 import java.io.IOException;
 
 /**
- * A planet implementation that is a barren, lifeless rock.
+ * A planet implementation that is a barren, lifeless rock, covered in 
+ * impact craters of all sizes (see CraterField).
  * @author CCHall
  */
 public class RandomMoon extends AbstractPlanet{
@@ -57,6 +58,12 @@ public class RandomMoon extends AbstractPlanet{
 	final double altitudeRange = 2000;
 	
 	private final double tectFactor = 2.0;
+	/** Impact craters */
+	final CraterField craters;
+	/** radius of the smallest craters, in meters */
+	private final double minCraterRadius = 250;
+	/** fraction of the surface covered by each size of crater */
+	private final double craterCoverage = 0.3;
 	/**
 	 * Creates a new moon from a text seed and given radius (in meters).
 	 * @param seed Usually the name of the moon.
@@ -81,6 +88,8 @@ public class RandomMoon extends AbstractPlanet{
 				prng.nextLong(),
 				minPrecision,
 				tectFactor);
+		craters = new CraterField(prng.nextLong(), radius, 
+				Math.min(minCraterRadius, radius / 8), radius / 8, craterCoverage);
 	}
 	
 	
@@ -140,10 +149,22 @@ public class RandomMoon extends AbstractPlanet{
 	 */
 	@Override
 	public double getRoughness(double longitude, double latitude, double precision) {
-		double x = radius * sin(longitude)*cos(latitude);
-		double y = radius * sin(latitude);
-		double z = radius * cos(longitude)*cos(latitude);
-		return getTectonicFactor(x,y,z)/5;
+		double cosLat = cos(latitude);
+		return getRoughness(sin(longitude)*cosLat, sin(latitude), cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Calculates the roughness at the location pointed to by a unit vector 
+	 * from the center of the moon.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return Returns a value from 0 to infinity at this coordinate, with a 
+	 * value greater than 1 meaning mountains.
+	 */
+	@Override
+	public double getRoughness(double x, double y, double z, double precision) {
+		return getTectonicFactor(radius * x, radius * y, radius * z)/5;
 	}
 
 	/**
@@ -162,10 +183,25 @@ public class RandomMoon extends AbstractPlanet{
 	 */
 	@Override
 	public double getAltitude(double longitude, double latitude, double precision) {
-		double x = radius * sin(longitude)*cos(latitude);
-		double y = radius * sin(latitude);
-		double z = radius * cos(longitude)*cos(latitude);
-		double h = altitudeLayer.getValue(x, y, z, precision) * getTectonicFactor(x,y,z)+radius;
+		double cosLat = cos(latitude);
+		return getAltitude(sin(longitude)*cosLat, sin(latitude), cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Calculates the altitude at the location pointed to by a unit vector 
+	 * from the center of the moon.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The altitude at this coordinate.
+	 */
+	@Override
+	public double getAltitude(double x, double y, double z, double precision) {
+		double px = radius * x;
+		double py = radius * y;
+		double pz = radius * z;
+		double h = altitudeLayer.getValue(px, py, pz, precision) * getTectonicFactor(px,py,pz)+radius
+				+ craters.getAltitude(x, y, z, precision);
 		return h;
 	}
 
@@ -188,6 +224,18 @@ public class RandomMoon extends AbstractPlanet{
 	public double getMoisture(double longitude, double latitude, double precision) {
 		return Double.NEGATIVE_INFINITY;
 	}
+	/**
+	 * Moons are dry everywhere.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return Negative infinity
+	 */
+	@Override
+	public double getMoisture(double x, double y, double z, double precision) {
+		return Double.NEGATIVE_INFINITY;
+	}
 
 	/**
 	 * Calculates geography data at the given location, returning the 
@@ -205,6 +253,18 @@ public class RandomMoon extends AbstractPlanet{
 	public double getTemperature(double longitude, double latitude, double precision) {
 		return 3-273.15; // 3°K
 	}
+	/**
+	 * Moons are cold everywhere.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The temperature of deep space, in °C
+	 */
+	@Override
+	public double getTemperature(double x, double y, double z, double precision) {
+		return 3-273.15; // 3°K
+	}
 
 	/**
 	 * Gets the size of the planet.
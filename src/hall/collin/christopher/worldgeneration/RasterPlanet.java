@@ -0,0 +1,659 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.stream.IntStream;
+
+/**
+ * A planet backed by imported data, such as a real digital elevation model 
+ * or an artist's heightmap. Each layer (altitude, and optionally 
+ * temperature and moisture) is a raw, headerless raster in the 
+ * equirectangular projection: <i>width</i> columns from west to east, 
+ * <i>height</i> rows from the north pole to the south pole, one sample 
+ * per pixel. Layers are memory-mapped (in segments, so they can be larger 
+ * than 2 GB), so even very large rasters are not copied into the Java heap, 
+ * and are sampled with bicubic (Catmull-Rom) interpolation, which wraps 
+ * around in longitude and across the poles.
+ * <p>
+ * Samples coarser than the raster are interpolated from a copy of the 
+ * layer that is shrunk by <i>s</i>, with <i>s</i> the largest power of 2 
+ * that fits in the precision, so every sample costs the same. Each pixel 
+ * of the shrunk copy is the average of the <i>s</i>x<i>s</i> pixels that 
+ * it covers, so that coarse samples (such as those of the moisture 
+ * simulation) do not alias. The shrunk copies are made the first time that 
+ * they are needed and are kept in the heap, so only those with at most 
+ * 2<sup>22</sup> pixels (16 MB) are made. Samples that are coarser than 
+ * the raster but finer than the first copy read every <i>s</i>-th pixel of 
+ * the raster instead, and may alias. Roughness is the altitude range of the 4x4 pixels 
+ * that are interpolated, per 1000 m. If there is no temperature layer, the 
+ * temperature is calculated from the latitude and altitude, and if there is 
+ * no moisture layer, the moisture is simulated with a 
+ * HydrologyNetworkSimulation when the planet is loaded.
+ * </p>
+ * @author CCHall
+ */
+public class RasterPlanet extends AbstractPlanet{
+	/** Largest number of bytes mapped in one segment */
+	private static final long MAX_SEGMENT_BYTES = 1L << 30;
+	/** Largest number of pixels in a box-filtered copy of a layer */
+	private static final long MAX_FILTERED_PIXELS = 1L << 22;
+	/** altitude range (in m) of the interpolated pixels that is a roughness of 1 */
+	private final double reliefPerRoughness = 1000;
+	/** average sea-level temperature of the equator when there is no temperature layer */
+	private final double equatorialTemperature = 25;
+	/** sea-level temperature of the poles relative to the equator */
+	private final double polarTemperatureDelta = -42;
+	/** The drop in temperature (in C) per rise in altitude (in m) */
+	private final double temperatureDropPerMeter = -6.5 / 1000.0;
+	
+	private final double radius;
+	private final MappedLayer altitude;
+	/** null if the temperature is calculated */
+	private final MappedLayer temperature;
+	/** null if the moisture is simulated */
+	private final MappedLayer moisture;
+	/** null if there is a moisture layer */
+	private final HydrologyNetworkSimulation hydrology;
+	
+	/**
+	 * The format of each sample of a raster.
+	 */
+	public static enum SampleFormat{
+		/** signed 16-bit integers (the usual format of elevation models) */
+		INT16(2),
+		/** unsigned 16-bit integers (the usual format of 16-bit heightmaps) */
+		UINT16(2),
+		/** 32-bit floating point numbers */
+		FLOAT32(4);
+		
+		private final int bytes;
+		private SampleFormat(int bytes){
+			this.bytes = bytes;
+		}
+		/**
+		 * Gets the size of a sample.
+		 * @return The number of bytes per sample
+		 */
+		public int getBytesPerSample(){
+			return bytes;
+		}
+	}
+	
+	/**
+	 * Describes a raster file: its size, sample format and byte order, how 
+	 * to convert samples to values, and where it starts in longitude. 
+	 * Instances are immutable; use the <code>with...(...)</code> methods to 
+	 * make a copy with one property changed.
+	 */
+	public static final class Layer{
+		private final File file;
+		private final SampleFormat format;
+		private final int width;
+		private final int height;
+		private final long headerBytes;
+		private final ByteOrder byteOrder;
+		private final double scale;
+		private final double offset;
+		private final double westEdge_degrees;
+		
+		/**
+		 * Describes a raster file with no header, little-endian samples 
+		 * (value&nbsp;=&nbsp;sample) and the western edge at -180 degrees.
+		 * @param file The raster file
+		 * @param format The format of each sample
+		 * @param width Number of columns (from west to east)
+		 * @param height Number of rows (from north to south)
+		 */
+		public Layer(File file, SampleFormat format, int width, int height){
+			this(file, format, width, height, 0, ByteOrder.LITTLE_ENDIAN, 1, 0, -180);
+		}
+		private Layer(File file, SampleFormat format, int width, int height, long headerBytes, 
+				ByteOrder byteOrder, double scale, double offset, double westEdge_degrees){
+			if(file == null || format == null || byteOrder == null) throw new IllegalArgumentException("File, format and byte order cannot be null");
+			if(width < 4 || height < 2) throw new IllegalArgumentException("Raster must be at least 4 by 2 pixels");
+			if((long)width * format.getBytesPerSample() > MAX_SEGMENT_BYTES) throw new IllegalArgumentException("Raster is too wide");
+			if(headerBytes < 0) throw new IllegalArgumentException("Header size cannot be negative");
+			if(!(Double.isFinite(scale) && Double.isFinite(offset) && Double.isFinite(westEdge_degrees))){
+				throw new IllegalArgumentException("Scale, offset and western edge must be finite");
+			}
+			this.file = file;
+			this.format = format;
+			this.width = width;
+			this.height = height;
+			this.headerBytes = headerBytes;
+			this.byteOrder = byteOrder;
+			this.scale = scale;
+			this.offset = offset;
+			this.westEdge_degrees = westEdge_degrees;
+		}
+		/** @return The raster file */
+		public File getFile(){return file;}
+		/** @return The format of each sample */
+		public SampleFormat getFormat(){return format;}
+		/** @return Number of columns */
+		public int getWidth(){return width;}
+		/** @return Number of rows */
+		public int getHeight(){return height;}
+		/** @return Number of bytes before the first sample */
+		public long getHeaderBytes(){return headerBytes;}
+		/** @return Byte order of the samples */
+		public ByteOrder getByteOrder(){return byteOrder;}
+		/** @return Multiplier from sample to value */
+		public double getScale(){return scale;}
+		/** @return Added to the sample after it is multiplied by the scale */
+		public double getOffset(){return offset;}
+		/** @return Longitude of the western edge of the first column, in degrees */
+		public double getWestEdge_degrees(){return westEdge_degrees;}
+		/**
+		 * @param headerBytes Number of bytes before the first sample
+		 * @return A copy of this layer with a different header size
+		 */
+		public Layer withHeaderBytes(long headerBytes){
+			return new Layer(file, format, width, height, headerBytes, byteOrder, scale, offset, westEdge_degrees);
+		}
+		/**
+		 * @param byteOrder Byte order of the samples
+		 * @return A copy of this layer with a different byte order
+		 */
+		public Layer withByteOrder(ByteOrder byteOrder){
+			return new Layer(file, format, width, height, headerBytes, byteOrder, scale, offset, westEdge_degrees);
+		}
+		/**
+		 * @param scale Multiplier from sample to value
+		 * @param offset Added to the sample after it is multiplied by the scale
+		 * @return A copy of this layer with value&nbsp;=&nbsp;sample&nbsp;*&nbsp;scale&nbsp;+&nbsp;offset
+		 */
+		public Layer withScale(double scale, double offset){
+			return new Layer(file, format, width, height, headerBytes, byteOrder, scale, offset, westEdge_degrees);
+		}
+		/**
+		 * @param westEdge_degrees Longitude of the western edge of the first 
+		 * column, in degrees (e.g. 0 for rasters that go from 0 to 360)
+		 * @return A copy of this layer starting at a different longitude
+		 */
+		public Layer withWestEdge_degrees(double westEdge_degrees){
+			return new Layer(file, format, width, height, headerBytes, byteOrder, scale, offset, westEdge_degrees);
+		}
+		@Override
+		public String toString(){
+			return file + " (" + width + "x" + height + " " + format + ", " + byteOrder + ")";
+		}
+	}
+	
+	private RasterPlanet(double radius, MappedLayer altitude, MappedLayer temperature, 
+			MappedLayer moisture, HydrologyNetworkSimulation hydrology){
+		this.radius = radius;
+		this.altitude = altitude;
+		this.temperature = temperature;
+		this.moisture = moisture;
+		this.hydrology = hydrology;
+	}
+	
+	/**
+	 * Opens an altitude raster (in meters above sea level) as a planet, 
+	 * with calculated temperature and an Earth-like atmosphere for the 
+	 * moisture simulation.
+	 * @param radius_km radius of planet in kilometers (Earth is 6371 km)
+	 * @param altitudeLayer The altitude raster, in meters
+	 * @param progressTracker Tracker for the progress of the moisture 
+	 * simulation. Increments will be added to this object such that a 
+	 * complete operation will sum to 1.0. This parameter can be null.
+	 * @return A planet backed by the raster
+	 * @throws IOException Thrown if the raster cannot be read or is smaller 
+	 * than its description
+	 */
+	public static RasterPlanet load(double radius_km, Layer altitudeLayer, DoubleAdder progressTracker) throws IOException{
+		return load(radius_km, altitudeLayer, null, null, 101, progressTracker);
+	}
+	/**
+	 * Opens rasters as a planet. The rasters may have different sizes.
+	 * @param radius_km radius of planet in kilometers (Earth is 6371 km)
+	 * @param altitudeLayer The altitude raster, in meters above sea level
+	 * @param temperatureLayer The annual mean temperature raster, in °C, or 
+	 * null to calculate the temperature from the latitude and altitude
+	 * @param moistureLayer The moisture raster, as annual precipitation minus 
+	 * evaporation (in cm), or null to simulate it
+	 * @param atmosphere_kPa Density of atmosphere at sea-level in kilopascals 
+	 * (Earth is 101 kPa), for the moisture simulation
+	 * @param progressTracker Tracker for the progress of the moisture 
+	 * simulation. Increments will be added to this object such that a 
+	 * complete operation will sum to 1.0. This parameter can be null.
+	 * @return A planet backed by the rasters
+	 * @throws IOException Thrown if a raster cannot be read or is smaller 
+	 * than its description
+	 */
+	public static RasterPlanet load(double radius_km, Layer altitudeLayer, Layer temperatureLayer, 
+			Layer moistureLayer, double atmosphere_kPa, DoubleAdder progressTracker) throws IOException{
+		if(!(radius_km > 0)) throw new IllegalArgumentException("Radius must be positive");
+		if(altitudeLayer == null) throw new IllegalArgumentException("Altitude layer cannot be null");
+		if(!(atmosphere_kPa > 0)) throw new IllegalArgumentException("Atmosphere must be positive");
+		double radius = radius_km * 1000;
+		MappedLayer a = new MappedLayer(altitudeLayer);
+		MappedLayer t = (temperatureLayer == null) ? null : new MappedLayer(temperatureLayer);
+		if(moistureLayer != null){
+			RasterPlanet p = new RasterPlanet(radius, a, t, new MappedLayer(moistureLayer), null);
+			if(progressTracker != null) progressTracker.add(1.0);
+			return p;
+		}
+		// the simulation only reads the altitude, roughness and temperature
+		RasterPlanet dry = new RasterPlanet(radius, a, t, null, null);
+		HydrologyNetworkSimulation sim = HydrologyNetworkSimulation.createHydrologyNetwork(dry, atmosphere_kPa);
+		sim.runSimulation(progressTracker);
+		return new RasterPlanet(radius, a, t, null, sim);
+	}
+	
+	/**
+	 * Writes the samples of a heightmap image to a raster file that can be 
+	 * opened with <code>load(...)</code>. The image must be in the 
+	 * equirectangular projection. For a greyscale 
+	 * <code>java.awt.image.BufferedImage</code>, the samples are 
+	 * <code>image.getRaster().getSamples(0, 0, w, h, 0, (int[])null)</code> 
+	 * and the largest sample is 
+	 * 2<sup>bit&nbsp;depth</sup>&nbsp;-&nbsp;1.
+	 * @param samples The samples, row by row from the north-west corner
+	 * @param w Number of columns (from west to east)
+	 * @param h Number of rows (from north to south)
+	 * @param maxSample The largest possible sample (e.g. 255 for 8-bit 
+	 * images or 65535 for 16-bit images)
+	 * @param lowest The altitude (in meters) of a sample of 0
+	 * @param highest The altitude (in meters) of a sample of 
+	 * <code>maxSample</code>
+	 * @param destination The file to write
+	 * @return A description of the written raster
+	 * @throws IOException Thrown if the file could not be written
+	 */
+	public static Layer writeHeightmap(int[] samples, int w, int h, int maxSample, 
+			double lowest, double highest, File destination) throws IOException{
+		if(samples == null || (long)w * h > samples.length) throw new IllegalArgumentException("There must be "+w+"x"+h+" samples");
+		if(maxSample < 1) throw new IllegalArgumentException("Largest sample must be positive");
+		final double scale = (highest - lowest) / maxSample;
+		Layer layer = new Layer(destination, SampleFormat.FLOAT32, w, h);
+		try(FileChannel out = FileChannel.open(destination.toPath(), 
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+			ByteBuffer row = ByteBuffer.allocate(w * Float.BYTES).order(layer.getByteOrder());
+			for(int r = 0; r < h; r++){
+				row.clear();
+				for(int c = 0; c < w; c++){
+					row.putFloat((float)(lowest + scale * samples[r * w + c]));
+				}
+				row.flip();
+				while(row.hasRemaining()){
+					out.write(row);
+				}
+			}
+		}
+		return layer;
+	}
+	
+	/** a layer that has been memory-mapped, one segment of whole rows at a time */
+	private static final class MappedLayer{
+		private final Layer layer;
+		private final MappedByteBuffer[] segments;
+		private final int rowsPerSegment;
+		private final int width, height, bytesPerSample;
+		private final SampleFormat format;
+		private final double scale, offset;
+		/** column of longitude 0 (in pixels) */
+		private final double zeroColumn;
+		/** box-filtered copies, indexed by the log2 of the stride (made when first needed) */
+		private final AtomicReferenceArray<float[]> filtered = new AtomicReferenceArray<>(31);
+		
+		MappedLayer(Layer layer) throws IOException{
+			this.layer = layer;
+			width = layer.getWidth();
+			height = layer.getHeight();
+			format = layer.getFormat();
+			bytesPerSample = format.getBytesPerSample();
+			scale = layer.getScale();
+			offset = layer.getOffset();
+			zeroColumn = -layer.getWestEdge_degrees() / 360.0 * width;
+			final long rowBytes = (long)width * bytesPerSample;
+			rowsPerSegment = (int)Math.max(1, Math.min(height, MAX_SEGMENT_BYTES / rowBytes));
+			segments = new MappedByteBuffer[(height + rowsPerSegment - 1) / rowsPerSegment];
+			try(FileChannel in = FileChannel.open(layer.getFile().toPath(), StandardOpenOption.READ)){
+				if(in.size() < layer.getHeaderBytes() + rowBytes * height){
+					throw new IOException(layer + " is smaller than " + width + "x" + height + " samples");
+				}
+				for(int s = 0; s < segments.length; s++){
+					int rows = Math.min(rowsPerSegment, height - s * rowsPerSegment);
+					segments[s] = in.map(FileChannel.MapMode.READ_ONLY, 
+							layer.getHeaderBytes() + rowBytes * s * rowsPerSegment, rowBytes * rows);
+					segments[s].order(layer.getByteOrder());
+				}
+			}
+			// the mappings stay valid after the channel is closed
+		}
+		
+		/** value of a pixel, wrapping around in longitude and across the poles */
+		double get(int col, int row){
+			if(row < 0){
+				row = -1 - row;
+				col += width / 2;
+			} else if(row >= height){
+				row = 2 * height - 1 - row;
+				col += width / 2;
+			}
+			row = Math.min(Math.max(row, 0), height - 1);
+			col = Math.floorMod(col, width);
+			int index = ((row % rowsPerSegment) * width + col) * bytesPerSample;
+			MappedByteBuffer data = segments[row / rowsPerSegment];
+			double v;
+			switch(format){
+				case INT16: v = data.getShort(index); break;
+				case UINT16: v = data.getShort(index) & 0xFFFF; break;
+				default: v = data.getFloat(index); break;
+			}
+			return v * scale + offset;
+		}
+		
+		/** pixel step for a precision (in meters) on a planet of a radius */
+		int stride(double precision, double radius){
+			double spacing = Math.PI * radius / height;
+			int s = 1;
+			while(s * 2 <= precision / spacing && s * 8 <= height){
+				s *= 2;
+			}
+			return s;
+		}
+		
+		/** 
+		 * value of a pixel of the box-filtered copy for a stride, wrapping 
+		 * around in longitude and across the poles
+		 */
+		private static double get(float[] f, int fw, int fh, int col, int row){
+			if(row < 0){
+				row = -1 - row;
+				col += fw / 2;
+			} else if(row >= fh){
+				row = 2 * fh - 1 - row;
+				col += fw / 2;
+			}
+			row = Math.min(Math.max(row, 0), fh - 1);
+			col = Math.floorMod(col, fw);
+			return f[row * fw + col];
+		}
+		
+		/** 
+		 * box-filtered copy of this layer for a stride, or null if it would 
+		 * be too large
+		 */
+		private float[] filtered(int stride){
+			if(stride < 2) return null;
+			int level = Integer.numberOfTrailingZeros(stride);
+			float[] f = filtered.get(level);
+			if(f == null && (long)ceilDiv(width, stride) * ceilDiv(height, stride) <= MAX_FILTERED_PIXELS){
+				synchronized(this){
+					f = filtered.get(level);
+					if(f == null){
+						f = boxFilter(stride);
+						filtered.set(level, f);
+					}
+				}
+			}
+			return f;
+		}
+		
+		/** 
+		 * averages the stride x stride blocks of pixels, from the copy for 
+		 * half the stride if there is one (so the raster is only read once)
+		 */
+		private float[] boxFilter(int stride){
+			final int fw = ceilDiv(width, stride), fh = ceilDiv(height, stride);
+			final float[] out = new float[fw * fh];
+			final int half = stride / 2;
+			final float[] finer = (half >= 2) ? filtered(half) : null;
+			if(finer != null){
+				// pixels at the east and south edges may cover fewer pixels of the raster
+				final int hw = ceilDiv(width, half), hh = ceilDiv(height, half);
+				IntStream.range(0, fh).parallel().forEach((int r)->{
+					for(int c = 0; c < fw; c++){
+						double sum = 0, weight = 0;
+						for(int fr = 2 * r; fr < Math.min(2 * r + 2, hh); fr++){
+							for(int fc = 2 * c; fc < Math.min(2 * c + 2, hw); fc++){
+								double w = Math.min(half, height - fr * half) * (double)Math.min(half, width - fc * half);
+								sum += w * finer[fr * hw + fc];
+								weight += w;
+							}
+						}
+						out[r * fw + c] = (float)(sum / weight);
+					}
+				});
+			} else {
+				IntStream.range(0, fh).parallel().forEach((int r)->{
+					double[] sums = new double[fw];
+					int rows = Math.min(stride, height - r * stride);
+					for(int row = r * stride; row < r * stride + rows; row++){
+						for(int col = 0; col < width; col++){
+							sums[col / stride] += get(col, row);
+						}
+					}
+					for(int c = 0; c < fw; c++){
+						int cols = Math.min(stride, width - c * stride);
+						out[r * fw + c] = (float)(sums[c] / ((double)rows * cols));
+					}
+				});
+			}
+			return out;
+		}
+		
+		private static int ceilDiv(int a, int b){
+			return (a + b - 1) / b;
+		}
+		
+		/** 
+		 * bicubic interpolation, or the range of the interpolated pixels if 
+		 * <code>relief</code> is true
+		 */
+		double sample(double x, double y, double z, int stride, boolean relief){
+			double lon = longitudeOf(x, y, z), lat = latitudeOf(x, y, z);
+			final float[] f = filtered(stride);
+			final int fw = ceilDiv(width, stride), fh = ceilDiv(height, stride);
+			// the pixels of a filtered copy are centered on their blocks
+			double shift = (f == null) ? 0.5 : 0.5 * stride;
+			double u = (zeroColumn + lon / (2 * Math.PI) * width - shift) / stride;
+			double v = ((0.5 * Math.PI - lat) / Math.PI * height - shift) / stride;
+			int c0 = (int)Math.floor(u), r0 = (int)Math.floor(v);
+			double tu = u - c0, tv = v - r0;
+			double[] wu = catmullRom(tu), wv = catmullRom(tv);
+			double sum = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+			for(int j = 0; j < 4; j++){
+				int row = r0 + j - 1;
+				double rowSum = 0;
+				for(int i = 0; i < 4; i++){
+					int col = c0 + i - 1;
+					double p = (f == null) ? get(col * stride, row * stride) : get(f, fw, fh, col, row);
+					rowSum += wu[i] * p;
+					min = Math.min(min, p);
+					max = Math.max(max, p);
+				}
+				sum += wv[j] * rowSum;
+			}
+			return relief ? (max - min) : sum;
+		}
+		
+		private static double[] catmullRom(double t){
+			double t2 = t * t, t3 = t2 * t;
+			return new double[]{
+				-0.5 * t3 + t2 - 0.5 * t,
+				1.5 * t3 - 2.5 * t2 + 1,
+				-1.5 * t3 + 2 * t2 + 0.5 * t,
+				0.5 * t3 - 0.5 * t2
+			};
+		}
+	}
+	
+	/**
+	 * Gets the roughness, which is the altitude range of the pixels around 
+	 * this location (at the precision), per 1000 m.
+	 * @param longitude Longitude coordinate of the location of interest
+	 * @param latitude Latitude of the location of interest
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The roughness at this coordinate.
+	 */
+	@Override
+	public double getRoughness(double longitude, double latitude, double precision) {
+		double cosLat = Math.cos(latitude);
+		return getRoughness(Math.sin(longitude)*cosLat, Math.sin(latitude), Math.cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Gets the roughness, which is the altitude range of the pixels around 
+	 * this location (at the precision), per 1000 m.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The roughness at this coordinate.
+	 */
+	@Override
+	public double getRoughness(double x, double y, double z, double precision) {
+		return altitude.sample(x, y, z, altitude.stride(precision, radius), true) / reliefPerRoughness;
+	}
+	/**
+	 * Gets the altitude from the altitude raster.
+	 * @param longitude Longitude coordinate of the location of interest
+	 * @param latitude Latitude of the location of interest
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The altitude at this coordinate.
+	 */
+	@Override
+	public double getAltitude(double longitude, double latitude, double precision) {
+		double cosLat = Math.cos(latitude);
+		return getAltitude(Math.sin(longitude)*cosLat, Math.sin(latitude), Math.cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Gets the altitude from the altitude raster.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The altitude at this coordinate.
+	 */
+	@Override
+	public double getAltitude(double x, double y, double z, double precision) {
+		return altitude.sample(x, y, z, altitude.stride(precision, radius), false);
+	}
+	/**
+	 * Gets the moisture from the moisture raster, or from the hydrology 
+	 * simulation if there is no moisture raster.
+	 * @param longitude Longitude coordinate of the location of interest
+	 * @param latitude Latitude of the location of interest
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The moisture at this coordinate.
+	 */
+	@Override
+	public double getMoisture(double longitude, double latitude, double precision) {
+		double cosLat = Math.cos(latitude);
+		return getMoisture(Math.sin(longitude)*cosLat, Math.sin(latitude), Math.cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Gets the moisture from the moisture raster, or from the hydrology 
+	 * simulation if there is no moisture raster.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The moisture at this coordinate.
+	 */
+	@Override
+	public double getMoisture(double x, double y, double z, double precision) {
+		if(moisture != null){
+			return moisture.sample(x, y, z, moisture.stride(precision, radius), false);
+		}
+		if(hydrology == null){
+			// only while the moisture is being simulated
+			return Double.NaN;
+		}
+		return hydrology.cubicInterpolatePrecipitation(x, y, z);
+	}
+	/**
+	 * Gets the temperature from the temperature raster, or calculates it 
+	 * from the latitude and altitude if there is no temperature raster.
+	 * @param longitude Longitude coordinate of the location of interest
+	 * @param latitude Latitude of the location of interest
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The annual mean temperature (in °C) at this coordinate
+	 */
+	@Override
+	public double getTemperature(double longitude, double latitude, double precision) {
+		double cosLat = Math.cos(latitude);
+		return getTemperature(Math.sin(longitude)*cosLat, Math.sin(latitude), Math.cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Gets the temperature from the temperature raster, or calculates it 
+	 * from the latitude and altitude if there is no temperature raster.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The annual mean temperature (in °C) at this coordinate
+	 */
+	@Override
+	public double getTemperature(double x, double y, double z, double precision) {
+		if(temperature != null){
+			return temperature.sample(x, y, z, temperature.stride(precision, radius), false);
+		}
+		double cosLat = Math.sqrt(x*x + z*z);
+		return equatorialTemperature + polarTemperatureDelta * (1 - cosLat) 
+				+ temperatureDropPerMeter * Math.max(0, getAltitude(x, y, z, precision));
+	}
+	/**
+	 * Gets the size of the planet.
+	 * @return The radius of the planet, in meters;
+	 */
+	@Override
+	public double getRadius() {
+		return radius;
+	}
+	/**
+	 * Gets the distance between the rows of the altitude raster. Requests 
+	 * with a finer precision than this are interpolated.
+	 * @return Grid spacing from north to south, in meters
+	 */
+	public double getResolution(){
+		return Math.PI * radius / altitude.height;
+	}
+	/**
+	 * Gets the description of the altitude raster.
+	 * @return The altitude layer
+	 */
+	public Layer getAltitudeLayer(){
+		return altitude.layer;
+	}
+}
@@ -0,0 +1,196 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration;
+
+/**
+ * Monthly temperature anomalies (the difference between the mean 
+ * temperature of a month and the annual mean temperature) and annual mean 
+ * insolation of a planet with a circular orbit, from a small table of the 
+ * insolation of each latitude band in each month. The table is calculated once, so looking up an 
+ * anomaly costs about as much as a linear interpolation.
+ * <p>
+ * The temperature responds to the insolation anomaly like a body with a 
+ * thermal response time: land heats and cools within about a month, while 
+ * the ocean's mixed layer responds more slowly and lags the sun by two or 
+ * three months, so the seasons of the ocean are both weaker and later. The 
+ * bands are evenly spaced in sin(latitude), so that they have equal areas 
+ * and can be found from the y component of a unit vector without any 
+ * trigonometry.
+ * </p>
+ * @author CCHall
+ */
+final class SeasonalCycle {
+	/** number of latitude bands in the table */
+	private static final int NUM_BANDS = 180;
+	/** insolation samples per month */
+	private static final int SAMPLES_PER_MONTH = 8;
+	/** time of the northern spring equinox, as a fraction of a year after the start of January */
+	private static final double SPRING_EQUINOX = 79.0 / 365.0;
+	/** temperature change (in C) per W/m^2 of sustained insolation anomaly */
+	private static final double SEASONAL_SENSITIVITY = 0.09;
+	/** response time of land temperature, in years */
+	private static final double LAND_RESPONSE_TIME = 0.08;
+	/** response time of ocean (mixed layer) temperature, in years */
+	private static final double OCEAN_RESPONSE_TIME = 0.4;
+	
+	/** land anomaly [month][band edge] */
+	private final double[][] landAnomaly;
+	/** ocean anomaly [month][band edge] */
+	private final double[][] oceanAnomaly;
+	/** annual mean insolation (in W/m^2) [band edge] */
+	private final double[] annualInsolation;
+	
+	/**
+	 * Calculates the table for a planet.
+	 * @param axialTilt Tilt of the planet's axis (obliquity), in radians
+	 * @param solarFlux Solar intensity at the top of the atmosphere, in W/m^2
+	 */
+	SeasonalCycle(double axialTilt, double solarFlux){
+		landAnomaly = new double[PlanetChannel.MONTHS_PER_YEAR][NUM_BANDS + 1];
+		oceanAnomaly = new double[PlanetChannel.MONTHS_PER_YEAR][NUM_BANDS + 1];
+		annualInsolation = new double[NUM_BANDS + 1];
+		final double sinTilt = Math.sin(axialTilt);
+		// declination of the sun at each sample time
+		final int numSamples = PlanetChannel.MONTHS_PER_YEAR * SAMPLES_PER_MONTH;
+		double[] sinDeclination = new double[numSamples];
+		for(int t = 0; t < numSamples; t++){
+			double solarLongitude = 2 * Math.PI * ((t + 0.5) / numSamples - SPRING_EQUINOX);
+			sinDeclination[t] = sinTilt * Math.sin(solarLongitude);
+		}
+		double[] q = new double[PlanetChannel.MONTHS_PER_YEAR];
+		for(int b = 0; b <= NUM_BANDS; b++){
+			double sinLat = 2.0 * b / NUM_BANDS - 1;
+			double mean = 0;
+			for(int m = 0; m < PlanetChannel.MONTHS_PER_YEAR; m++){
+				double sum = 0;
+				for(int k = 0; k < SAMPLES_PER_MONTH; k++){
+					sum += dailyInsolation(solarFlux, sinLat, sinDeclination[m * SAMPLES_PER_MONTH + k]);
+				}
+				q[m] = sum / SAMPLES_PER_MONTH;
+				mean += q[m] / PlanetChannel.MONTHS_PER_YEAR;
+			}
+			annualInsolation[b] = mean;
+			for(int m = 0; m < PlanetChannel.MONTHS_PER_YEAR; m++){
+				q[m] -= mean;
+			}
+			respond(q, LAND_RESPONSE_TIME, landAnomaly, b);
+			respond(q, OCEAN_RESPONSE_TIME, oceanAnomaly, b);
+		}
+	}
+	
+	/**
+	 * Mean insolation over a day (in W/m^2) at the top of the atmosphere.
+	 * @param solarFlux Solar intensity, in W/m^2
+	 * @param sinLat sin(latitude)
+	 * @param sinDec sin(declination of the sun)
+	 * @return The daily mean insolation
+	 */
+	static double dailyInsolation(double solarFlux, double sinLat, double sinDec){
+		double cosLat = Math.sqrt(Math.max(0, 1 - sinLat * sinLat));
+		double cosDec = Math.sqrt(Math.max(0, 1 - sinDec * sinDec));
+		double a = sinLat * sinDec, c = cosLat * cosDec;
+		// hour angle of sunset
+		double h0;
+		if(a >= c){
+			h0 = Math.PI; // midnight sun
+		} else if(a <= -c){
+			h0 = 0; // polar night
+		} else {
+			h0 = Math.acos(-a / c);
+		}
+		return solarFlux / Math.PI * (h0 * a + c * Math.sin(h0));
+	}
+	
+	/** 
+	 * periodic response of a first-order system with the given response time 
+	 * to the monthly insolation anomalies, solved one harmonic at a time (each 
+	 * harmonic is damped and delayed by sensitivity/(1 + i*omega*tau))
+	 */
+	private static void respond(double[] q, double responseTime, double[][] table, int band){
+		final int n = q.length;
+		for(int m = 0; m < n; m++){
+			table[m][band] = 0;
+		}
+		for(int k = 1; k <= n / 2; k++){
+			double a = 0, b = 0;
+			for(int m = 0; m < n; m++){
+				double theta = 2 * Math.PI * k * m / n;
+				a += q[m] * Math.cos(theta);
+				b += q[m] * Math.sin(theta);
+			}
+			double norm = (2 * k == n) ? 1.0 / n : 2.0 / n;
+			a *= norm;
+			b *= norm;
+			// gain of this harmonic: sensitivity / (1 + i*wt)
+			double wt = 2 * Math.PI * k * responseTime;
+			double gr = SEASONAL_SENSITIVITY / (1 + wt * wt), gi = -SEASONAL_SENSITIVITY * wt / (1 + wt * wt);
+			// (a - ib)(gr + i*gi) 
+			double ra = a * gr + b * gi, rb = b * gr - a * gi;
+			for(int m = 0; m < n; m++){
+				double theta = 2 * Math.PI * k * m / n;
+				table[m][band] += ra * Math.cos(theta) + rb * Math.sin(theta);
+			}
+		}
+	}
+	
+	/**
+	 * Gets the temperature anomaly of a month.
+	 * @param month Month, from 0 (January) to 11 (December)
+	 * @param sinLatitude sin(latitude), which is the y component of a unit 
+	 * vector
+	 * @param landWeight How much the location behaves like land rather than 
+	 * ocean, from 0 (open ocean) to 1 (the interior of a continent)
+	 * @return The difference (in C) between the mean temperature of the month 
+	 * and the annual mean temperature
+	 */
+	double getAnomaly(int month, double sinLatitude, double landWeight){
+		double f = (sinLatitude + 1) * 0.5 * NUM_BANDS;
+		int b = Math.max(0, Math.min(NUM_BANDS - 1, (int)f));
+		double w = f - b;
+		double[] land = landAnomaly[month], ocean = oceanAnomaly[month];
+		double l = land[b] + w * (land[b+1] - land[b]);
+		double o = ocean[b] + w * (ocean[b+1] - ocean[b]);
+		return o + landWeight * (l - o);
+	}
+	
+	/**
+	 * Gets the annual mean insolation at the top of the atmosphere.
+	 * @param sinLatitude sin(latitude), which is the y component of a unit 
+	 * vector
+	 * @return The insolation, in W/m^2
+	 */
+	double getAnnualInsolation(double sinLatitude){
+		double f = (sinLatitude + 1) * 0.5 * NUM_BANDS;
+		int b = Math.max(0, Math.min(NUM_BANDS - 1, (int)f));
+		double w = f - b;
+		return annualInsolation[b] + w * (annualInsolation[b+1] - annualInsolation[b]);
+	}
+}
@@ -0,0 +1,429 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration;
+
+import hall.collin.christopher.worldgeneration.math.FibonacciSphere;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Scans many seeds for planets that meet a set of requirements (ocean 
+ * fraction, number of land masses, mean temperature) without creating the 
+ * planets. Each seed is tested in two stages:
+ * <ol>
+ * <li>Coarse: only the continent noise (or the altitude noise for a 
+ * SimpleRandomPlanet) is sampled on a few hundred equal-area points. Seeds 
+ * whose ocean fraction is clearly out of range are rejected here. The 
+ * acceptance window is widened by three standard errors of the estimate 
+ * plus a small allowance for the difference between the continent noise and 
+ * the final altitude, so good seeds are very rarely rejected.</li>
+ * <li>Fine: altitude (and then temperature, if needed) is sampled on a few 
+ * thousand equal-area points, and the land masses are counted by joining 
+ * neighboring land points. For a TectonicHydrologyPlanet, the altitude is 
+ * estimated without the tectonic plates and the temperature without the 
+ * distance to the coast (either would take longer to build than the rest 
+ * of the test), so the ocean fraction can be off by a few tenths of a 
+ * percent and the mean temperature by a few tenths of a degree.</li>
+ * </ol>
+ * No hydrology mesh is built, so the reported ocean fraction is an estimate 
+ * of the fraction of the surface below sea level. Note that 
+ * <code>TectonicHydrologyPlanet.percentOcean()</code> does not count the 
+ * coastal ocean nodes of its mesh, so it reads several percent lower than 
+ * this estimate. Seeds are tested in parallel, in blocks, so the matches 
+ * that are kept when a search stops early are always the first ones in 
+ * seed order.
+ * @author CCHall
+ */
+public class SeedSearch {
+	/** Default number of points for the coarse stage */
+	public static final int DEFAULT_COARSE_SAMPLES = 400;
+	/** Default number of points for the fine stage */
+	public static final int DEFAULT_FINE_SAMPLES = 3000;
+	/** allowance for the difference between the coarse land test and the real altitude */
+	private static final double COARSE_BIAS_ALLOWANCE = 0.03;
+	/** 
+	 * number of seeds tested in parallel before the matches are counted, 
+	 * which doubles after each block up to MAX_BLOCK_SIZE (at most one block 
+	 * is tested beyond the last match that is kept)
+	 */
+	private static final int MIN_BLOCK_SIZE = 8;
+	/** largest number of seeds tested in parallel before the matches are counted */
+	private static final int MAX_BLOCK_SIZE = 256;
+	
+	/** Tests whether a point is land in the coarse stage */
+	private static interface CoarseLandTest{
+		boolean isLand(AbstractPlanet planet, double x, double y, double z, double precision);
+	}
+	/** Samples a value at a point in the fine stage */
+	private static interface FineSampler{
+		double sample(AbstractPlanet planet, double x, double y, double z, double precision);
+	}
+	
+	private final Function<String, AbstractPlanet> planetFactory;
+	private final CoarseLandTest coarseLandTest;
+	private final FineSampler fineAltitude;
+	private final FineSampler fineTemperature;
+	
+	private double minOceanFraction = 0;
+	private double maxOceanFraction = 1;
+	private int minLandMasses = 0;
+	private int maxLandMasses = Integer.MAX_VALUE;
+	private double minMeanTemperature = Double.NEGATIVE_INFINITY;
+	private double maxMeanTemperature = Double.POSITIVE_INFINITY;
+	private double minLandMassFraction = 0.001;
+	private int coarseSamples = DEFAULT_COARSE_SAMPLES;
+	private int fineSamples = DEFAULT_FINE_SAMPLES;
+	
+	private SeedSearch(Function<String, AbstractPlanet> planetFactory, CoarseLandTest coarseLandTest, 
+			FineSampler fineAltitude, FineSampler fineTemperature){
+		this.planetFactory = planetFactory;
+		this.coarseLandTest = coarseLandTest;
+		this.fineAltitude = fineAltitude;
+		this.fineTemperature = fineTemperature;
+	}
+	/**
+	 * Creates a seed search for TectonicHydrologyPlanets.
+	 * @param parameters The physical properties of the planets
+	 * @return A new seed search with no requirements set
+	 */
+	public static SeedSearch forTectonicHydrologyPlanet(TectonicHydrologyPlanet.Parameters parameters){
+		if(parameters == null) throw new IllegalArgumentException("Parameters cannot be null");
+		return new SeedSearch((String seed)->new TectonicHydrologyPlanet(seed, parameters), 
+				(AbstractPlanet p, double x, double y, double z, double precision)->
+						((TectonicHydrologyPlanet)p).getContinent(x, y, z, precision) > 0, 
+				(AbstractPlanet p, double x, double y, double z, double precision)->
+						((TectonicHydrologyPlanet)p).getEstimatedAltitude(x, y, z, precision), 
+				(AbstractPlanet p, double x, double y, double z, double precision)->
+						((TectonicHydrologyPlanet)p).getEstimatedTemperature(x, y, z, precision));
+	}
+	/**
+	 * Creates a seed search for SimpleRandomPlanets.
+	 * @return A new seed search with no requirements set
+	 */
+	public static SeedSearch forSimpleRandomPlanet(){
+		return new SeedSearch((String seed)->new SimpleRandomPlanet(seed), 
+				(AbstractPlanet p, double x, double y, double z, double precision)->
+						p.getAltitude(x, y, z, precision) > 0, 
+				(AbstractPlanet p, double x, double y, double z, double precision)->
+						p.getAltitude(x, y, z, precision), 
+				(AbstractPlanet p, double x, double y, double z, double precision)->
+						p.getTemperature(x, y, z, precision));
+	}
+	
+	/**
+	 * Sets the allowed fraction of the surface that is below sea level.
+	 * @param min Minimum ocean fraction (0 to 1)
+	 * @param max Maximum ocean fraction (0 to 1)
+	 * @return This object
+	 */
+	public SeedSearch setOceanFraction(double min, double max){
+		if(!(min >= 0 && max <= 1 && min <= max)) throw new IllegalArgumentException("Ocean fraction range must be within 0 to 1");
+		this.minOceanFraction = min;
+		this.maxOceanFraction = max;
+		return this;
+	}
+	/**
+	 * Sets the allowed number of land masses (continents and large islands).
+	 * @param min Minimum number of land masses
+	 * @param max Maximum number of land masses
+	 * @return This object
+	 */
+	public SeedSearch setLandMassCount(int min, int max){
+		if(min < 0 || max < min) throw new IllegalArgumentException("Invalid land mass range "+min+" to "+max);
+		this.minLandMasses = min;
+		this.maxLandMasses = max;
+		return this;
+	}
+	/**
+	 * Sets the smallest land mass that is counted, as a fraction of the 
+	 * planet's surface (default is 0.001). Smaller islands are ignored.
+	 * @param fraction Minimum area of a land mass, as a fraction of the 
+	 * surface area
+	 * @return This object
+	 */
+	public SeedSearch setMinimumLandMassSize(double fraction){
+		if(!(fraction >= 0 && fraction < 1)) throw new IllegalArgumentException("Land mass size must be from 0 to 1");
+		this.minLandMassFraction = fraction;
+		return this;
+	}
+	/**
+	 * Sets the allowed range of the global (area-weighted) mean surface 
+	 * temperature.
+	 * @param min Minimum mean temperature, in °C
+	 * @param max Maximum mean temperature, in °C
+	 * @return This object
+	 */
+	public SeedSearch setMeanTemperature(double min, double max){
+		if(!(min <= max)) throw new IllegalArgumentException("Invalid temperature range "+min+" to "+max);
+		this.minMeanTemperature = min;
+		this.maxMeanTemperature = max;
+		return this;
+	}
+	/**
+	 * Sets the number of equal-area points used by each stage. More points 
+	 * give more accurate results but make the search slower.
+	 * @param coarse Points for the coarse (rejection) stage
+	 * @param fine Points for the fine stage
+	 * @return This object
+	 */
+	public SeedSearch setSampleCounts(int coarse, int fine){
+		if(coarse < 1 || fine < 1) throw new IllegalArgumentException("Sample counts must be at least 1");
+		this.coarseSamples = coarse;
+		this.fineSamples = fine;
+		return this;
+	}
+	
+	/**
+	 * Tests the seeds "first", "first+1", ... "first+count-1" (as decimal 
+	 * strings).
+	 * @param firstSeed The first seed to test
+	 * @param count Number of seeds to test
+	 * @param maxMatches Stop once this many matches have been found
+	 * @param progressTracker Tracker for progress. Increments will be added 
+	 * to this object such that a complete search will sum to 1.0. This 
+	 * parameter can be null.
+	 * @return The matching seeds and search statistics
+	 */
+	public Report search(long firstSeed, int count, int maxMatches, DoubleAdder progressTracker){
+		List<String> seeds = new ArrayList<>(count);
+		for(int i = 0; i < count; i++){
+			seeds.add(Long.toString(firstSeed + i));
+		}
+		return search(seeds, maxMatches, progressTracker);
+	}
+	/**
+	 * Tests a list of seeds.
+	 * @param seeds The seeds to test
+	 * @param maxMatches Stop once this many matches have been found (the 
+	 * first <code>maxMatches</code> matches in the order of 
+	 * <code>seeds</code> are returned)
+	 * @param progressTracker Tracker for progress. Increments will be added 
+	 * to this object such that a complete search will sum to 1.0. This 
+	 * parameter can be null.
+	 * @return The matching seeds (in the same order as <code>seeds</code>) 
+	 * and search statistics (counting the seeds up to the last one that was 
+	 * needed)
+	 */
+	public Report search(List<String> seeds, int maxMatches, DoubleAdder progressTracker){
+		final long startTime = System.nanoTime();
+		final FibonacciSphere coarsePoints = new FibonacciSphere(coarseSamples);
+		final FibonacciSphere finePoints = new FibonacciSphere(fineSamples);
+		final int n = seeds.size();
+		final double progressPerSeed = 1.0 / Math.max(1, n);
+		final Match[] results = new Match[Math.min(n, MAX_BLOCK_SIZE)];
+		final boolean[] coarseRejected = new boolean[results.length];
+		List<Match> matches = new ArrayList<>();
+		long tested = 0, coarseRejects = 0, fineRejects = 0;
+		int start = 0;
+		int nextBlockSize = MIN_BLOCK_SIZE;
+		while(start < n && matches.size() < maxMatches){
+			final int blockStart = start;
+			final int blockSize = Math.min(nextBlockSize, n - start);
+			IntStream.range(0, blockSize).parallel().forEach((int b)->{
+				int i = blockStart + b;
+				String seed = seeds.get(i);
+				AbstractPlanet planet = planetFactory.apply(seed);
+				coarseRejected[b] = !passesCoarseStage(planet, coarsePoints);
+				results[b] = coarseRejected[b] ? null : fineStage(seed, i, planet, finePoints, true);
+				if(progressTracker != null) progressTracker.add(progressPerSeed);
+			});
+			// counted in seed order, so the result does not depend on the thread scheduling
+			for(int b = 0; b < blockSize && matches.size() < maxMatches; b++){
+				tested++;
+				if(coarseRejected[b]){
+					coarseRejects++;
+				} else if(results[b] == null){
+					fineRejects++;
+				} else {
+					matches.add(results[b]);
+				}
+			}
+			start += blockSize;
+			nextBlockSize = Math.min(2 * nextBlockSize, MAX_BLOCK_SIZE);
+		}
+		// seeds that were skipped after the last match
+		if(start < n && progressTracker != null) progressTracker.add((n - start) * progressPerSeed);
+		return new Report(matches, tested, coarseRejects, fineRejects, 
+				(System.nanoTime() - startTime) * 1e-9);
+	}
+	/**
+	 * Measures a single seed with the fine stage, whether or not it meets the 
+	 * requirements.
+	 * @param seed The seed to measure
+	 * @return The estimated properties of the planet
+	 */
+	public Match evaluate(String seed){
+		return fineStage(seed, 0, planetFactory.apply(seed), new FibonacciSphere(fineSamples), false);
+	}
+	
+	private boolean passesCoarseStage(AbstractPlanet planet, FibonacciSphere points){
+		final int n = points.size();
+		final double precision = points.getSpacing() * planet.getRadius();
+		int land = 0;
+		for(int i = 0; i < n; i++){
+			if(coarseLandTest.isLand(planet, points.getX(i), points.getY(i), points.getZ(i), precision)) land++;
+		}
+		double ocean = 1.0 - (double)land / n;
+		double margin = 3 * Math.sqrt(0.25 / n) + COARSE_BIAS_ALLOWANCE;
+		return ocean >= minOceanFraction - margin && ocean <= maxOceanFraction + margin;
+	}
+	
+	/** returns null if rejected (only when reject == true) */
+	private Match fineStage(String seed, int order, AbstractPlanet planet, FibonacciSphere points, boolean reject){
+		final int n = points.size();
+		final double precision = points.getSpacing() * planet.getRadius();
+		boolean[] isLand = new boolean[n];
+		int land = 0;
+		for(int i = 0; i < n; i++){
+			isLand[i] = fineAltitude.sample(planet, points.getX(i), points.getY(i), points.getZ(i), precision) > 0;
+			if(isLand[i]) land++;
+		}
+		double ocean = 1.0 - (double)land / n;
+		if(reject && (ocean < minOceanFraction || ocean > maxOceanFraction)) return null;
+		int landMasses = countLandMasses(isLand, points);
+		if(reject && (landMasses < minLandMasses || landMasses > maxLandMasses)) return null;
+		double sum = 0;
+		for(int i = 0; i < n; i++){
+			sum += fineTemperature.sample(planet, points.getX(i), points.getY(i), points.getZ(i), precision);
+		}
+		double meanTemperature = sum / n;
+		if(reject && (meanTemperature < minMeanTemperature || meanTemperature > maxMeanTemperature)) return null;
+		return new Match(seed, order, ocean, landMasses, meanTemperature);
+	}
+	
+	/** connected components of land points (union-find) */
+	private int countLandMasses(boolean[] isLand, FibonacciSphere points){
+		final int n = points.size();
+		final int[] parent = new int[n];
+		for(int i = 0; i < n; i++) parent[i] = i;
+		// 1.5x the typical spacing connects every point to its nearest neighbors
+		final double linkAngle = 1.5 * points.getSpacing();
+		for(int i = 0; i < n; i++){
+			if(!isLand[i]) continue;
+			final int a = i;
+			points.forEachNeighbor(i, linkAngle, (int j)->{
+				if(j > a && isLand[j]){
+					int ra = find(parent, a), rb = find(parent, j);
+					if(ra != rb) parent[Math.max(ra, rb)] = Math.min(ra, rb);
+				}
+			});
+		}
+		int[] size = new int[n];
+		for(int i = 0; i < n; i++){
+			if(isLand[i]) size[find(parent, i)]++;
+		}
+		int minSize = Math.max(1, (int)Math.ceil(minLandMassFraction * n));
+		int count = 0;
+		for(int i = 0; i < n; i++){
+			if(size[i] >= minSize) count++;
+		}
+		return count;
+	}
+	private static int find(int[] parent, int i){
+		while(parent[i] != i){
+			parent[i] = parent[parent[i]]; // path halving
+			i = parent[i];
+		}
+		return i;
+	}
+	
+	/**
+	 * The estimated properties of a seed's planet.
+	 */
+	public static final class Match{
+		private final String seed;
+		private final int order;
+		private final double oceanFraction;
+		private final int landMassCount;
+		private final double meanTemperature;
+		
+		Match(String seed, int order, double oceanFraction, int landMassCount, double meanTemperature){
+			this.seed = seed;
+			this.order = order;
+			this.oceanFraction = oceanFraction;
+			this.landMassCount = landMassCount;
+			this.meanTemperature = meanTemperature;
+		}
+		/** @return The seed */
+		public String getSeed(){return seed;}
+		/** @return Estimated fraction of the surface below sea level (0 to 1) */
+		public double getOceanFraction(){return oceanFraction;}
+		/** @return Estimated number of land masses */
+		public int getLandMassCount(){return landMassCount;}
+		/** @return Estimated global mean surface temperature, in °C */
+		public double getMeanTemperature(){return meanTemperature;}
+		@Override
+		public String toString(){
+			return String.format("%s: %.1f%% ocean, %d land masses, %.1f C mean temperature", 
+					seed, 100 * oceanFraction, landMassCount, meanTemperature);
+		}
+	}
+	
+	/**
+	 * The result of a seed search.
+	 */
+	public static final class Report{
+		private final List<Match> matches;
+		private final long seedsTested;
+		private final long coarseRejections;
+		private final long fineRejections;
+		private final double elapsedSeconds;
+		
+		Report(List<Match> matches, long seedsTested, long coarseRejections, long fineRejections, double elapsedSeconds){
+			this.matches = Collections.unmodifiableList(matches);
+			this.seedsTested = seedsTested;
+			this.coarseRejections = coarseRejections;
+			this.fineRejections = fineRejections;
+			this.elapsedSeconds = elapsedSeconds;
+		}
+		/** @return The seeds that met all requirements */
+		public List<Match> getMatches(){return matches;}
+		/** @return Number of seeds that were tested */
+		public long getSeedsTested(){return seedsTested;}
+		/** @return Number of seeds rejected by the coarse stage */
+		public long getCoarseRejections(){return coarseRejections;}
+		/** @return Number of seeds rejected by the fine stage */
+		public long getFineRejections(){return fineRejections;}
+		/** @return Duration of the search, in seconds */
+		public double getElapsedSeconds(){return elapsedSeconds;}
+		/** @return Number of seeds tested per second */
+		public double getSeedsPerSecond(){return seedsTested / Math.max(elapsedSeconds, 1e-9);}
+		@Override
+		public String toString(){
+			return String.format("Tested %d seeds in %.2f s (%.1f seeds/s): %d rejected by coarse stage, %d by fine stage, %d matches", 
+					seedsTested, elapsedSeconds, getSeedsPerSecond(), coarseRejections, fineRejections, matches.size());
+		}
+	}
+}
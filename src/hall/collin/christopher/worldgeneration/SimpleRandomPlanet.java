@@ -36,8 +36,6 @@ import hall.collin.christopher.worldgeneration.math.DefaultRandomNumberGenerator
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
@@ -63,6 +61,8 @@ public class SimpleRandomPlanet extends AbstractPlanet{
 //	final PlanetaryScaling3DCoordinateNoiseGenerator rainfallNoise2;
 	/** radius of the planet, in meters */
 	final double radius = 6000000;
+	/** channel dependencies (see getChannelGraph()) */
+	private final ChannelGraph channelGraph = createChannelGraph();
 	/** Altitude above which is alpine tundra, in meters */
 	final double treeline = 2000;
 	/** Precision of the lowest noise frequency, in meters */
@@ -146,8 +146,6 @@ public class SimpleRandomPlanet extends AbstractPlanet{
 		
 		final StandardBiomeFactory biomeFactory = new StandardBiomeFactory();
 		
-		final Map<Integer,Integer> moistureHistogram = java.util.Collections.synchronizedMap(new HashMap<Integer,Integer>());
-		
 		
 		int size = 300;
 		int legendWidth = 150;
@@ -177,34 +175,18 @@ public Object call() { // paralellization
 				double lon = ((double)x/(double)width)*2*Math.PI;
 				heightMap[x][height - row - 1] = planet.getAltitude(lon, lat, precision);
 				img.setRGB(x, row, pp.getColor(planet, lon, lat, precision, x, row));
-				// stats
-				double m = planet.getMoisture(lon, lat, precision);
-				int binsize = 25;
-				int bin = (int)(m / binsize)*binsize;
-				if(moistureHistogram.containsKey(bin) == false){
-					moistureHistogram.put(bin, 0);
-				}
-				moistureHistogram.put(bin, moistureHistogram.get(bin)+1);
 			}
 return null;}}); // paralellization
 		}
 processor.invokeAll(tasks); // paralellization
 		
-		// stats
-		Integer[] bins = moistureHistogram.keySet().toArray(new Integer[0]);
-		Arrays.sort(bins);
+		// stats (equal-area samples, so not biased towards the poles)
+		PlanetStatistics stats = PlanetStatistics.measure(planet, biomeFactory);
+		System.out.println(stats);
+		int binsize = 25;
 		System.out.println("Moisture histogram (precipitation, number points)");
-		for(int i = 0; i < bins.length; i++){
-			System.out.print(bins[i]);
-			if(i < bins.length - 1){
-				System.out.print("-");
-				System.out.print(bins[i+1]);
-			} else {
-				System.out.print("+");
-			}
-			System.out.print("\t");
-			System.out.print(moistureHistogram.get(bins[i]));
-			System.out.println();
+		for(Map.Entry<Double,Long> bin : stats.getHistogram(PlanetStatistics.Channel.MOISTURE, binsize).entrySet()){
+			System.out.println(bin.getKey().intValue()+"-"+(bin.getKey().intValue()+binsize)+"\t"+bin.getValue());
 		}
 
 		java.awt.Graphics2D brush = background.createGraphics();
@@ -316,7 +298,26 @@ processor.invokeAll(tasks); // paralellization
 	 */
 	@Override
 	public double getRoughness(double longitude, double latitude, double precision) {
-		double h = getAltitude(longitude, latitude, precision) - 300;
+		double cosLat = cos(latitude);
+		return getRoughness(sin(longitude)*cosLat, sin(latitude), cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Calculates the roughness at the location pointed to by a unit vector 
+	 * from the center of the planet.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return Returns a value from 0 to infinity at this coordinate, with a 
+	 * value greater than 1 meaning mountains.
+	 */
+	@Override
+	public double getRoughness(double x, double y, double z, double precision) {
+		return roughnessFrom(getAltitude(x, y, z, precision));
+	}
+	/** roughness from an already calculated altitude */
+	private double roughnessFrom(double altitude) {
+		double h = altitude - 300;
 		if(h < 0) return 0;
 		return Math.sqrt(h)/32.0;
 	}
@@ -337,10 +338,24 @@ processor.invokeAll(tasks); // paralellization
 	 */
 	@Override
 	public double getAltitude(double longitude, double latitude, double precision) {
-		double x = radius * sin(longitude)*Math.cos(latitude);
-		double y = radius * sin(latitude);
-		double z = radius * cos(longitude)*Math.cos(latitude);
-		double h = altitudeAverage + altitudeNoise.getValue(x, y, z, precision) * altitudeNoise2.getValue(x, y, z, precision);
+		double cosLat = cos(latitude);
+		return getAltitude(sin(longitude)*cosLat, sin(latitude), cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Calculates the altitude at the location pointed to by a unit vector 
+	 * from the center of the planet.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The altitude at this coordinate.
+	 */
+	@Override
+	public double getAltitude(double x, double y, double z, double precision) {
+		double px = radius * x;
+		double py = radius * y;
+		double pz = radius * z;
+		double h = altitudeAverage + altitudeNoise.getValue(px, py, pz, precision) * altitudeNoise2.getValue(px, py, pz, precision);
 		return h;
 	}
 
@@ -361,11 +376,26 @@ processor.invokeAll(tasks); // paralellization
 	 */
 	@Override
 	public double getMoisture(double longitude, double latitude, double precision) {
-		double x = radius * sin(longitude)*Math.cos(latitude);
-		double y = radius * sin(latitude);
-		double z = radius * cos(longitude)*Math.cos(latitude);
-		double rainNoise =  rainfallNoise1.getValue(x, y, z, precision);
-		double h = altitudeAverage + altitudeNoise.getValue(x, y, z, precision) * altitudeNoise2.getValue(x, y, z, precision);
+		double cosLat = cos(latitude);
+		return getMoisture(sin(longitude)*cosLat, sin(latitude), cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Calculates the water availability at the location pointed to by a unit 
+	 * vector from the center of the planet.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The moisture availability at this coordinate, roughly measured in 
+	 * annual mean precipitation minus evaporation (in cm).
+	 */
+	@Override
+	public double getMoisture(double x, double y, double z, double precision) {
+		return moistureFrom(x, y, z, precision, getAltitude(x, y, z, precision));
+	}
+	/** moisture from an already calculated altitude */
+	private double moistureFrom(double x, double y, double z, double precision, double h) {
+		double rainNoise =  rainfallNoise1.getValue(radius * x, radius * y, radius * z, precision);
 	//	double m = moistureAverage + moistureRange * Math.signum(rainNoise)*Math.sqrt(Math.abs(rainNoise));
 		double m = moistureAverage + moistureRange * rainNoise + moistureChangerPerMeterAltitude * h;
 		return m;
@@ -385,14 +415,52 @@ processor.invokeAll(tasks); // paralellization
 	 */
 	@Override
 	public double getTemperature(double longitude, double latitude, double precision) {
-		double x = radius * sin(longitude)*Math.cos(latitude);
-		double y = radius * sin(latitude);
-		double z = radius * cos(longitude)*Math.cos(latitude);
-		double h = altitudeAverage + altitudeNoise.getValue(x, y, z, precision) * altitudeNoise2.getValue(x, y, z, precision);
-		double t = polarTemperature + temperatureNoise.getValue(x, y, z, precision)
-				+ (equatorialTemperature - polarTemperature) * cos(latitude) + temperatureDropPerMeter * h;
+		double cosLat = cos(latitude);
+		return getTemperature(sin(longitude)*cosLat, sin(latitude), cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Calculates the temperature at the location pointed to by a unit vector 
+	 * from the center of the planet.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The annual mean temperature (in °C) at this coordinate
+	 */
+	@Override
+	public double getTemperature(double x, double y, double z, double precision) {
+		return temperatureFrom(x, y, z, precision, getAltitude(x, y, z, precision));
+	}
+	/** temperature from an already calculated altitude */
+	private double temperatureFrom(double x, double y, double z, double precision, double h) {
+		double cosLat = Math.sqrt(x*x + z*z); // cos(latitude) of a unit vector
+		double t = polarTemperature + temperatureNoise.getValue(radius * x, radius * y, radius * z, precision)
+				+ (equatorialTemperature - polarTemperature) * cosLat + temperatureDropPerMeter * h;
 		return t;
 	}
+	/**
+	 * Gets the channel graph of this planet, in which roughness, moisture and 
+	 * temperature are calculated from altitude, so that sampling all channels 
+	 * at a location calculates the altitude once.
+	 * @return The channel graph of this planet
+	 */
+	@Override
+	public ChannelGraph getChannelGraph(){
+		return channelGraph;
+	}
+	
+	private ChannelGraph createChannelGraph(){
+		return ChannelGraph.DEFAULT
+				.define(PlanetChannel.ALTITUDE, (ChannelSample s)->getAltitude(s.getX(), s.getY(), s.getZ(), s.getPrecision()))
+				.define(PlanetChannel.ROUGHNESS, (ChannelSample s)->roughnessFrom(s.get(PlanetChannel.ALTITUDE)), 
+						PlanetChannel.ALTITUDE)
+				.define(PlanetChannel.MOISTURE, (ChannelSample s)->moistureFrom(s.getX(), s.getY(), s.getZ(), s.getPrecision(), 
+						s.get(PlanetChannel.ALTITUDE)), 
+						PlanetChannel.ALTITUDE)
+				.define(PlanetChannel.TEMPERATURE, (ChannelSample s)->temperatureFrom(s.getX(), s.getY(), s.getZ(), s.getPrecision(), 
+						s.get(PlanetChannel.ALTITUDE)), 
+						PlanetChannel.ALTITUDE);
+	}
 /**
  * Gets the planet's radius.
  * @return The radius in meters.
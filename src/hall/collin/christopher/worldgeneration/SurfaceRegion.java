@@ -0,0 +1,190 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A connected land mass (continent or island) or body of water (ocean or 
+ * sea) of a planet, found by labelling the connected land and water nodes of 
+ * the hydrology mesh (see <code>TectonicHydrologyPlanet.getRegions()</code>). 
+ * Each node stands for an equal share of the planet's surface, so the areas 
+ * are accurate to about the size of one mesh cell (roughly 50,000 km^2 on 
+ * an Earth-sized planet). Instances are immutable.
+ * @author CCHall
+ */
+public final class SurfaceRegion {
+	private final int index;
+	private final boolean land;
+	private final int numNodes;
+	private final double area;
+	private final double centroidLongitude;
+	private final double centroidLatitude;
+	private final double capRadius;
+	
+	private SurfaceRegion(int index, boolean land, int numNodes, double area, 
+			double centroidLongitude, double centroidLatitude, double capRadius){
+		this.index = index;
+		this.land = land;
+		this.numNodes = numNodes;
+		this.area = area;
+		this.centroidLongitude = centroidLongitude;
+		this.centroidLatitude = centroidLatitude;
+		this.capRadius = capRadius;
+	}
+	
+	/**
+	 * Measures the connected components of a grid.
+	 * @param grid The grid
+	 * @param component Component of each node (from 
+	 * <code>GeodesicGrid.labelComponents(...)</code>)
+	 * @param isLand Whether each node is land
+	 * @param radius Radius of the planet, in meters
+	 * @param order Filled with the index (in the returned list) of each 
+	 * component
+	 * @return The regions, largest first
+	 */
+	static List<SurfaceRegion> measure(GeodesicGrid grid, int[] component, boolean[] isLand, double radius, int[] order){
+		final int n = grid.getNumberNodes();
+		final int numComponents = order.length;
+		int[] count = new int[numComponents];
+		boolean[] land = new boolean[numComponents];
+		double[] sx = new double[numComponents], sy = new double[numComponents], sz = new double[numComponents];
+		for(int i = 0; i < n; i++){
+			int c = component[i];
+			count[c]++;
+			land[c] = isLand[i];
+			sx[c] += grid.nx[i];
+			sy[c] += grid.ny[i];
+			sz[c] += grid.nz[i];
+		}
+		// centroids
+		for(int c = 0; c < numComponents; c++){
+			double len = Math.sqrt(sx[c]*sx[c] + sy[c]*sy[c] + sz[c]*sz[c]);
+			if(len > 1e-9 * count[c]){
+				sx[c] /= len;
+				sy[c] /= len;
+				sz[c] /= len;
+			} else {
+				// evenly spread around the planet (e.g. a world ocean), so use the north pole
+				sx[c] = 0;
+				sy[c] = 1;
+				sz[c] = 0;
+			}
+		}
+		// smallest cap around each centroid that holds all of its nodes
+		double[] minDot = new double[numComponents];
+		Arrays.fill(minDot, 1);
+		for(int i = 0; i < n; i++){
+			int c = component[i];
+			minDot[c] = Math.min(minDot[c], sx[c]*grid.nx[i] + sy[c]*grid.ny[i] + sz[c]*grid.nz[i]);
+		}
+		final double cellArea = 4 * Math.PI * radius * radius / n;
+		final double cellRadius = grid.getMeanEdgeLength() / 2;
+		// largest first
+		Integer[] sorted = new Integer[numComponents];
+		for(int c = 0; c < numComponents; c++){
+			sorted[c] = c;
+		}
+		Arrays.sort(sorted, (Integer a, Integer b)->(count[a] != count[b]) ? Integer.compare(count[b], count[a]) : Integer.compare(a, b));
+		List<SurfaceRegion> regions = new ArrayList<>(numComponents);
+		for(int r = 0; r < numComponents; r++){
+			int c = sorted[r];
+			order[c] = r;
+			double cap = Math.min(Math.PI, Math.acos(Math.max(-1, Math.min(1, minDot[c]))) + cellRadius);
+			regions.add(new SurfaceRegion(r, land[c], count[c], count[c] * cellArea, 
+					Math.atan2(sx[c], sz[c]), Math.atan2(sy[c], Math.sqrt(sx[c]*sx[c] + sz[c]*sz[c])), cap));
+		}
+		return Collections.unmodifiableList(regions);
+	}
+	
+	/**
+	 * Gets the position of this region in the planet's list of regions.
+	 * @return The index of this region (0 is the largest)
+	 */
+	public int getIndex(){
+		return index;
+	}
+	/**
+	 * Tells whether this is land or water.
+	 * @return True for a land mass, false for a body of water
+	 */
+	public boolean isLand(){
+		return land;
+	}
+	/**
+	 * Gets the number of mesh nodes in this region.
+	 * @return The number of nodes
+	 */
+	public int getNumberNodes(){
+		return numNodes;
+	}
+	/**
+	 * Gets the area of this region.
+	 * @return The area, in square meters
+	 */
+	public double getArea(){
+		return area;
+	}
+	/**
+	 * Gets the longitude of the centroid of this region, which is a good 
+	 * place for a label (but may be outside of a region with a curved shape).
+	 * @return Longitude in radians, from -pi to pi
+	 */
+	public double getCentroidLongitude(){
+		return centroidLongitude;
+	}
+	/**
+	 * Gets the latitude of the centroid of this region.
+	 * @return Latitude in radians, from -pi/2 to pi/2
+	 */
+	public double getCentroidLatitude(){
+		return centroidLatitude;
+	}
+	/**
+	 * Gets the radius of the bounding cap of this region: the circle around 
+	 * the centroid that holds the whole region.
+	 * @return The angular radius of the cap, in radians (from 0 to pi)
+	 */
+	public double getBoundingCapRadius(){
+		return capRadius;
+	}
+	
+	@Override
+	public String toString(){
+		return String.format("%s #%d: %.0f km^2 at (%.1f, %.1f), cap radius %.1f degrees", 
+				land ? "Land" : "Water", index, area * 1e-6, 
+				Math.toDegrees(centroidLongitude), Math.toDegrees(centroidLatitude), Math.toDegrees(capRadius));
+	}
+}
@@ -31,24 +31,78 @@ along with CCH World Factory - GPL.  If not, see
 package hall.collin.christopher.worldgeneration;
 
 import hall.collin.christopher.worldgeneration.math.DefaultRandomNumberGenerator;
+import hall.collin.christopher.worldgeneration.math.Point3D;
 import hall.collin.christopher.worldgeneration.math.SpherePoint;
 import hall.collin.christopher.worldgeneration.util.GUI;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * The TectonicHydrologyPlanet class simulates a planet's terrain using an 
  * algorithm that generates mountain ranges along tectonic faults and simulates 
  * the movement of water over the terrain. This planet should give rise to 
- * mountain ranges with rain-shadows.
+ * mountain ranges with rain-shadows. The surface is divided into tectonic 
+ * plates (a Voronoi partition grown over the hydrology mesh), and the 
+ * mountain noise is strongest near the plate boundaries.
+ * <p>
+ * A planet can be shared by any number of threads once it has been created: 
+ * its settings and noise layers are final, and the data that is calculated 
+ * the first time it is needed (plates, regions, monthly moisture, etc.) is 
+ * published safely and then read without locking.
+ * </p>
  * @author CCHall
  */
 public class TectonicHydrologyPlanet extends AbstractPlanet{
-
+	/** 
+	 * The continent score, where a positive value indicates land and a 
+	 * negative value indicates ocean/sea (NaN on other kinds of planets)
+	 */
+	public static final PlanetChannel CONTINENT = PlanetChannel.create("Continent");
+	/** 
+	 * The index of the tectonic plate, from 0 to 
+	 * <code>getNumberOfPlates()-1</code> (NaN on other kinds of planets)
+	 */
+	public static final PlanetChannel PLATE = PlanetChannel.create("Plate");
+	/** 
+	 * The distance (in meters) to the nearest tectonic plate boundary (NaN 
+	 * on other kinds of planets)
+	 */
+	public static final PlanetChannel PLATE_BOUNDARY_DISTANCE = PlanetChannel.create("Plate Boundary Distance");
 	
+	private final String seed;
 	private final double radius; // in meters
 	private final double sunlightIntensity; // in watts per m^2
 	private final double atmosphere; // in kPa at sea level
+	private final double axialTilt; // in radians
+	private final TemperatureModel temperatureModel;
+	/** tolerance of the hydrology simulation (see Parameters.withHydrologyTolerance(...)) */
+	private final double hydrologyTolerance;
+	/** how the hydrology is calculated (see Parameters.withHydrologySolver(...)) */
+	private final HydrologySolver hydrologySolver;
 	/** precision of lowest layer of continental noise */
 	private final double continentInitialPrecision = 3800000;
 	/** used to bias the continent layer towards more (or less) ocean than land */
@@ -59,6 +113,18 @@ public class TectonicHydrologyPlanet extends AbstractPlanet{
 	private final double oceanDepth;
 	/** Height factor for mountains */
 	private final double mountainHeight;
+	/** 
+	 * mountain ranges are concentrated within about this distance of a plate 
+	 * boundary, as a fraction of the radius (800 km on Earth)
+	 */
+	private final double mountainBeltWidth = 0.125;
+	/** roughness multiplier in the interior of a plate, far from its boundaries */
+	private final double plateInteriorRoughness = 0.35;
+	/** 
+	 * plate factor used by getEstimatedAltitude(...) instead of the plates 
+	 * (the value that best matches the land fraction of the real altitude)
+	 */
+	private final double estimatedPlateFactor = 0.6;
 	
 	/** average temperature of the equator of the planet (25C for Earth)*/
 	private final double equitorialMeanAnnualTemperature;
@@ -70,6 +136,32 @@ public class TectonicHydrologyPlanet extends AbstractPlanet{
 	final double temperatureDropPerMeter = -10 / 1000.0;
 	/** magnitude of temperature variation */
 	private final double temperatureNoiseRange = 8;
+	/** temperature change (in C) deep inside a continent on the equator */
+	private final double continentalEquatorialDelta = 2;
+	/** temperature change (in C) deep inside a continent at the poles */
+	private final double continentalPolarDelta = -8;
+	/** 
+	 * how much a coastal location's seasons are like those of a continental 
+	 * interior, rather than those of the ocean
+	 */
+	private final double coastalSeasonality = 0.4;
+	/** insolation and temperature anomaly of each month */
+	private final SeasonalCycle seasons;
+	/** 
+	 * increase in outgoing radiation (in W/m^2) per degree of surface 
+	 * temperature, for TemperatureModel.ENERGY_BALANCE
+	 */
+	private final double radiativeDamping = 2.09;
+	/** 
+	 * heat transport of TemperatureModel.ENERGY_BALANCE (in W/m^2 per degree 
+	 * per radian^2) 
+	 */
+	private final double heatDiffusivity = 0.649;
+	/** 
+	 * fraction of sunlight absorbed, as a + b * P2(sin(latitude)) with the 
+	 * second Legendre polynomial P2, which stands for the bright polar ice
+	 */
+	private final double meanCoAlbedo = 0.681, polarCoAlbedo = -0.202;
 	
 	
 	
@@ -78,25 +170,139 @@ public class TectonicHydrologyPlanet extends AbstractPlanet{
 	
 	// Noise Layers
 	/** Noise layer to determine whether a given point is land or sea */
-	PlanetaryScaling3DCoordinateNoiseGenerator continentNoise;
+	final PlanetaryScaling3DCoordinateNoiseGenerator continentNoise;
 	/** Noise layer used for mountains calculation */
-	PlanetaryScaling3DCoordinateNoiseGenerator mountainRangeNoise;
+	final PlanetaryScaling3DCoordinateNoiseGenerator mountainRangeNoise;
 	/** Noise layer used for mountains calculation */
-	PlanetaryScaling3DCoordinateNoiseGenerator mountainMagnitudeNoise;
+	final PlanetaryScaling3DCoordinateNoiseGenerator mountainMagnitudeNoise;
 	/** Noise layer for terrain altitude */
-	PlanetaryScaling3DCoordinateNoiseGenerator altitudeNoise;
+	final PlanetaryScaling3DCoordinateNoiseGenerator altitudeNoise;
 	/** Noise layer for temperature */
-	PlanetaryScaling3DCoordinateNoiseGenerator temperatureNoise;
+	final PlanetaryScaling3DCoordinateNoiseGenerator temperatureNoise;
+	/** seed of the tectonic plates */
+	private final long plateSeed;
+	/** number of tectonic plates */
+	private final int numPlates;
+	/** tectonic plates (null until they are first needed, see getPlates()) */
+	private volatile TectonicPlates plates;
+	/** 
+	 * signed distance (in meters) to the coast at each GeodesicGrid node 
+	 * (null until it is first needed, see getCoastDistanceField())
+	 */
+	private volatile double[] coastDistance;
+	/** 
+	 * sea-level temperature of each GeodesicGrid node from the energy-balance 
+	 * model (null until it is first needed, see getSeaLevelTemperatureField())
+	 */
+	private volatile double[] seaLevelTemperature;
+	/** 
+	 * land masses and bodies of water (null until they are first needed, 
+	 * see getRegionMap())
+	 */
+	private volatile RegionMap regionMap;
+	/** 
+	 * moisture of each GeodesicGrid node in each month (each element is null 
+	 * until it is first needed, see getMonthlyMoistureField(month))
+	 */
+	private final AtomicReferenceArray<double[]> monthlyMoisture = new AtomicReferenceArray<>(PlanetChannel.MONTHS_PER_YEAR);
+	/** guards the lazily measured fields of the GeodesicGrid nodes */
+	private final Object nodeFieldLock = new Object();
+	/** 
+	 * guards the plates (separately, because the node fields are measured in 
+	 * parallel while nodeFieldLock is held, and that needs the plates)
+	 */
+	private final Object platesLock = new Object();
 	
 	// hydrology sim
-	/** Node network sim of water cycle */
-	private HydrologyNetworkSimulation hydrologySim;
+	/** Node network sim of water cycle (null until the network is built) */
+	private volatile HydrologyNetworkSimulation hydrologySim;
+	/** completes when the hydrology simulation has finished */
+	private final CompletableFuture<TectonicHydrologyPlanet> hydrologyFuture = new CompletableFuture<>();
+	/** rivers and lakes (null until the hydrology simulation has finished) */
+	private volatile DrainageNetwork drainage;
+	/** 
+	 * parameter-independent noise at the hydrology nodes, shared with planets 
+	 * made by withParameters(...) (null if the hydrology was loaded from a file)
+	 */
+	private volatile MeshNoise meshNoise;
+	/** 
+	 * altitude of each hydrology node (null until it is first needed, see 
+	 * getNodeAltitude())
+	 */
+	private volatile double[] nodeAltitude;
+	/** channel dependencies (see getChannelGraph()) */
+	private final ChannelGraph channelGraph = createChannelGraph();
+	/** what getMoisture(...) does before the hydrology simulation is finished */
+	private volatile MoistureMode moistureMode = MoistureMode.BLOCK;
+	/** moisture of ocean before the hydrology network exists */
+	private final double provisionalOceanMoisture = 500;
+	
+	/**
+	 * Determines how the annual mean temperature of a planet is calculated 
+	 * (see <code>Parameters.withTemperatureModel(...)</code>).
+	 */
+	public static enum TemperatureModel{
+		/** 
+		 * Calculated at every sample from the latitude, altitude, distance 
+		 * from the coast and a noise layer
+		 */
+		ZONAL,
+		/** 
+		 * Solved once per planet on the hydrology mesh with a diffusive 
+		 * energy-balance model, in which heat flows from warm regions to 
+		 * cold ones, and interpolated between the nodes (with the same drop 
+		 * in temperature with altitude as ZONAL)
+		 */
+		ENERGY_BALANCE
+	}
+	
+	/**
+	 * Determines how the hydrology of a planet is calculated (see 
+	 * <code>Parameters.withHydrologySolver(...)</code>).
+	 */
+	public static enum HydrologySolver{
+		/** 
+		 * Runs the hydrology simulation until it converges to the hydrology 
+		 * tolerance (or for at most 1600 iterations), starting from the 
+		 * coarse layers of the mesh
+		 */
+		ITERATIVE,
+		/** 
+		 * Solves the steady state of the hydrology simulation directly (the 
+		 * state that the iterations would reach eventually), which is exact 
+		 * and usually faster, and ignores the hydrology tolerance
+		 */
+		STEADY_STATE
+	}
+	
+	/**
+	 * Determines what <code>getMoisture(...)</code> does when it is called 
+	 * before the hydrology simulation has finished (see 
+	 * <code>createPlanetInBackground(...)</code>).
+	 */
+	public static enum MoistureMode{
+		/** Wait for the hydrology simulation to finish */
+		BLOCK,
+		/** 
+		 * Return the current (unfinished) state of the hydrology simulation, 
+		 * or a rough land/ocean estimate if the simulation has not started yet 
+		 */
+		PROVISIONAL
+	}
 	/** Number of times to subdivide the network. Total number of nodes is 
 	 * as a function of number of subdivisions is as follows (0-5 subdivs): 
 	 * 12, 42, 162, 642, 2562, 10242. The number of cells as a function of 
 	 * subdivisions C(s) = 20 * 4 ^ s
 	 */
 	private final int numNetworkSubdivisions = 5;
+	/** 
+	 * Version of the terrain generation algorithm. Saved hydrology files are 
+	 * only reused if they were made by the same version, so this must be 
+	 * incremented whenever a change to this class would change the output.
+	 */
+	private static final int GENERATOR_VERSION = 7;
+	/** Identifies a saved hydrology file ("CCHH") */
+	private static final int HYDROLOGY_FILE_MAGIC = 0x43434848;
 	/**
 	 * Generates an Earth-like planet.
 	 * @param seed Seed for random number generator
@@ -104,18 +310,9 @@ public class TectonicHydrologyPlanet extends AbstractPlanet{
 	protected TectonicHydrologyPlanet(String seed){
 		// protected constructor
 		// default values
-		radius =  6.371e6;
-		sunlightIntensity = 1367;
-		atmosphere = 101;
-		equitorialMeanAnnualTemperature = solarPowerToTemperature(sunlightIntensity);
-		oceanBias = 0.38;
-		continentHeight = 200;
-		oceanDepth = -4000;
-		mountainHeight = 1500;
-		
-		// init noise layers
-		initNoiseLayers(seed);
-		
+		this(seed, 6.371e6, 1367, 101, Math.toRadians(Parameters.EARTH.getAxialTilt_degrees()), 
+				TemperatureModel.ZONAL, HydrologyNetworkSimulation.DEFAULT_TOLERANCE, HydrologySolver.ITERATIVE, 
+				solarPowerToTemperature(1367), 0.38);
 	}
 	/**
 	 * Generates a planet with specified geographic parameters.
@@ -131,22 +328,111 @@ public class TectonicHydrologyPlanet extends AbstractPlanet{
 	 */
 	protected TectonicHydrologyPlanet(String seed, double radius_km, 
 			double atmosphere_kPa, double ocean_fraction, double solarFlux_wattsPerSqrMeter){
-		radius = radius_km * 1000;
-		sunlightIntensity = solarFlux_wattsPerSqrMeter;
-		atmosphere = atmosphere_kPa;
-		equitorialMeanAnnualTemperature = solarPowerToTemperature(sunlightIntensity) +  5 * Math.log(atmosphere_kPa / 101.0); // Arrhenius formula for greenhous effect: ΔF = α Ln(C/C_0)
-		oceanBias =  2 * (ocean_fraction - 0.5); 
+		this(seed, radius_km, atmosphere_kPa, ocean_fraction, solarFlux_wattsPerSqrMeter, 
+				Parameters.EARTH.getAxialTilt_degrees(), TemperatureModel.ZONAL, HydrologyNetworkSimulation.DEFAULT_TOLERANCE, 
+				HydrologySolver.ITERATIVE);
+	}
+	
+	private TectonicHydrologyPlanet(String seed, double radius_km, double atmosphere_kPa, 
+			double ocean_fraction, double solarFlux_wattsPerSqrMeter, double axialTilt_degrees, 
+			TemperatureModel temperatureModel, double hydrologyTolerance, HydrologySolver hydrologySolver){
+		this(seed, radius_km * 1000, solarFlux_wattsPerSqrMeter, atmosphere_kPa, 
+				Math.toRadians(axialTilt_degrees), temperatureModel, hydrologyTolerance, hydrologySolver, 
+				solarPowerToTemperature(solarFlux_wattsPerSqrMeter) +  5 * Math.log(atmosphere_kPa / 101.0), // Arrhenius formula for greenhous effect: ΔF = α Ln(C/C_0)
+				2 * (ocean_fraction - 0.5));
+	}
+	
+	/** 
+	 * sets every field that is not lazily calculated, so that the planet is 
+	 * immutable (apart from its caches) once it is constructed
+	 */
+	private TectonicHydrologyPlanet(String seed, double radius, double sunlightIntensity, 
+			double atmosphere, double axialTilt, TemperatureModel temperatureModel, double hydrologyTolerance, 
+			HydrologySolver hydrologySolver, double equitorialMeanAnnualTemperature, double oceanBias){
+		this.seed = seed;
+		this.radius = radius;
+		this.sunlightIntensity = sunlightIntensity;
+		this.atmosphere = atmosphere;
+		this.axialTilt = axialTilt;
+		this.temperatureModel = temperatureModel;
+		this.hydrologyTolerance = hydrologyTolerance;
+		this.hydrologySolver = hydrologySolver;
+		seasons = new SeasonalCycle(axialTilt, sunlightIntensity);
+		this.equitorialMeanAnnualTemperature = equitorialMeanAnnualTemperature;
+		this.oceanBias = oceanBias; 
 		continentHeight = 200;
 		oceanDepth = -4000;
 		mountainHeight = 1500;
 		
 		// init noise layers
-		initNoiseLayers(seed);
+		DefaultRandomNumberGenerator prng = new DefaultRandomNumberGenerator(
+				stringHashCode(seed)
+		);
+		continentNoise = new PlanetaryScaling3DCoordinateNoiseGenerator(
+				prng.nextLong(),
+				prng.nextLong(),
+				prng.nextLong(),
+				prng.nextLong(),
+				continentInitialPrecision,
+				1.0);
+		mountainRangeNoise = new PlanetaryScaling3DCoordinateNoiseGenerator(
+				prng.nextLong(),
+				prng.nextLong(),
+				prng.nextLong(),
+				prng.nextLong(),
+				minPrecision,
+				1.0);
+		mountainMagnitudeNoise = new PlanetaryScaling3DCoordinateNoiseGenerator(
+				prng.nextLong(),
+				prng.nextLong(),
+				prng.nextLong(),
+				prng.nextLong(),
+				minPrecision,
+				1.0);
+		altitudeNoise = new PlanetaryScaling3DCoordinateNoiseGenerator(
+				prng.nextLong(),
+				prng.nextLong(),
+				prng.nextLong(),
+				prng.nextLong(),
+				minPrecision,
+				1.0);
+		temperatureNoise = new PlanetaryScaling3DCoordinateNoiseGenerator(
+				prng.nextLong(),
+				prng.nextLong(),
+				prng.nextLong(),
+				prng.nextLong(),
+				minPrecision,
+				temperatureNoiseRange);
+		plateSeed = prng.nextLong();
+		numPlates = 10 + prng.nextInt(8);
 	}
 	
-	private double solarPowerToTemperature(double solar){
+	/**
+	 * Generates a planet with specified geographic parameters.
+	 * @param seed Seed for random number generator
+	 * @param parameters The physical properties of the planet
+	 */
+	protected TectonicHydrologyPlanet(String seed, Parameters parameters){
+		this(seed, parameters.getRadius_km(), parameters.getAtmosphere_kPa(), 
+				parameters.getOceanFraction(), parameters.getSolarFlux_wattsPerSqrMeter(), 
+				parameters.getAxialTilt_degrees(), parameters.getTemperatureModel(), parameters.getHydrologyTolerance(), 
+				parameters.getHydrologySolver());
+	}
+	
+	private static double solarPowerToTemperature(double solar){
 		return Math.sqrt(Math.sqrt(solar * 0.3148071235 / 0.0000000567))-273.16;
 	}
+	/** 
+	 * runs the hydrology simulation or solves its steady state, depending on 
+	 * the hydrology solver (stopping early if the thread is interrupted)
+	 */
+	private void runHydrology(HydrologyNetworkSimulation sim, DoubleAdder progressTracker){
+		if(hydrologySolver == HydrologySolver.STEADY_STATE){
+			sim.solveSteadyState(progressTracker);
+		} else {
+			sim.runSimulation(hydrologyTolerance, progressTracker);
+		}
+	}
 	/**
 	 * Creates a TectonicHydrologyPlanet with the default (Earth-like) settings. 
 	 * This operation may take a long time, so a DoubleAccumulator is provided 
@@ -162,7 +448,7 @@ public class TectonicHydrologyPlanet extends AbstractPlanet{
 		TectonicHydrologyPlanet p = new TectonicHydrologyPlanet(seed);
 		
 		p.initialize();
-		p.hydrologySim.runSimulation(progressTracker);
+		p.runHydrology(p.hydrologySim, progressTracker);
 		p.postInit();
 		if(Thread.currentThread().isInterrupted()) return null; // aborted creation
 		return p;
@@ -192,12 +478,667 @@ public class TectonicHydrologyPlanet extends AbstractPlanet{
 			 atmosphere_kPa,  ocean_fraction,  solarFlux_wattsPerSqrMeter);
 		
 		p.initialize();
-		p.hydrologySim.runSimulation(progressTracker);
+		p.runHydrology(p.hydrologySim, progressTracker);
+		p.postInit();
+		if(Thread.currentThread().isInterrupted()) return null; // aborted creation
+		return p;
+	}
+	
+	/**
+	 * Starts creating a TectonicHydrologyPlanet on the given executor and 
+	 * returns a future for the result. Unlike <code>createPlanet(...)</code>, 
+	 * this does not depend on thread interruption: cancelling the returned 
+	 * future stops the work at the next check (between subdivisions, nodes or 
+	 * iterations), so the executor's thread is freed promptly. The progress 
+	 * of each stage can be read from the returned future.
+	 * <p>
+	 * The mesh building, node sampling and simulation use parallel streams, 
+	 * which run in the executor if it is a <code>ForkJoinPool</code> and in 
+	 * the common pool otherwise.
+	 * </p>
+	 * @param seed A string to use as the seed for random number generators.
+	 * @param parameters The physical properties of the planet (e.g. 
+	 * <code>Parameters.EARTH</code>)
+	 * @param executor The executor that will run the creation task
+	 * @return A future that completes with the new planet, or completes 
+	 * exceptionally if creation failed or was cancelled
+	 */
+	public static CreationFuture createPlanetAsync(String seed, Parameters parameters, Executor executor){
+		return createPlanetAsync(seed, parameters, executor, null);
+	}
+	/**
+	 * Starts creating a TectonicHydrologyPlanet on the given executor (see 
+	 * <code>createPlanetAsync(seed, parameters, executor)</code>).
+	 * @param seed A string to use as the seed for random number generators.
+	 * @param parameters The physical properties of the planet
+	 * @param executor The executor that will run the creation task
+	 * @param meshTemplate If not null, supplies an (uninitialized) network 
+	 * whose mesh is copied instead of building a new one
+	 * @return A future that completes with the new planet
+	 */
+	static CreationFuture createPlanetAsync(String seed, Parameters parameters, Executor executor, 
+			Supplier<HydrologyNetworkSimulation> meshTemplate){
+		if(parameters == null) throw new IllegalArgumentException("Parameters cannot be null");
+		if(executor == null) throw new IllegalArgumentException("Executor cannot be null");
+		final CreationFuture future = new CreationFuture();
+		try{
+			executor.execute(()->{
+				if(future.isDone()) return; // cancelled before it started
+				try{
+					TectonicHydrologyPlanet p = new TectonicHydrologyPlanet(seed, parameters);
+					future.stage = CreationStage.MESH_BUILD;
+					p.hydrologySim = p.buildHydrologyNetwork(meshTemplate == null ? null : meshTemplate.get(), 
+							future::isCancelled, future.meshProgress, ()->future.stage = CreationStage.NODE_SAMPLING, 
+							future.samplingProgress);
+					future.stage = CreationStage.ITERATIONS;
+					if(p.hydrologySolver == HydrologySolver.STEADY_STATE){
+						p.hydrologySim.solveSteadyState(future.iterationProgress);
+					} else {
+						p.hydrologySim.runSimulation(future.iterationProgress, future::isCancelled, p.hydrologyTolerance);
+					}
+					p.postInit();
+					future.stage = CreationStage.DONE;
+					future.complete(p);
+				} catch(CancellationException ex){
+					future.cancel(false);
+				} catch(RuntimeException | Error ex){
+					future.completeExceptionally(ex);
+					if(ex instanceof Error) throw (Error)ex;
+				}
+			});
+		} catch(RejectedExecutionException ex){
+			future.completeExceptionally(ex);
+		}
+		return future;
+	}
+	
+	/**
+	 * The stages of planet creation, in order, as reported by 
+	 * <code>CreationFuture.getStage()</code>.
+	 */
+	public static enum CreationStage{
+		/** Waiting for the executor to run the task */
+		QUEUED,
+		/** Building the hydrology node network */
+		MESH_BUILD,
+		/** Sampling altitude, roughness and temperature at every node */
+		NODE_SAMPLING,
+		/** Running the hydrology simulation */
+		ITERATIONS,
+		/** Finished (successfully or not) */
+		DONE
+	}
+	
+	/**
+	 * The future returned by <code>createPlanetAsync(...)</code>. Cancelling 
+	 * it stops the creation task at its next check. The progress of each 
+	 * stage goes from 0 to 1 and can be polled from any thread.
+	 */
+	public static final class CreationFuture extends CompletableFuture<TectonicHydrologyPlanet>{
+		/** share of total time spent in each stage (measured for the default mesh) */
+		private static final double MESH_WEIGHT = 0.05, SAMPLING_WEIGHT = 0.27, ITERATION_WEIGHT = 0.68;
+		private volatile CreationStage stage = CreationStage.QUEUED;
+		private final DoubleAdder meshProgress = new DoubleAdder();
+		private final DoubleAdder samplingProgress = new DoubleAdder();
+		private final DoubleAdder iterationProgress = new DoubleAdder();
+		
+		private CreationFuture(){
+			// only made by createPlanetAsync(...)
+		}
+		/**
+		 * Gets the stage that the creation task is currently in.
+		 * @return The current stage (<code>DONE</code> once this future is 
+		 * complete, including if it was cancelled or failed)
+		 */
+		public CreationStage getStage(){
+			if(isDone()) return CreationStage.DONE;
+			return stage;
+		}
+		/**
+		 * Gets the progress of a single stage.
+		 * @param s A stage of planet creation
+		 * @return The progress of that stage, from 0 (not started) to 1 
+		 * (finished)
+		 */
+		public double getStageProgress(CreationStage s){
+			switch(s){
+				case QUEUED: return getStage() == CreationStage.QUEUED ? 0 : 1;
+				case MESH_BUILD: return Math.min(meshProgress.sum(), 1);
+				case NODE_SAMPLING: return Math.min(samplingProgress.sum(), 1);
+				case ITERATIONS: return Math.min(iterationProgress.sum(), 1);
+				default: return getStage() == CreationStage.DONE ? 1 : 0;
+			}
+		}
+		/**
+		 * Gets the overall progress, with each stage weighted by roughly how 
+		 * long it takes.
+		 * @return The overall progress, from 0 to 1
+		 */
+		public double getProgress(){
+			if(getStage() == CreationStage.DONE) return 1;
+			return MESH_WEIGHT * getStageProgress(CreationStage.MESH_BUILD)
+					+ SAMPLING_WEIGHT * getStageProgress(CreationStage.NODE_SAMPLING)
+					+ ITERATION_WEIGHT * getStageProgress(CreationStage.ITERATIONS);
+		}
+	}
+	
+	/**
+	 * The physical properties of a TectonicHydrologyPlanet. Instances are 
+	 * immutable; use the <code>with...(...)</code> methods to make a copy 
+	 * with one property changed.
+	 */
+	public static final class Parameters{
+		/** Earth-like settings */
+		public static final Parameters EARTH = new Parameters(6371, 101, 0.69, 1367, 23.44);
+		
+		private final double radius_km;
+		private final double atmosphere_kPa;
+		private final double oceanFraction;
+		private final double solarFlux_wattsPerSqrMeter;
+		private final double axialTilt_degrees;
+		private final TemperatureModel temperatureModel;
+		private final double hydrologyTolerance;
+		private final HydrologySolver hydrologySolver;
+		/**
+		 * Constructs a set of planet parameters with an Earth-like axial tilt.
+		 * @param radius_km radius of planet in kilometers (Earth is 6371 km)
+		 * @param atmosphere_kPa Density of atmosphere at sea-level in kilopascals 
+		 * (Earth is 101 kPa)
+		 * @param ocean_fraction approximate fraction of planet covered in ocean 
+		 * (actual coverage will be different, Earth is 0.7)
+		 * @param solarFlux_wattsPerSqrMeter Solar intensity on the planet, before 
+		 * atmospheric scattering/absorption in watts per square meter (Earth is 
+		 * 1367 w/m^2)
+		 */
+		public Parameters(double radius_km, double atmosphere_kPa, double ocean_fraction, double solarFlux_wattsPerSqrMeter){
+			this(radius_km, atmosphere_kPa, ocean_fraction, solarFlux_wattsPerSqrMeter, 23.44);
+		}
+		/**
+		 * Constructs a set of planet parameters.
+		 * @param radius_km radius of planet in kilometers (Earth is 6371 km)
+		 * @param atmosphere_kPa Density of atmosphere at sea-level in kilopascals 
+		 * (Earth is 101 kPa)
+		 * @param ocean_fraction approximate fraction of planet covered in ocean 
+		 * (actual coverage will be different, Earth is 0.7)
+		 * @param solarFlux_wattsPerSqrMeter Solar intensity on the planet, before 
+		 * atmospheric scattering/absorption in watts per square meter (Earth is 
+		 * 1367 w/m^2)
+		 * @param axialTilt_degrees Tilt of the planet's axis relative to its 
+		 * orbit, which determines the strength of the seasons (Earth is 23.44 
+		 * degrees)
+		 */
+		public Parameters(double radius_km, double atmosphere_kPa, double ocean_fraction, 
+				double solarFlux_wattsPerSqrMeter, double axialTilt_degrees){
+			this(radius_km, atmosphere_kPa, ocean_fraction, solarFlux_wattsPerSqrMeter, axialTilt_degrees, 
+					TemperatureModel.ZONAL, HydrologyNetworkSimulation.DEFAULT_TOLERANCE, HydrologySolver.ITERATIVE);
+		}
+		private Parameters(double radius_km, double atmosphere_kPa, double ocean_fraction, 
+				double solarFlux_wattsPerSqrMeter, double axialTilt_degrees, TemperatureModel temperatureModel, 
+				double hydrologyTolerance, HydrologySolver hydrologySolver){
+			if(temperatureModel == null) throw new IllegalArgumentException("Temperature model cannot be null");
+			if(hydrologySolver == null) throw new IllegalArgumentException("Hydrology solver cannot be null");
+			if(!(hydrologyTolerance >= 0)) throw new IllegalArgumentException("Hydrology tolerance cannot be negative");
+			if(!(radius_km > 0)) throw new IllegalArgumentException("Radius must be positive");
+			if(!(atmosphere_kPa > 0)) throw new IllegalArgumentException("Atmosphere must be positive");
+			if(!(ocean_fraction >= 0 && ocean_fraction <= 1)) throw new IllegalArgumentException("Ocean fraction must be from 0 to 1");
+			if(!(solarFlux_wattsPerSqrMeter > 0)) throw new IllegalArgumentException("Solar flux must be positive");
+			if(!(axialTilt_degrees >= 0 && axialTilt_degrees <= 180)) throw new IllegalArgumentException("Axial tilt must be from 0 to 180 degrees");
+			this.radius_km = radius_km;
+			this.atmosphere_kPa = atmosphere_kPa;
+			this.oceanFraction = ocean_fraction;
+			this.solarFlux_wattsPerSqrMeter = solarFlux_wattsPerSqrMeter;
+			this.axialTilt_degrees = axialTilt_degrees;
+			this.temperatureModel = temperatureModel;
+			this.hydrologyTolerance = hydrologyTolerance;
+			this.hydrologySolver = hydrologySolver;
+		}
+		/** @return radius of planet in kilometers */
+		public double getRadius_km(){return radius_km;}
+		/** @return Density of atmosphere at sea-level in kilopascals */
+		public double getAtmosphere_kPa(){return atmosphere_kPa;}
+		/** @return approximate fraction of planet covered in ocean */
+		public double getOceanFraction(){return oceanFraction;}
+		/** @return Solar intensity on the planet in watts per square meter */
+		public double getSolarFlux_wattsPerSqrMeter(){return solarFlux_wattsPerSqrMeter;}
+		/** @return Tilt of the planet's axis, in degrees */
+		public double getAxialTilt_degrees(){return axialTilt_degrees;}
+		/** @return How the annual mean temperature is calculated */
+		public TemperatureModel getTemperatureModel(){return temperatureModel;}
+		/** @return Tolerance (in cm per iteration) of the hydrology simulation */
+		public double getHydrologyTolerance(){return hydrologyTolerance;}
+		/** @return How the hydrology is calculated */
+		public HydrologySolver getHydrologySolver(){return hydrologySolver;}
+		/** 
+		 * @param radius_km radius of planet in kilometers
+		 * @return A copy of these parameters with a different radius 
+		 */
+		public Parameters withRadius_km(double radius_km){
+			return new Parameters(radius_km, atmosphere_kPa, oceanFraction, solarFlux_wattsPerSqrMeter, axialTilt_degrees, temperatureModel, hydrologyTolerance, hydrologySolver);
+		}
+		/** 
+		 * @param atmosphere_kPa Density of atmosphere at sea-level in kilopascals
+		 * @return A copy of these parameters with a different atmosphere 
+		 */
+		public Parameters withAtmosphere_kPa(double atmosphere_kPa){
+			return new Parameters(radius_km, atmosphere_kPa, oceanFraction, solarFlux_wattsPerSqrMeter, axialTilt_degrees, temperatureModel, hydrologyTolerance, hydrologySolver);
+		}
+		/** 
+		 * @param ocean_fraction approximate fraction of planet covered in ocean
+		 * @return A copy of these parameters with a different ocean fraction 
+		 */
+		public Parameters withOceanFraction(double ocean_fraction){
+			return new Parameters(radius_km, atmosphere_kPa, ocean_fraction, solarFlux_wattsPerSqrMeter, axialTilt_degrees, temperatureModel, hydrologyTolerance, hydrologySolver);
+		}
+		/** 
+		 * @param axialTilt_degrees Tilt of the planet's axis, in degrees
+		 * @return A copy of these parameters with a different axial tilt 
+		 */
+		public Parameters withAxialTilt_degrees(double axialTilt_degrees){
+			return new Parameters(radius_km, atmosphere_kPa, oceanFraction, solarFlux_wattsPerSqrMeter, axialTilt_degrees, temperatureModel, hydrologyTolerance, hydrologySolver);
+		}
+		/** 
+		 * @param solarFlux_wattsPerSqrMeter Solar intensity in watts per square meter
+		 * @return A copy of these parameters with a different solar flux 
+		 */
+		public Parameters withSolarFlux_wattsPerSqrMeter(double solarFlux_wattsPerSqrMeter){
+			return new Parameters(radius_km, atmosphere_kPa, oceanFraction, solarFlux_wattsPerSqrMeter, axialTilt_degrees, temperatureModel, hydrologyTolerance, hydrologySolver);
+		}
+		/** 
+		 * @param temperatureModel How the annual mean temperature is calculated 
+		 * (the default is <code>TemperatureModel.ZONAL</code>)
+		 * @return A copy of these parameters with a different temperature model
+		 */
+		public Parameters withTemperatureModel(TemperatureModel temperatureModel){
+			return new Parameters(radius_km, atmosphere_kPa, oceanFraction, solarFlux_wattsPerSqrMeter, axialTilt_degrees, temperatureModel, hydrologyTolerance, hydrologySolver);
+		}
+		/** 
+		 * @param hydrologyTolerance The hydrology simulation stops when no 
+		 * node's precipitate or cloud water changes by more than this (in cm) 
+		 * in an iteration (the default is 
+		 * <code>HydrologyNetworkSimulation.DEFAULT_TOLERANCE</code>; larger 
+		 * values are faster but further from a steady state, and 0 always 
+		 * runs the full number of iterations)
+		 * @return A copy of these parameters with a different hydrology tolerance
+		 */
+		public Parameters withHydrologyTolerance(double hydrologyTolerance){
+			return new Parameters(radius_km, atmosphere_kPa, oceanFraction, solarFlux_wattsPerSqrMeter, axialTilt_degrees, temperatureModel, hydrologyTolerance, hydrologySolver);
+		}
+		/** 
+		 * @param hydrologySolver How the hydrology is calculated (the default 
+		 * is <code>HydrologySolver.ITERATIVE</code>)
+		 * @return A copy of these parameters with a different hydrology solver
+		 */
+		public Parameters withHydrologySolver(HydrologySolver hydrologySolver){
+			return new Parameters(radius_km, atmosphere_kPa, oceanFraction, solarFlux_wattsPerSqrMeter, axialTilt_degrees, temperatureModel, hydrologyTolerance, hydrologySolver);
+		}
+		@Override
+		public String toString(){
+			return "radius="+radius_km+"km, atmosphere="+atmosphere_kPa+"kPa, ocean="+oceanFraction+", solar flux="+solarFlux_wattsPerSqrMeter+"W/m^2, axial tilt="+axialTilt_degrees+" degrees, temperature model="+temperatureModel+", hydrology tolerance="+hydrologyTolerance+", hydrology solver="+hydrologySolver;
+		}
+	}
+	
+	/**
+	 * Creates a TectonicHydrologyPlanet with the default (Earth-like) settings 
+	 * and returns it immediately, running the hydrology simulation in the 
+	 * background. Altitude and roughness can be used right away, and so can 
+	 * <code>getProvisionalTemperature(...)</code> (<code>getTemperature(...)</code> 
+	 * measures the distance to the coast itself if the simulation has not 
+	 * done so yet). Calls to <code>getMoisture(...)</code> made before the simulation is 
+	 * finished will either wait or return a provisional value, depending on 
+	 * <code>mode</code>. Use <code>getHydrologyFuture()</code> to find out when 
+	 * the simulation has finished.
+	 * @param seed A string to use as the seed for random number generators.
+	 * @param mode What <code>getMoisture(...)</code> should do while the 
+	 * simulation is still running
+	 * @param progressTracker Tracker for progress. During the computation, 
+	 * increments will be added to to this object such that a complete operation 
+	 * will sum to 1.0. This parameter can be null.
+	 * @return A new TectonicHydrologyPlanet instance
+	 */
+	public static TectonicHydrologyPlanet createPlanetInBackground(String seed, MoistureMode mode, DoubleAdder progressTracker){
+		return startHydrologyInBackground(new TectonicHydrologyPlanet(seed), mode, progressTracker);
+	}
+	/**
+	 * Creates a TectonicHydrologyPlanet and returns it immediately, running 
+	 * the hydrology simulation in the background. Altitude and roughness can 
+	 * be used right away, and so can <code>getProvisionalTemperature(...)</code> 
+	 * (<code>getTemperature(...)</code> measures the distance to the coast 
+	 * itself if the simulation has not done so yet). Calls to 
+	 * <code>getMoisture(...)</code> made before the simulation is finished will either wait or return a 
+	 * provisional value, depending on <code>mode</code>. Use 
+	 * <code>getHydrologyFuture()</code> to find out when the simulation has 
+	 * finished.
+	 * @param seed A string to use as the seed for random number generators.
+	 * @param radius_km radius of planet in kilometers (Earth is 6371 km)
+	 * @param atmosphere_kPa Density of atmosphere at sea-level in kilopascals 
+	 * (Earth is 101 kPa)
+	 * @param ocean_fraction approximate fraction of planet covered in ocean 
+	 * (actual coverage will be different, Earth is 0.7)
+	 * @param solarFlux_wattsPerSqrMeter Solar intensity on the planet, before 
+	 * atmospheric scattering/absorption in watts per square meter (Earth is 
+	 * 1367 w/m^2)
+	 * @param mode What <code>getMoisture(...)</code> should do while the 
+	 * simulation is still running
+	 * @param progressTracker Tracker for progress. During the computation, 
+	 * increments will be added to to this object such that a complete operation 
+	 * will sum to 1.0. This parameter can be null.
+	 * @return A new TectonicHydrologyPlanet instance
+	 */
+	public static TectonicHydrologyPlanet createPlanetInBackground(String seed,double radius_km, 
+			double atmosphere_kPa, double ocean_fraction, double solarFlux_wattsPerSqrMeter, 
+			MoistureMode mode, DoubleAdder progressTracker){
+		TectonicHydrologyPlanet p = new TectonicHydrologyPlanet(seed, radius_km, 
+			 atmosphere_kPa,  ocean_fraction,  solarFlux_wattsPerSqrMeter);
+		return startHydrologyInBackground(p, mode, progressTracker);
+	}
+	
+	private static TectonicHydrologyPlanet startHydrologyInBackground(TectonicHydrologyPlanet p, 
+			MoistureMode mode, DoubleAdder progressTracker){
+		if(mode == null) throw new IllegalArgumentException("Moisture mode cannot be null");
+		p.moistureMode = mode;
+		ForkJoinPool.commonPool().execute(()->{
+			try{
+				p.initialize();
+				p.runHydrology(p.hydrologySim, progressTracker);
+				p.postInit();
+			} catch(RuntimeException | Error ex){
+				p.hydrologyFuture.completeExceptionally(ex);
+				throw ex;
+			}
+		});
+		return p;
+	}
+	
+	/**
+	 * Creates a planet with the same seed as this one and different 
+	 * parameters, re-using as much of this planet's work as possible. If the 
+	 * radius is the same, only the ocean fraction, atmosphere, solar flux and 
+	 * axial tilt have changed, and none of them changes the noise layers (the ocean 
+	 * fraction shifts the continent score, the atmosphere and solar flux 
+	 * shift the temperature and evaporation, and the axial tilt only changes 
+	 * the seasons). So the noise that was sampled 
+	 * at the hydrology nodes for this planet is re-used, along with the 
+	 * mesh, and the hydrology simulation is started from this planet's 
+	 * solution (scaled to the new amount of water) and run until it 
+	 * converges to the hydrology tolerance (with 
+	 * <code>HydrologySolver.STEADY_STATE</code>, the steady state is solved 
+	 * directly instead). If the radius is different, the planet is generated 
+	 * from scratch, as with <code>createPlanet(...)</code>.
+	 * <p>
+	 * Both ways stop short of the exact steady state, so a warm-started 
+	 * planet's moisture is close to, but not exactly the same as, that of a 
+	 * planet created from scratch with the same parameters (a few cm, about 
+	 * as far as either of them is from the steady state). With 
+	 * <code>HydrologySolver.STEADY_STATE</code> they are the same. 
+	 * This method waits for this planet's hydrology to finish.
+	 * </p>
+	 * @param parameters The physical properties of the new planet
+	 * @param progressTracker Tracker for progress. During the computation, 
+	 * increments will be added to to this object such that a complete operation 
+	 * will sum to 1.0. This parameter can be null.
+	 * @return A new TectonicHydrologyPlanet instance (or null if the thread 
+	 * was interrupted)
+	 */
+	public TectonicHydrologyPlanet withParameters(Parameters parameters, DoubleAdder progressTracker){
+		if(parameters == null) throw new IllegalArgumentException("Parameters cannot be null");
+		if(parameters.getRadius_km() * 1000 != radius){
+			TectonicHydrologyPlanet p = new TectonicHydrologyPlanet(seed, parameters);
+			p.initialize();
+			p.runHydrology(p.hydrologySim, progressTracker);
+			p.postInit();
+			if(Thread.currentThread().isInterrupted()) return null; // aborted creation
+			return p;
+		}
+		hydrologyFuture.join();
+		TectonicHydrologyPlanet p = new TectonicHydrologyPlanet(seed, parameters);
+		HydrologyNetworkSimulation sim = hydrologySim.copyMesh();
+		MeshNoise noise = getMeshNoise(sim);
+		p.meshNoise = noise;
+		p.initializeHydrology(sim, noise);
+		if(p.hydrologySolver == HydrologySolver.STEADY_STATE){
+			sim.solveSteadyState(progressTracker);
+		} else {
+			sim.warmStartFrom(hydrologySim);
+			sim.runSimulation(p.hydrologyTolerance, progressTracker);
+		}
+		if(Thread.currentThread().isInterrupted()) return null; // aborted creation
+		p.hydrologySim = sim;
+		p.postInit();
+		return p;
+	}
+	/**
+	 * Gets the seed that this planet was generated from.
+	 * @return The seed
+	 */
+	public String getSeed(){
+		return seed;
+	}
+	/**
+	 * Gets the number of iterations and the final residual of this planet's 
+	 * hydrology simulation. This method waits for the hydrology simulation 
+	 * to finish.
+	 * @return How the hydrology simulation converged, or null if it was 
+	 * loaded from a saved hydrology file or solved with 
+	 * <code>HydrologySolver.STEADY_STATE</code>
+	 */
+	public HydrologyNetworkSimulation.Convergence getHydrologyConvergence(){
+		hydrologyFuture.join();
+		return hydrologySim.getConvergence();
+	}
+	/**
+	 * Gets the physical properties of this planet.
+	 * @return The parameters of this planet
+	 */
+	public Parameters getParameters(){
+		return new Parameters(radius / 1000, atmosphere, 0.5 * oceanBias + 0.5, sunlightIntensity, Math.toDegrees(axialTilt), 
+				temperatureModel, hydrologyTolerance, hydrologySolver);
+	}
+	
+	/**
+	 * Gets a future that completes (with this planet) when the hydrology 
+	 * simulation has finished and <code>getMoisture(...)</code> returns final 
+	 * values. Cancelling or completing the returned future has no effect on 
+	 * this planet.
+	 * @return A future that completes when the hydrology is ready
+	 */
+	public CompletableFuture<TectonicHydrologyPlanet> getHydrologyFuture(){
+		return hydrologyFuture.copy();
+	}
+	/**
+	 * Checks whether the hydrology simulation has finished.
+	 * @return True if <code>getMoisture(...)</code> returns final values
+	 */
+	public boolean isHydrologyReady(){
+		return hydrologyFuture.isDone() && !hydrologyFuture.isCompletedExceptionally();
+	}
+	/**
+	 * Gets the current behavior of <code>getMoisture(...)</code> before the 
+	 * hydrology simulation has finished.
+	 * @return The moisture mode
+	 */
+	public MoistureMode getMoistureMode(){
+		return moistureMode;
+	}
+	/**
+	 * Sets the behavior of <code>getMoisture(...)</code> before the 
+	 * hydrology simulation has finished (e.g. switch to 
+	 * <code>MoistureMode.BLOCK</code> after a preview has been drawn).
+	 * @param mode The new moisture mode
+	 */
+	public void setMoistureMode(MoistureMode mode){
+		if(mode == null) throw new IllegalArgumentException("Moisture mode cannot be null");
+		this.moistureMode = mode;
+	}
+	
+	/**
+	 * Creates a TectonicHydrologyPlanet with the default (Earth-like) settings, 
+	 * reusing a saved hydrology simulation from <code>cacheDirectory</code> if 
+	 * one exists for the same seed and settings. Otherwise the simulation is 
+	 * run and its result is saved in <code>cacheDirectory</code> for next 
+	 * time.
+	 * @param seed A string to use as the seed for random number generators.
+	 * @param cacheDirectory Folder for saved hydrology files (will be created 
+	 * if it does not exist)
+	 * @param progressTracker Tracker for progress. During the computation, 
+	 * increments will be added to to this object such that a complete operation 
+	 * will sum to 1.0. This parameter can be null.
+	 * @return A new TectonicHydrologyPlanet instance
+	 */
+	public static TectonicHydrologyPlanet createPlanet(String seed, File cacheDirectory, DoubleAdder progressTracker){
+		return createPlanetWithCache(new TectonicHydrologyPlanet(seed), seed, cacheDirectory, progressTracker);
+	}
+	/**
+	 * Creates a TectonicHydrologyPlanet, reusing a saved hydrology simulation 
+	 * from <code>cacheDirectory</code> if one exists for the same seed and 
+	 * settings. Otherwise the simulation is run and its result is saved in 
+	 * <code>cacheDirectory</code> for next time.
+	 * @param seed A string to use as the seed for random number generators.
+	 * @param radius_km radius of planet in kilometers (Earth is 6371 km)
+	 * @param atmosphere_kPa Density of atmosphere at sea-level in kilopascals 
+	 * (Earth is 101 kPa)
+	 * @param ocean_fraction approximate fraction of planet covered in ocean 
+	 * (actual coverage will be different, Earth is 0.7)
+	 * @param solarFlux_wattsPerSqrMeter Solar intensity on the planet, before 
+	 * atmospheric scattering/absorption in watts per square meter (Earth is 
+	 * 1367 w/m^2)
+	 * @param cacheDirectory Folder for saved hydrology files (will be created 
+	 * if it does not exist)
+	 * @param progressTracker Tracker for progress. During the computation, 
+	 * increments will be added to to this object such that a complete operation 
+	 * will sum to 1.0. This parameter can be null.
+	 * @return A new TectonicHydrologyPlanet instance
+	 */
+	public static TectonicHydrologyPlanet createPlanet(String seed,double radius_km, 
+			double atmosphere_kPa, double ocean_fraction, double solarFlux_wattsPerSqrMeter, 
+			File cacheDirectory, DoubleAdder progressTracker){
+		TectonicHydrologyPlanet p = new TectonicHydrologyPlanet(seed, radius_km, 
+			 atmosphere_kPa,  ocean_fraction,  solarFlux_wattsPerSqrMeter);
+		return createPlanetWithCache(p, seed, cacheDirectory, progressTracker);
+	}
+	/**
+	 * Creates a TectonicHydrologyPlanet, reusing a saved hydrology simulation 
+	 * from <code>cacheDirectory</code> if one exists for the same seed and 
+	 * parameters. Otherwise the simulation is run (or its steady state is 
+	 * solved) and its result is saved in <code>cacheDirectory</code> for 
+	 * next time.
+	 * @param seed A string to use as the seed for random number generators.
+	 * @param parameters The physical properties of the planet (e.g. 
+	 * <code>Parameters.EARTH</code>)
+	 * @param cacheDirectory Folder for saved hydrology files (will be created 
+	 * if it does not exist)
+	 * @param progressTracker Tracker for progress. During the computation, 
+	 * increments will be added to to this object such that a complete operation 
+	 * will sum to 1.0. This parameter can be null.
+	 * @return A new TectonicHydrologyPlanet instance (or null if the thread 
+	 * was interrupted)
+	 */
+	public static TectonicHydrologyPlanet createPlanet(String seed, Parameters parameters, 
+			File cacheDirectory, DoubleAdder progressTracker){
+		if(parameters == null) throw new IllegalArgumentException("Parameters cannot be null");
+		return createPlanetWithCache(new TectonicHydrologyPlanet(seed, parameters), seed, cacheDirectory, progressTracker);
+	}
+	
+	private static TectonicHydrologyPlanet createPlanetWithCache(TectonicHydrologyPlanet p, 
+			String seed, File cacheDirectory, DoubleAdder progressTracker){
+		File cacheFile = new File(cacheDirectory, p.hydrologyFileName(seed));
+		if(cacheFile.isFile()){
+			p.hydrologySim = p.readHydrology(seed, cacheFile);
+			if(p.hydrologySim != null){
+				if(progressTracker != null) progressTracker.add(1.0);
+				p.postInit();
+				return p;
+			}
+		}
+		p.initialize();
+		p.runHydrology(p.hydrologySim, progressTracker);
 		p.postInit();
 		if(Thread.currentThread().isInterrupted()) return null; // aborted creation
+		p.writeHydrology(seed, cacheFile);
 		return p;
 	}
 	
+	/** the file name includes a hash of the seed and settings */
+	private String hydrologyFileName(String seed){
+		long h = stringHashCode(seed);
+		h = 31 * h + GENERATOR_VERSION;
+		h = 31 * h + Double.doubleToLongBits(radius);
+		h = 31 * h + Double.doubleToLongBits(atmosphere);
+		h = 31 * h + Double.doubleToLongBits(oceanBias);
+		h = 31 * h + Double.doubleToLongBits(sunlightIntensity);
+		h = 31 * h + Double.doubleToLongBits(axialTilt);
+		h = 31 * h + stringHashCode(temperatureModel.name());
+		h = 31 * h + Double.doubleToLongBits(hydrologyTolerance);
+		h = 31 * h + stringHashCode(hydrologySolver.name());
+		return "hydrology-" + Long.toHexString(h) + ".dat";
+	}
+	
+	private void writeHydrologyHeader(String seed, DataOutputStream out) throws IOException{
+		out.writeInt(HYDROLOGY_FILE_MAGIC);
+		out.writeInt(GENERATOR_VERSION);
+		out.writeUTF(seed);
+		out.writeDouble(radius);
+		out.writeDouble(atmosphere);
+		out.writeDouble(oceanBias);
+		out.writeDouble(sunlightIntensity);
+		out.writeDouble(axialTilt);
+		out.writeUTF(temperatureModel.name());
+		out.writeDouble(hydrologyTolerance);
+		out.writeUTF(hydrologySolver.name());
+	}
+	
+	private boolean matchesHydrologyHeader(String seed, DataInputStream in) throws IOException{
+		return in.readInt() == HYDROLOGY_FILE_MAGIC
+				&& in.readInt() == GENERATOR_VERSION
+				&& in.readUTF().equals(seed)
+				&& in.readDouble() == radius
+				&& in.readDouble() == atmosphere
+				&& in.readDouble() == oceanBias
+				&& in.readDouble() == sunlightIntensity
+				&& in.readDouble() == axialTilt
+				&& in.readUTF().equals(temperatureModel.name())
+				&& in.readDouble() == hydrologyTolerance
+				&& in.readUTF().equals(hydrologySolver.name());
+	}
+	
+	/** returns null if the file does not match this planet or cannot be read */
+	private HydrologyNetworkSimulation readHydrology(String seed, File file){
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+			if(!matchesHydrologyHeader(seed, in)){
+				return null;
+			}
+			return HydrologyNetworkSimulation.restoreHydrologyNetwork(in);
+		} catch(IOException ex){
+			// a corrupt or unreadable file is simply re-generated
+			Logger.getLogger(TectonicHydrologyPlanet.class.getName()).log(Level.FINE, "Could not read hydrology file "+file, ex);
+			return null;
+		}
+	}
+	
+	/** failure to save is logged but is not fatal */
+	private void writeHydrology(String seed, File file){
+		File dir = file.getAbsoluteFile().getParentFile();
+		if(dir != null && !dir.isDirectory() && !dir.mkdirs()){
+			Logger.getLogger(TectonicHydrologyPlanet.class.getName()).log(Level.WARNING, "Could not create directory {0}", dir);
+			return;
+		}
+		// write to a temporary file first so that other processes never see a partial file
+		File temp = new File(file.getPath() + "." + Long.toHexString(System.nanoTime()) + ".part");
+		try{
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))){
+				writeHydrologyHeader(seed, out);
+				hydrologySim.saveState(out);
+			}
+			try{
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException ex){
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch(IOException ex){
+			Logger.getLogger(TectonicHydrologyPlanet.class.getName()).log(Level.WARNING, "Could not save hydrology file "+file, ex);
+			temp.delete();
+		}
+	}
+	
 	/**
 	 * Calculates geography data at the given location, returning the roughness
 	 * score at the given coordinate. Roughness is a measure of how mountainous 
@@ -215,11 +1156,49 @@ public class TectonicHydrologyPlanet extends AbstractPlanet{
 	 */
 	@Override
 	public double getRoughness(double longitude, double latitude, double precision) {
-		double x = radius * sin(longitude)*Math.cos(latitude);
-		double y = radius * sin(latitude);
-		double z = radius * cos(longitude)*Math.cos(latitude);
-		double m = 4*mountainRangeNoise.getValue(x, y, z, precision) - 0.5;
-		double r = 1.0 / (m * m) * (mountainMagnitudeNoise.getValue(x, y, z, precision)+0.0625);
+		double cosLat = cos(latitude);
+		return getRoughness(sin(longitude)*cosLat, sin(latitude), cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Calculates the roughness at the location pointed to by a unit vector 
+	 * from the center of the planet.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return Returns a value from 0 to infinity at this coordinate, with a 
+	 * value greater than 1 meaning mountains.
+	 */
+	@Override
+	public double getRoughness(double x, double y, double z, double precision) {
+		return roughnessFrom(getPlates().getBoundaryDistance(x, y, z), x, y, z, precision);
+	}
+	/** 
+	 * roughness from the mountain noise, which is strongest near plate 
+	 * boundaries
+	 */
+	private double roughnessFrom(double plateBoundaryDistance, double x, double y, double z, double precision) {
+		double u = plateBoundaryDistance / (mountainBeltWidth * radius);
+		double plateFactor = plateInteriorRoughness + (1 - plateInteriorRoughness) * Math.exp(-u*u);
+		return plateFactor * getMountainRoughness(x, y, z, precision);
+	}
+	/** 
+	 * altitude with an average plate factor instead of the plates, so that 
+	 * the plates are not built (for SeedSearch). On 40 Earth-like seeds, the 
+	 * land fraction of this estimate is within 0.2% of the real one on average.
+	 */
+	double getEstimatedAltitude(double x, double y, double z, double precision) {
+		return altitudeFrom(getContinent(x, y, z, precision), 
+				estimatedPlateFactor * getMountainRoughness(x, y, z, precision), 
+				getCrinkle(x, y, z, precision));
+	}
+	/** roughness of the mountain noise, before the plates are applied */
+	private double getMountainRoughness(double x, double y, double z, double precision) {
+		double px = radius * x;
+		double py = radius * y;
+		double pz = radius * z;
+		double m = 4*mountainRangeNoise.getValue(px, py, pz, precision) - 0.5;
+		double r = 1.0 / (m * m) * (mountainMagnitudeNoise.getValue(px, py, pz, precision)+0.0625);
 		return clamp(r,0,2);
 	}
 /**
@@ -238,10 +1217,29 @@ public class TectonicHydrologyPlanet extends AbstractPlanet{
 	 */
 	@Override
 	public double getAltitude(double longitude, double latitude, double precision) {
-		double x = radius * sin(longitude)*Math.cos(latitude);
-		double y = radius * sin(latitude);
-		double z = radius * cos(longitude)*Math.cos(latitude);
-		double c = clamp(getContinent(longitude, latitude, precision),-1,1);
+		double cosLat = cos(latitude);
+		return getAltitude(sin(longitude)*cosLat, sin(latitude), cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Calculates the altitude at the location pointed to by a unit vector 
+	 * from the center of the planet.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The altitude at this coordinate.
+	 */
+	@Override
+	public double getAltitude(double x, double y, double z, double precision) {
+		return altitudeFrom(getContinent(x, y, z, precision), getRoughness(x, y, z, precision), getCrinkle(x, y, z, precision));
+	}
+	/** small-scale altitude variation (before scaling by roughness) */
+	private double getCrinkle(double x, double y, double z, double precision) {
+		return altitudeNoise.getValue(radius * x, radius * y, radius * z, precision);
+	}
+	/** altitude from already calculated continent, roughness and crinkle values */
+	private double altitudeFrom(double continent, double rough, double crinkle) {
+		double c = clamp(continent,-1,1);
 		double scaler = 1;
 		double base;
 		if(c >= 0){
@@ -252,8 +1250,6 @@ public class TectonicHydrologyPlanet extends AbstractPlanet{
 			base = oceanDepth * (c*c);
 		//	scaler = 3;
 		}
-		double rough = getRoughness(longitude, latitude, precision);
-		double crinkle = altitudeNoise.getValue(x, y, z, precision);
 		double h = mountainHeight * (crinkle * crinkle) * rough * scaler
 				+ base;
 		return h;
@@ -276,8 +1272,117 @@ public class TectonicHydrologyPlanet extends AbstractPlanet{
 	 */
 	@Override
 	public double getMoisture(double longitude, double latitude, double precision) {
+		if(!hydrologyFuture.isDone() && moistureMode == MoistureMode.PROVISIONAL){
+			double cosLat = cos(latitude);
+			return getProvisionalMoisture(sin(longitude)*cosLat, sin(latitude), cos(longitude)*cosLat, precision);
+		}
+		hydrologyFuture.join();
 		return hydrologySim.cubicInterpolatePrecipitation(new SpherePoint(longitude,latitude));
 	}
+	/**
+	 * Calculates the water availability at the location pointed to by a unit 
+	 * vector from the center of the planet.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The moisture availability at this coordinate, roughly measured in 
+	 * annual mean precipitation minus evaporation (in cm).
+	 */
+	@Override
+	public double getMoisture(double x, double y, double z, double precision) {
+		if(!hydrologyFuture.isDone() && moistureMode == MoistureMode.PROVISIONAL){
+			return getProvisionalMoisture(x, y, z, precision);
+		}
+		hydrologyFuture.join();
+		return hydrologySim.cubicInterpolatePrecipitation(x, y, z);
+	}
+	/**
+	 * Calculates the moisture availability of a month at the given location, 
+	 * as the annual moisture that the location would have if every month of 
+	 * the year were like this one. The hydrology of each month is simulated 
+	 * the first time that it is needed, by running the simulation with that 
+	 * month's temperatures on a copy of this planet's hydrology mesh until 
+	 * it converges, starting from the annual solution (or by solving that month's steady state with 
+	 * <code>HydrologySolver.STEADY_STATE</code>). 
+	 * @param longitude Longitude coordinate of the location of interest
+	 * @param latitude Latitude of the location of interest
+	 * @param precision Determines how fine-grained the calculation is (see 
+	 * <code>getMoisture(longitude, latitude, precision)</code>)
+	 * @param month Month, from 0 (January) to 11 (December)
+	 * @return The moisture availability of the month at this coordinate, in 
+	 * cm of precipitation minus evaporation per year
+	 * @throws IllegalArgumentException Thrown if the month is not from 0 to 11
+	 */
+	public double getMonthlyMoisture(double longitude, double latitude, double precision, int month) {
+		double cosLat = cos(latitude);
+		return getMonthlyMoisture(sin(longitude)*cosLat, sin(latitude), cos(longitude)*cosLat, precision, month);
+	}
+	/**
+	 * Calculates the moisture availability of a month at the location 
+	 * pointed to by a unit vector from the center of the planet (see 
+	 * <code>getMonthlyMoisture(longitude, latitude, precision, month)</code>).
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @param month Month, from 0 (January) to 11 (December)
+	 * @return The moisture availability of the month at this coordinate, in 
+	 * cm of precipitation minus evaporation per year
+	 * @throws IllegalArgumentException Thrown if the month is not from 0 to 11
+	 */
+	public double getMonthlyMoisture(double x, double y, double z, double precision, int month) {
+		PlanetChannel.checkMonth(month);
+		if(!hydrologyFuture.isDone() && moistureMode == MoistureMode.PROVISIONAL){
+			return getProvisionalMoisture(x, y, z, precision);
+		}
+		return GeodesicGrid.getDefault().interpolate(getMonthlyMoistureField(month), x, y, z);
+	}
+	/** the moisture of every grid node in a month, which is simulated the first time it is needed */
+	private double[] getMonthlyMoistureField(int month){
+		double[] m = monthlyMoisture.get(month);
+		if(m == null){
+			hydrologyFuture.join();
+			// one month at a time, because each holds a copy of the mesh
+			synchronized(monthlyMoisture){
+				m = monthlyMoisture.get(month);
+				if(m == null){
+					m = simulateMonth(month);
+					monthlyMoisture.set(month, m);
+				}
+			}
+		}
+		return m;
+	}
+	/** 
+	 * runs the hydrology of a month on a copy of the mesh, starting from the 
+	 * annual solution
+	 */
+	private double[] simulateMonth(int month){
+		HydrologyNetworkSimulation sim = hydrologySim.copyMesh();
+		MeshNoise noise = getMeshNoise(sim);
+		double[] altitude = getNodeAltitude();
+		sim.initializeNodes(altitude, noise.roughness, nodeTemperature(noise, altitude, month), atmosphere);
+		if(hydrologySolver == HydrologySolver.STEADY_STATE){
+			sim.solveSteadyState(null);
+		} else {
+			sim.warmStartFrom(hydrologySim);
+			sim.runSimulation(hydrologyTolerance, null);
+		}
+		return sim.getPrecipitationValues();
+	}
+	/** 
+	 * moisture while the simulation is running (not cached, because the 
+	 * values are still changing)
+	 */
+	private double getProvisionalMoisture(double x, double y, double z, double precision) {
+		HydrologyNetworkSimulation sim = hydrologySim;
+		if(sim == null){
+			// network not built yet
+			return (getContinent(x, y, z, precision) <= 0) ? provisionalOceanMoisture : 0;
+		}
+		return sim.interpolatePrecipitationValueAt(new SpherePoint(longitudeOf(x, y, z), latitudeOf(x, y, z)));
+	}
 
 	/**
 	 * Calculates geography data at the given location, returning the 
@@ -293,16 +1398,277 @@ public class TectonicHydrologyPlanet extends AbstractPlanet{
 	 */
 	@Override
 	public double getTemperature(double longitude, double latitude, double precision) {
-		double x = radius * sin(longitude)*Math.cos(latitude);
-		double y = radius * sin(latitude);
-		double z = radius * cos(longitude)*Math.cos(latitude);
-		double h = Math.max(0, getAltitude(longitude, latitude, precision));
-		double t = (equitorialMeanAnnualTemperature + polarTemperatureDelta * (1 - cos(latitude))) 
-				+ temperatureNoise.getValue(x, y, z, precision)
-				+ temperatureDropPerMeter * h;
+		double cosLat = cos(latitude);
+		return getTemperature(sin(longitude)*cosLat, sin(latitude), cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Calculates the temperature at the location pointed to by a unit vector 
+	 * from the center of the planet. The temperature depends on the distance 
+	 * to the coast, which is measured on the hydrology mesh once per planet. 
+	 * If the hydrology network has not measured it yet, the first call 
+	 * samples the altitude at all of the mesh nodes (about 1 s on one CPU). 
+	 * Use <code>getProvisionalTemperature(...)</code> to avoid that cost.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The annual mean temperature (in °C) at this coordinate
+	 */
+	@Override
+	public double getTemperature(double x, double y, double z, double precision) {
+		if(temperatureModel == TemperatureModel.ENERGY_BALANCE){
+			return energyBalanceTemperature(x, y, z, getAltitude(x, y, z, precision));
+		}
+		return temperatureFrom(sqrt(x*x + z*z), // cos(latitude) of a unit vector
+				temperatureNoise.getValue(radius * x, radius * y, radius * z, precision), 
+				getAltitude(x, y, z, precision), 
+				PlanetChannel.continentality(getCoastDistance(x, y, z)));
+	}
+	/**
+	 * Calculates the temperature without measuring the distance to the 
+	 * coast: the continentality term (and, with the energy-balance model, 
+	 * the transport of heat) is only included if it has already been 
+	 * calculated, for example by the hydrology simulation. This is meant for 
+	 * previews of a planet whose hydrology is still running in the 
+	 * background. Once <code>getHydrologyFuture()</code> has completed, it 
+	 * is the same as <code>getTemperature(...)</code>.
+	 * @param longitude Longitude coordinate of the location of interest
+	 * @param latitude Latitude of the location of interest
+	 * @param precision Determines how fine-grained the calculation is (see 
+	 * <code>getTemperature(longitude, latitude, precision)</code>)
+	 * @return The annual mean temperature (in °C) at this coordinate
+	 */
+	public double getProvisionalTemperature(double longitude, double latitude, double precision) {
+		double cosLat = cos(latitude);
+		return getProvisionalTemperature(sin(longitude)*cosLat, sin(latitude), cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Calculates the temperature at the location pointed to by a unit vector 
+	 * from the center of the planet, without measuring the distance to the 
+	 * coast (see <code>getProvisionalTemperature(longitude, latitude, precision)</code>).
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return The annual mean temperature (in °C) at this coordinate
+	 */
+	public double getProvisionalTemperature(double x, double y, double z, double precision) {
+		return provisionalTemperature(x, y, z, precision, getAltitude(x, y, z, precision));
+	}
+	/** 
+	 * temperature from getEstimatedAltitude(...), without building the plates 
+	 * or measuring the distance to the coast (for SeedSearch)
+	 */
+	double getEstimatedTemperature(double x, double y, double z, double precision) {
+		return provisionalTemperature(x, y, z, precision, getEstimatedAltitude(x, y, z, precision));
+	}
+	/** 
+	 * temperature with the continentality (or the energy-balance model) 
+	 * only if the fields that they need have already been calculated
+	 */
+	private double provisionalTemperature(double x, double y, double z, double precision, double altitude) {
+		if(temperatureModel == TemperatureModel.ENERGY_BALANCE && seaLevelTemperature != null){
+			return energyBalanceTemperature(x, y, z, altitude);
+		}
+		double[] coast = coastDistance;
+		double continentality = (coast == null) ? 0 
+				: PlanetChannel.continentality(GeodesicGrid.getDefault().interpolate(coast, x, y, z));
+		return temperatureFrom(sqrt(x*x + z*z), 
+				temperatureNoise.getValue(radius * x, radius * y, radius * z, precision), 
+				altitude, continentality);
+	}
+	/**
+	 * Calculates the mean temperature of a month at the given location. 
+	 * Seasons are strongest deep inside continents far from the equator, 
+	 * and weaker and later at sea, because the ocean warms and cools slowly.
+	 * @param longitude Longitude coordinate of the location of interest
+	 * @param latitude Latitude of the location of interest
+	 * @param precision Determines how fine-grained the calculation is (see 
+	 * <code>getTemperature(longitude, latitude, precision)</code>)
+	 * @param month Month, from 0 (January) to 11 (December)
+	 * @return The mean temperature (in °C) of the month at this coordinate
+	 * @throws IllegalArgumentException Thrown if the month is not from 0 to 11
+	 */
+	public double getMonthlyTemperature(double longitude, double latitude, double precision, int month) {
+		double cosLat = cos(latitude);
+		return getMonthlyTemperature(sin(longitude)*cosLat, sin(latitude), cos(longitude)*cosLat, precision, month);
+	}
+	/**
+	 * Calculates the mean temperature of a month at the location pointed to 
+	 * by a unit vector from the center of the planet.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @param month Month, from 0 (January) to 11 (December)
+	 * @return The mean temperature (in °C) of the month at this coordinate
+	 * @throws IllegalArgumentException Thrown if the month is not from 0 to 11
+	 */
+	public double getMonthlyTemperature(double x, double y, double z, double precision, int month) {
+		PlanetChannel.checkMonth(month);
+		double altitude = getAltitude(x, y, z, precision);
+		double continentality = PlanetChannel.continentality(getCoastDistance(x, y, z));
+		return annualTemperature(x, y, z, precision, altitude, continentality)
+				+ seasons.getAnomaly(month, y, landWeight(altitude, continentality));
+	}
+	/** annual mean temperature, with the altitude and continentality already calculated */
+	private double annualTemperature(double x, double y, double z, double precision, double altitude, double continentality){
+		if(temperatureModel == TemperatureModel.ENERGY_BALANCE){
+			return energyBalanceTemperature(x, y, z, altitude);
+		}
+		return temperatureFrom(sqrt(x*x + z*z), 
+				temperatureNoise.getValue(radius * x, radius * y, radius * z, precision), 
+				altitude, continentality);
+	}
+	/** 
+	 * temperature from the energy-balance model: the sea-level temperature 
+	 * interpolated from the nodes, minus the drop with altitude
+	 */
+	private double energyBalanceTemperature(double x, double y, double z, double altitude){
+		return GeodesicGrid.getDefault().interpolate(getSeaLevelTemperatureField(), x, y, z) 
+				+ temperatureDropPerMeter * Math.max(0, altitude);
+	}
+	/** the sea-level temperature of every grid node, which is solved the first time it is needed */
+	private double[] getSeaLevelTemperatureField(){
+		double[] t = seaLevelTemperature;
+		if(t == null){
+			double[] coast = getCoastDistanceField();
+			synchronized(nodeFieldLock){
+				t = seaLevelTemperature;
+				if(t == null){
+					t = solveEnergyBalance(coast);
+					seaLevelTemperature = t;
+				}
+			}
+		}
+		return t;
+	}
+	/**
+	 * Solves the diffusive energy-balance model for the sea-level temperature 
+	 * T of every node: absorbed sunlight + local forcing = outgoing radiation 
+	 * (A + B T) - transport (D laplacian(T)). The local forcing is B times the 
+	 * temperature noise and continental terms of the zonal model, so those 
+	 * patterns are still there, but spread out by the transport of heat. A 
+	 * is chosen so that the global mean temperature is the same as that of 
+	 * the zonal model at sea level.
+	 */
+	private double[] solveEnergyBalance(double[] coastDistance){
+		final GeodesicGrid grid = GeodesicGrid.getDefault();
+		final int n = grid.getNumberNodes();
+		final double precision = Math.sqrt((4*Math.PI*radius*radius) / (double)n);
+		final double[] source = new double[n];
+		IntStream.range(0, n).parallel().forEach((int i)->{
+			double x = grid.nx[i], y = grid.ny[i], z = grid.nz[i];
+			double cosLat = sqrt(x*x + z*z);
+			double p2 = 1.5 * y * y - 0.5;
+			double absorbed = (meanCoAlbedo + polarCoAlbedo * p2) * seasons.getAnnualInsolation(y);
+			double local = temperatureNoise.getValue(radius * x, radius * y, radius * z, precision) 
+					+ PlanetChannel.continentality(coastDistance[i]) * (continentalEquatorialDelta 
+						+ (continentalPolarDelta - continentalEquatorialDelta) * (1 - cosLat));
+			source[i] = absorbed + radiativeDamping * local;
+		});
+		double meanSource = 0;
+		for(int i = 0; i < n; i++){
+			meanSource += source[i] / n;
+		}
+		// mean of 1 - cos(latitude) over a sphere is 1 - pi/4
+		double meanTemperature = equitorialMeanAnnualTemperature + polarTemperatureDelta * (1 - Math.PI / 4);
+		double outgoingIntercept = meanSource - radiativeDamping * meanTemperature;
+		double[] rhs = new double[n];
+		double[] diagonal = new double[n];
+		for(int i = 0; i < n; i++){
+			rhs[i] = source[i] - outgoingIntercept;
+			diagonal[i] = radiativeDamping;
+		}
+		return grid.solveDiffusion(diagonal, grid.diffusionCoupling(heatDiffusivity), rhs, null, 1e-9, 1000);
+	}
+	/** how much the seasons of a location are like those of a continental interior (0 at sea) */
+	private double landWeight(double altitude, double continentality){
+		return (altitude > 0) ? coastalSeasonality + (1 - coastalSeasonality) * continentality : 0;
+	}
+	/** 
+	 * temperature from already calculated latitude, noise, altitude and 
+	 * continentality values (continental interiors are a little warmer than 
+	 * the coast near the equator and much colder near the poles)
+	 */
+	private double temperatureFrom(double cosLat, double noise, double altitude, double continentality) {
+		double h = Math.max(0, altitude);
+		double t = (equitorialMeanAnnualTemperature + polarTemperatureDelta * (1 - cosLat)) 
+				+ noise
+				+ temperatureDropPerMeter * h
+				+ continentality * (continentalEquatorialDelta 
+						+ (continentalPolarDelta - continentalEquatorialDelta) * (1 - cosLat));
 		return t;
 	}
 	
+	/**
+	 * Gets the distance to the nearest coast, interpolated from the distance 
+	 * field of the GeodesicGrid nodes (measured once per planet).
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @return The distance in meters, positive on land and negative at sea
+	 */
+	private double getCoastDistance(double x, double y, double z) {
+		return GeodesicGrid.getDefault().interpolate(getCoastDistanceField(), x, y, z);
+	}
+	/** the coast distance of every grid node, which is measured the first time it is needed */
+	private double[] getCoastDistanceField() {
+		double[] d = coastDistance;
+		if(d == null){
+			double[] altitude = getNodeAltitude();
+			synchronized(nodeFieldLock){
+				d = coastDistance;
+				if(d == null){
+					d = measureCoastDistance(altitude);
+					coastDistance = d;
+				}
+			}
+		}
+		return d;
+	}
+	/** 
+	 * the altitude of every grid node, which is sampled the first time it is 
+	 * needed (the hydrology network sets it from the noise that it has 
+	 * already sampled)
+	 */
+	private double[] getNodeAltitude() {
+		double[] a = nodeAltitude;
+		if(a == null){
+			// sampled outside of the lock so that the parallel workers never 
+			// wait on it; if two threads get here, the first result is kept
+			GeodesicGrid grid = GeodesicGrid.getDefault();
+			final int n = grid.getNumberNodes();
+			final double precision = Math.sqrt((4*Math.PI*radius*radius) / (double)n);
+			final double[] altitude = new double[n];
+			IntStream.range(0, n).parallel().forEach((int i)->{
+				altitude[i] = getAltitude(grid.nx[i], grid.ny[i], grid.nz[i], precision);
+			});
+			synchronized(nodeFieldLock){
+				a = nodeAltitude;
+				if(a == null){
+					a = altitude;
+					nodeAltitude = a;
+				}
+			}
+		}
+		return a;
+	}
+	/** signed distance to the coast (in meters) of every grid node */
+	private double[] measureCoastDistance(double[] altitude) {
+		GeodesicGrid grid = GeodesicGrid.getDefault();
+		final int n = grid.getNumberNodes();
+		int[] land = new int[n];
+		for(int i = 0; i < n; i++){
+			land[i] = (altitude[i] > 0) ? 1 : 0;
+		}
+		double[] d = grid.distanceToBoundary(land);
+		for(int i = 0; i < n; i++){
+			d[i] = (land[i] == 1) ? radius * d[i] : -radius * d[i];
+		}
+		return d;
+	}
+	
 	/**
 	 * Calculates geography data at the given location, returning the 
 	 * continent score at the given coordinate.
@@ -317,10 +1683,200 @@ public class TectonicHydrologyPlanet extends AbstractPlanet{
 	 * value indicates ocean/sea
 	 */
 	protected double getContinent(double longitude, double latitude, double precision) {
-		double x = radius * sin(longitude)*Math.cos(latitude);
-		double y = radius * sin(latitude);
-		double z = radius * cos(longitude)*Math.cos(latitude);
-		return continentNoise.getValue(x, y, z, precision) - oceanBias;
+		double cosLat = cos(latitude);
+		return getContinent(sin(longitude)*cosLat, sin(latitude), cos(longitude)*cosLat, precision);
+	}
+	/**
+	 * Calculates the continent score at the location pointed to by a unit 
+	 * vector from the center of the planet.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @param precision Determines how fine-grained the calculation is.
+	 * @return A number where a positive value indicates land and a negative 
+	 * value indicates ocean/sea
+	 */
+	protected double getContinent(double x, double y, double z, double precision) {
+		return continentNoise.getValue(radius * x, radius * y, radius * z, precision) - oceanBias;
+	}
+
+	/**
+	 * Gets the channel graph of this planet, in which roughness is calculated 
+	 * from the PLATE_BOUNDARY_DISTANCE channel, altitude from the CONTINENT 
+	 * and ROUGHNESS channels and temperature from altitude and 
+	 * CONTINENTALITY, so that sampling all channels at a location calculates 
+	 * each noise function once. COAST_DISTANCE is interpolated from a 
+	 * distance field that is measured once, on the hydrology mesh. This 
+	 * planet also defines the RIVER and LAKE channels, 
+	 * from a drainage network that is built on the hydrology mesh when the 
+	 * simulation finishes (while moisture is provisional, there are no rivers 
+	 * or lakes).
+	 * @return The channel graph of this planet
+	 */
+	@Override
+	public ChannelGraph getChannelGraph(){
+		return channelGraph;
+	}
+	
+	private ChannelGraph createChannelGraph(){
+		ChannelGraph graph = ChannelGraph.DEFAULT
+				.define(CONTINENT, (ChannelSample s)->getContinent(s.getX(), s.getY(), s.getZ(), s.getPrecision()))
+				.define(PLATE, (ChannelSample s)->getPlates().getPlate(s.getX(), s.getY(), s.getZ()))
+				.define(PLATE_BOUNDARY_DISTANCE, (ChannelSample s)->getPlates().getBoundaryDistance(s.getX(), s.getY(), s.getZ()))
+				.define(PlanetChannel.ROUGHNESS, (ChannelSample s)->roughnessFrom(s.get(PLATE_BOUNDARY_DISTANCE), 
+						s.getX(), s.getY(), s.getZ(), s.getPrecision()), 
+						PLATE_BOUNDARY_DISTANCE)
+				.define(PlanetChannel.ALTITUDE, (ChannelSample s)->altitudeFrom(s.get(CONTINENT), s.get(PlanetChannel.ROUGHNESS), 
+						getCrinkle(s.getX(), s.getY(), s.getZ(), s.getPrecision())), 
+						CONTINENT, PlanetChannel.ROUGHNESS)
+				.define(PlanetChannel.COAST_DISTANCE, (ChannelSample s)->getCoastDistance(s.getX(), s.getY(), s.getZ()))
+				.define(PlanetChannel.TEMPERATURE, (ChannelSample s)->(temperatureModel == TemperatureModel.ENERGY_BALANCE)
+						? energyBalanceTemperature(s.getX(), s.getY(), s.getZ(), s.get(PlanetChannel.ALTITUDE))
+						: temperatureFrom(sqrt(s.getX()*s.getX() + s.getZ()*s.getZ()), 
+							temperatureNoise.getValue(radius * s.getX(), radius * s.getY(), radius * s.getZ(), s.getPrecision()), 
+							s.get(PlanetChannel.ALTITUDE), s.get(PlanetChannel.CONTINENTALITY)), 
+						PlanetChannel.ALTITUDE, PlanetChannel.CONTINENTALITY)
+				.define(PlanetChannel.MOISTURE, (ChannelSample s)->getMoisture(s.getX(), s.getY(), s.getZ(), s.getPrecision()))
+				.define(PlanetChannel.RIVER, (ChannelSample s)->{
+						DrainageNetwork d = getDrainageNetwork();
+						return (d == null) ? 0 : d.getRiverDischarge(s.getX(), s.getY(), s.getZ(), s.getPrecision());
+					})
+				.define(PlanetChannel.LAKE, (ChannelSample s)->{
+						DrainageNetwork d = getDrainageNetwork();
+						if(d == null) return Double.NEGATIVE_INFINITY;
+						return d.getLakeLevel(s.getX(), s.getY(), s.getZ()) - s.get(PlanetChannel.ALTITUDE);
+					}, PlanetChannel.ALTITUDE);
+		for(int m = 0; m < PlanetChannel.MONTHS_PER_YEAR; m++){
+			final int month = m;
+			graph = graph.define(PlanetChannel.monthlyTemperature(month), (ChannelSample s)->s.get(PlanetChannel.TEMPERATURE) 
+							+ seasons.getAnomaly(month, s.getY(), landWeight(s.get(PlanetChannel.ALTITUDE), s.get(PlanetChannel.CONTINENTALITY))), 
+						PlanetChannel.TEMPERATURE, PlanetChannel.ALTITUDE, PlanetChannel.CONTINENTALITY)
+					.define(PlanetChannel.monthlyMoisture(month), 
+						(ChannelSample s)->getMonthlyMoisture(s.getX(), s.getY(), s.getZ(), s.getPrecision(), month));
+		}
+		return graph;
+	}
+	
+	/** 
+	 * the river and lake network, waiting for the hydrology unless moisture 
+	 * is provisional (null if it is still running)
+	 */
+	private DrainageNetwork getDrainageNetwork(){
+		if(!hydrologyFuture.isDone() && moistureMode == MoistureMode.PROVISIONAL){
+			return null;
+		}
+		hydrologyFuture.join();
+		return drainage;
+	}
+	
+	/** the tectonic plates, which are generated the first time they are needed */
+	private TectonicPlates getPlates(){
+		TectonicPlates p = plates;
+		if(p == null){
+			synchronized(platesLock){
+				p = plates;
+				if(p == null){
+					p = new TectonicPlates(plateSeed, radius, numPlates);
+					plates = p;
+				}
+			}
+		}
+		return p;
+	}
+	/**
+	 * Gets the number of tectonic plates of this planet (see the PLATE 
+	 * channel).
+	 * @return The number of plates
+	 */
+	public int getNumberOfPlates(){
+		return numPlates;
+	}
+	
+	/**
+	 * Gets the land masses (continents and islands) and bodies of water 
+	 * (oceans, seas and lakes below sea level) of this planet, which are 
+	 * found by labelling the connected land and water nodes of the 
+	 * hydrology mesh the first time that they are needed. This does not 
+	 * wait for the hydrology simulation and takes a few milliseconds (plus 
+	 * a fraction of a second to sample the altitude of the nodes, if the 
+	 * hydrology network has not already done so), so it can be used to 
+	 * filter seeds (e.g. for a planet with one super-continent) or to place 
+	 * labels on a map.
+	 * @return An unmodifiable list of all regions, largest first
+	 */
+	public List<SurfaceRegion> getRegions(){
+		return getRegionMap().regions;
+	}
+	/**
+	 * Gets the land masses (continents and islands) of this planet (see 
+	 * <code>getRegions()</code>).
+	 * @return The land masses, largest first
+	 */
+	public List<SurfaceRegion> getLandMasses(){
+		return getRegions().stream().filter(SurfaceRegion::isLand).collect(Collectors.toList());
+	}
+	/**
+	 * Gets the bodies of water (oceans and seas) of this planet (see 
+	 * <code>getRegions()</code>).
+	 * @return The bodies of water, largest first
+	 */
+	public List<SurfaceRegion> getWaterBodies(){
+		return getRegions().stream().filter((SurfaceRegion r)->!r.isLand()).collect(Collectors.toList());
+	}
+	/**
+	 * Gets the land mass or body of water at a location (see 
+	 * <code>getRegions()</code>). 
+	 * @param longitude Longitude coordinate of the location of interest
+	 * @param latitude Latitude of the location of interest
+	 * @return The region of the nearest node of the hydrology mesh
+	 */
+	public SurfaceRegion getRegion(double longitude, double latitude){
+		double cosLat = Math.cos(latitude);
+		RegionMap m = getRegionMap();
+		int node = GeodesicGrid.getDefault().findNearestNode(Math.sin(longitude)*cosLat, Math.sin(latitude), Math.cos(longitude)*cosLat);
+		return m.regions.get(m.regionOfNode[node]);
+	}
+	/** the regions of this planet, which are labelled the first time they are needed */
+	private RegionMap getRegionMap(){
+		RegionMap m = regionMap;
+		if(m == null){
+			double[] altitude = getNodeAltitude();
+			synchronized(nodeFieldLock){
+				m = regionMap;
+				if(m == null){
+					m = new RegionMap(altitude, radius);
+					regionMap = m;
+				}
+			}
+		}
+		return m;
+	}
+	/** connected land masses and bodies of water of the GeodesicGrid nodes */
+	private static final class RegionMap{
+		/** index (in regions) of the region of each node */
+		final int[] regionOfNode;
+		/** regions, largest first */
+		final List<SurfaceRegion> regions;
+		RegionMap(double[] nodeAltitude, double radius){
+			GeodesicGrid grid = GeodesicGrid.getDefault();
+			final int n = grid.getNumberNodes();
+			int[] land = new int[n];
+			boolean[] isLand = new boolean[n];
+			for(int i = 0; i < n; i++){
+				isLand[i] = nodeAltitude[i] > 0;
+				land[i] = isLand[i] ? 1 : 0;
+			}
+			regionOfNode = grid.labelComponents(land);
+			int numComponents = 0;
+			for(int i = 0; i < n; i++){
+				numComponents = Math.max(numComponents, regionOfNode[i] + 1);
+			}
+			int[] order = new int[numComponents];
+			regions = SurfaceRegion.measure(grid, regionOfNode, isLand, radius, order);
+			for(int i = 0; i < n; i++){
+				regionOfNode[i] = order[regionOfNode[i]];
+			}
+		}
 	}
 
 /**
@@ -334,62 +1890,148 @@ public class TectonicHydrologyPlanet extends AbstractPlanet{
 
 	private void initialize() {
 		// set initial values
-		hydrologySim = HydrologyNetworkSimulation.createHydrologyNetwork(this, atmosphere);
+		hydrologySim = buildHydrologyNetwork(null, ()->false, null, null, null);
+	}
+	
+	/** 
+	 * builds the hydrology network (or copies the template's mesh, if there 
+	 * is one) and sets its initial values from noise sampled at each node 
+	 * (the noise is kept for withParameters(...)); samplingStarted (if not 
+	 * null) is run between the two
+	 */
+	private HydrologyNetworkSimulation buildHydrologyNetwork(HydrologyNetworkSimulation meshTemplate, 
+			BooleanSupplier abortSignal, DoubleAdder meshProgress, Runnable samplingStarted, 
+			DoubleAdder samplingProgress){
+		HydrologyNetworkSimulation sim;
+		if(meshTemplate == null){
+			sim = HydrologyNetworkSimulation.createEmptyNetwork(abortSignal, meshProgress);
+		} else {
+			sim = meshTemplate.copyMesh();
+			if(meshProgress != null) meshProgress.add(1);
+		}
+		if(samplingStarted != null) samplingStarted.run();
+		MeshNoise noise = sampleMeshNoise(sim, abortSignal, samplingProgress);
+		initializeHydrology(sim, noise);
+		meshNoise = noise;
+		return sim;
+	}
+	
+	/** 
+	 * the noise at the hydrology nodes, which is sampled (at the nodes of 
+	 * <code>sim</code>) the first time it is needed if the hydrology was 
+	 * loaded from a file
+	 */
+	private MeshNoise getMeshNoise(HydrologyNetworkSimulation sim){
+		MeshNoise noise = meshNoise;
+		if(noise == null){
+			// sampled outside of the lock, as in getNodeAltitude()
+			MeshNoise sampled = sampleMeshNoise(sim, ()->false, null);
+			synchronized(nodeFieldLock){
+				noise = meshNoise;
+				if(noise == null){
+					noise = sampled;
+					meshNoise = noise;
+				}
+			}
+		}
+		return noise;
+	}
+	/** samples the noise layers at every node of an (empty) network */
+	private MeshNoise sampleMeshNoise(HydrologyNetworkSimulation sim, BooleanSupplier abortSignal, DoubleAdder progressTracker){
+		final int n = (int)sim.getNumberNodes();
+		final double precision = Math.sqrt((4*Math.PI*radius*radius) / (double)n);
+		final double progressPerNode = 1.0 / n;
+		final MeshNoise noise = new MeshNoise(n);
+		IntStream.range(0, n).parallel().forEach((int i)->{
+			if(abortSignal.getAsBoolean()){
+				throw new CancellationException("Hydrology network creation was aborted");
+			}
+			Point3D v = sim.getNodeVector(i);
+			noise.continent[i] = continentNoise.getValue(radius * v.x, radius * v.y, radius * v.z, precision);
+			noise.roughness[i] = getRoughness(v.x, v.y, v.z, precision);
+			noise.crinkle[i] = getCrinkle(v.x, v.y, v.z, precision);
+			noise.temperature[i] = temperatureNoise.getValue(radius * v.x, radius * v.y, radius * v.z, precision);
+			noise.cosLatitude[i] = sqrt(v.x*v.x + v.z*v.z);
+			if(progressTracker != null) progressTracker.add(progressPerNode);
+		});
+		return noise;
+	}
+	
+	/** sets the initial hydrology values from this planet's parameters */
+	private void initializeHydrology(HydrologyNetworkSimulation sim, MeshNoise noise){
+		final int n = noise.continent.length;
+		final double[] altitude = new double[n];
+		for(int i = 0; i < n; i++){
+			altitude[i] = altitudeFrom(noise.continent[i] - oceanBias, noise.roughness[i], noise.crinkle[i]);
+		}
+		synchronized(nodeFieldLock){
+			if(nodeAltitude == null) nodeAltitude = altitude;
+		}
+		sim.initializeNodes(altitude, noise.roughness, nodeTemperature(noise, altitude, -1), atmosphere);
+	}
+	
+	/** 
+	 * temperature of each node, as the annual mean (month -1) or the mean of 
+	 * a month (0-11)
+	 */
+	private double[] nodeTemperature(MeshNoise noise, double[] altitude, int month){
+		GeodesicGrid grid = GeodesicGrid.getDefault();
+		final int n = altitude.length;
+		final double[] temperature = new double[n];
+		final double[] seaLevel = (temperatureModel == TemperatureModel.ENERGY_BALANCE) 
+				? getSeaLevelTemperatureField() : null;
+		// the mesh nodes are the GeodesicGrid nodes, so the field is read directly
+		final double[] coast = getCoastDistanceField();
+		for(int i = 0; i < n; i++){
+			double continentality = PlanetChannel.continentality(coast[i]);
+			if(seaLevel != null){
+				temperature[i] = seaLevel[i] + temperatureDropPerMeter * Math.max(0, altitude[i]);
+			} else {
+				temperature[i] = temperatureFrom(noise.cosLatitude[i], noise.temperature[i], altitude[i], continentality);
+			}
+			if(month >= 0){
+				temperature[i] += seasons.getAnomaly(month, grid.ny[i], landWeight(altitude[i], continentality));
+			}
+		}
+		return temperature;
+	}
+	
+	/**
+	 * Noise values at the hydrology nodes that do not depend on the ocean 
+	 * fraction, atmosphere or solar flux (only on the seed and radius)
+	 */
+	private static final class MeshNoise{
+		/** continent noise, before the ocean bias is subtracted */
+		final double[] continent;
+		final double[] roughness;
+		final double[] crinkle;
+		/** temperature noise */
+		final double[] temperature;
+		final double[] cosLatitude;
+		MeshNoise(int numNodes){
+			continent = new double[numNodes];
+			roughness = new double[numNodes];
+			crinkle = new double[numNodes];
+			temperature = new double[numNodes];
+			cosLatitude = new double[numNodes];
+		}
 	}
 
 	private void postInit() {
-		// nothing to do
+		drainage = DrainageNetwork.create(this, hydrologySim, getNodeAltitude());
+		hydrologyFuture.complete(this);
 	}
 	/**
-	 * calculates the fraction of the planet that is ocean, as a percent.
+	 * calculates the fraction of the planet that is ocean, as a percent. If 
+	 * the hydrology is running in the background, this method waits for it 
+	 * to finish.
 	 * @return The percentage of the planet that is ocean (0-100)
 	 */
 	public double percentOcean(){
+		hydrologyFuture.join();
 		return 100 * hydrologySim.getNumberWaterSourceNodes() / (double)hydrologySim.getNumberNodes();
 	}
 	
-	private void initNoiseLayers(String seed) {
-		// init noise layers
-		DefaultRandomNumberGenerator prng = new DefaultRandomNumberGenerator(
-				stringHashCode(seed)
-		);
-		continentNoise = new PlanetaryScaling3DCoordinateNoiseGenerator(
-				prng.nextLong(),
-				prng.nextLong(),
-				prng.nextLong(),
-				prng.nextLong(),
-				continentInitialPrecision,
-				1.0);
-		mountainRangeNoise = new PlanetaryScaling3DCoordinateNoiseGenerator(
-				prng.nextLong(),
-				prng.nextLong(),
-				prng.nextLong(),
-				prng.nextLong(),
-				minPrecision,
-				1.0);
-		mountainMagnitudeNoise = new PlanetaryScaling3DCoordinateNoiseGenerator(
-				prng.nextLong(),
-				prng.nextLong(),
-				prng.nextLong(),
-				prng.nextLong(),
-				minPrecision,
-				1.0);
-		altitudeNoise = new PlanetaryScaling3DCoordinateNoiseGenerator(
-				prng.nextLong(),
-				prng.nextLong(),
-				prng.nextLong(),
-				prng.nextLong(),
-				minPrecision,
-				1.0);
-		temperatureNoise = new PlanetaryScaling3DCoordinateNoiseGenerator(
-				prng.nextLong(),
-				prng.nextLong(),
-				prng.nextLong(),
-				prng.nextLong(),
-				minPrecision,
-				temperatureNoiseRange);
-	}
-	
 /** provided for optimization purposes */
 	private double sqrt(double a) {
 		return Math.sqrt(a);
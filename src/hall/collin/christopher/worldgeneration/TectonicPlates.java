@@ -0,0 +1,161 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration;
+
+import hall.collin.christopher.worldgeneration.math.DefaultRandomNumberGenerator;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Tectonic plates on the nodes of the GeodesicGrid. The plates are a 
+ * spherical Voronoi partition of randomly placed plate centers, grown by a 
+ * multi-source flood fill over the grid. Each plate grows at its own speed 
+ * (so plates have different sizes) and the cost of crossing a node varies 
+ * with a noise layer (so the boundaries are irregular). The fill is a 
+ * parallel relaxation (see <code>GeodesicGrid.relax(...)</code>), so the 
+ * result does not depend on the number of threads. The distance from every 
+ * node to the nearest plate boundary is then found with 
+ * <code>GeodesicGrid.distanceToBoundary(...)</code>.
+ * <p>
+ * Look-ups are O(1): the nearest node is found through the grid's look-up 
+ * table, and the boundary distance is interpolated from it and its 
+ * neighbors.
+ * </p>
+ * @author CCHall
+ */
+final class TectonicPlates {
+	/** how much the noise layer changes the cost of crossing a node (0 to 1) */
+	private static final double IRREGULARITY = 0.75;
+	/** slowest and fastest growth speed of a plate (relative) */
+	private static final double MIN_SPEED = 0.6, MAX_SPEED = 1.4;
+	/** finest detail of the boundary noise, on a unit sphere */
+	private static final double NOISE_PRECISION = 0.25;
+	
+	private final GeodesicGrid grid;
+	private final double radius;
+	private final int numPlates;
+	/** plate of each node */
+	private final int[] plate;
+	/** distance from each node to the nearest plate boundary, on a unit sphere */
+	private final double[] boundaryDistance;
+	
+	/**
+	 * Generates the plates of a planet.
+	 * @param seed Seed for the plate centers, speeds and boundary noise
+	 * @param radius Radius of the planet, in meters
+	 * @param numPlates Number of plates
+	 */
+	TectonicPlates(long seed, double radius, int numPlates){
+		if(numPlates < 2) throw new IllegalArgumentException("A planet needs at least 2 plates");
+		this.grid = GeodesicGrid.getDefault();
+		this.radius = radius;
+		this.numPlates = numPlates;
+		final int n = grid.getNumberNodes();
+		if(numPlates > n) throw new IllegalArgumentException("More plates than grid nodes");
+		DefaultRandomNumberGenerator prng = new DefaultRandomNumberGenerator(seed);
+		// plate centers, spread out by rejecting centers that are too close together
+		int[] centers = new int[numPlates];
+		double minSeparation = 2 / Math.sqrt(numPlates);
+		for(int p = 0; p < numPlates; p++){
+			int candidate;
+			int attempts = 0;
+			do{
+				candidate = prng.nextInt(n);
+				attempts++;
+			} while(attempts < 100 && tooClose(candidate, centers, p, minSeparation));
+			centers[p] = candidate;
+		}
+		final double[] speed = new double[numPlates];
+		for(int p = 0; p < numPlates; p++){
+			speed[p] = prng.nextDouble(MIN_SPEED, MAX_SPEED);
+		}
+		PlanetaryScaling3DCoordinateNoiseGenerator noise = new PlanetaryScaling3DCoordinateNoiseGenerator(
+				prng.nextLong(), prng.nextLong(), prng.nextLong(), prng.nextLong(), 1.0, 1.0);
+		final double[] resistance = new double[n];
+		IntStream.range(0, n).parallel().forEach((int i)->{
+			double v = noise.getValue(grid.nx[i], grid.ny[i], grid.nz[i], NOISE_PRECISION);
+			resistance[i] = 1 + IRREGULARITY * Math.max(-1, Math.min(1, v));
+		});
+		plate = new int[n];
+		growPlates(centers, speed, resistance);
+		boundaryDistance = grid.distanceToBoundary(plate);
+	}
+	
+	private boolean tooClose(int candidate, int[] centers, int count, double minSeparation){
+		for(int p = 0; p < count; p++){
+			if(grid.distance(candidate, centers[p]) < minSeparation) return true;
+		}
+		return false;
+	}
+	
+	/** multi-source flood fill from the plate centers */
+	private void growPlates(int[] centers, double[] speed, double[] resistance){
+		final int n = grid.getNumberNodes();
+		double[] cost = new double[n];
+		Arrays.fill(cost, Double.POSITIVE_INFINITY);
+		Arrays.fill(plate, -1);
+		for(int p = 0; p < centers.length; p++){
+			cost[centers[p]] = 0;
+			plate[centers[p]] = p;
+		}
+		grid.relax(cost, plate, speed, resistance);
+	}
+	
+	/**
+	 * Gets the number of plates.
+	 * @return The number of plates
+	 */
+	int getNumberOfPlates(){
+		return numPlates;
+	}
+	/**
+	 * Gets the plate at a location.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @return The index of the plate, from 0 to 
+	 * <code>getNumberOfPlates()-1</code>
+	 */
+	int getPlate(double x, double y, double z){
+		return plate[grid.findNearestNode(x, y, z)];
+	}
+	/**
+	 * Gets the distance from a location to the nearest plate boundary, 
+	 * interpolated between the nearest grid nodes.
+	 * @param x X component of a unit vector
+	 * @param y Y component of a unit vector (the polar axis)
+	 * @param z Z component of a unit vector
+	 * @return The distance, in meters
+	 */
+	double getBoundaryDistance(double x, double y, double z){
+		return radius * grid.interpolate(boundaryDistance, x, y, z);
+	}
+}
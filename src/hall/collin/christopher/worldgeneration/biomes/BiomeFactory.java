@@ -32,6 +32,7 @@ along with CCH World Factory - GPL.  If not, see
 package hall.collin.christopher.worldgeneration.biomes;
 
 import hall.collin.christopher.worldgeneration.AbstractPlanet;
+import hall.collin.christopher.worldgeneration.ChannelSample;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
@@ -58,6 +59,17 @@ public abstract class BiomeFactory {
 	 * @return A biome instance describing the biome at this location.
 	 */
 	public abstract Biome getBiome(AbstractPlanet planet, double longitude, double latitude, double precision);
+	/**
+	 * Calculates the biome at the location of a ChannelSample, re-using any 
+	 * channels that have already been read from the sample. The default 
+	 * implementation calls <code>getBiome(planet, longitude, latitude, precision)</code>; 
+	 * biome factories that read several channels should override it.
+	 * @param sample A sample of a planet
+	 * @return A biome instance describing the biome at this location.
+	 */
+	public Biome getBiome(ChannelSample sample){
+		return getBiome(sample.getPlanet(), sample.getLongitude(), sample.getLatitude(), sample.getPrecision());
+	}
 	
 	
 }
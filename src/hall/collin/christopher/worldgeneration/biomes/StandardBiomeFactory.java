@@ -32,6 +32,8 @@ along with CCH World Factory - GPL.  If not, see
 package hall.collin.christopher.worldgeneration.biomes;
 
 import hall.collin.christopher.worldgeneration.AbstractPlanet;
+import hall.collin.christopher.worldgeneration.ChannelSample;
+import hall.collin.christopher.worldgeneration.PlanetChannel;
 import hall.collin.christopher.worldgeneration.graphics.PlanetPainter;
 import java.awt.Color;
 import java.awt.Graphics2D;
@@ -158,6 +160,7 @@ public class StandardBiomeFactory extends BiomeFactory {
 	private static final double maxPlantTemp = 40;// C
 	private static final double minPlantTemp = -10;// C
 	private static final double plantMinMoisture = -10; // (cm annual precip.) - (cm annual evap.)
+	private static final double swampMargin = 15; // m above the surface of a lake
 	
 	private static final double moistureSaturation = 300; // (cm annual precip.) - (cm annual evap.)
 	
@@ -226,7 +229,9 @@ public class StandardBiomeFactory extends BiomeFactory {
 	 * non-Earthly biomes are included (such as "Moonscape") to account for 
 	 * inhospitable planets. The biome definitions are focused on terrestrial 
 	 * biomes important to fantasy worlds with some simplification, so all 
-	 * ocean biomes are lumped together into a single "Marine" biome.
+	 * ocean biomes are lumped together into a single "Marine" biome. On 
+	 * planets that simulate rivers and lakes (the RIVER and LAKE channels), 
+	 * these are "Surface Water" and the low ground around lakes is "Swamp".
 	 * @param planet The planet of interest
 	 * @param longitude Longitude coordinate of the location of interest
 	 * @param latitude Latitude of the location of interest
@@ -235,9 +240,19 @@ public class StandardBiomeFactory extends BiomeFactory {
 	 */
 	@Override
 	public StandardBiomeFactory.StandardBiome getBiome(AbstractPlanet planet, double longitude, double latitude, double precision) {
-		double altitude = planet.getAltitude(longitude, latitude, precision);
-		double temperature = planet.getTemperature(longitude, latitude, precision);
-		double moisture = planet.getMoisture(longitude, latitude, precision);
+		return getBiome(planet.sample(longitude, latitude, precision));
+	}
+	/**
+	 * Calculates the biome at the location of a ChannelSample (see 
+	 * <code>getBiome(planet, longitude, latitude, precision)</code>).
+	 * @param sample A sample of a planet
+	 * @return A biome instance describing the biome at this location.
+	 */
+	@Override
+	public StandardBiomeFactory.StandardBiome getBiome(ChannelSample sample) {
+		double altitude = sample.get(PlanetChannel.ALTITUDE);
+		double temperature = sample.get(PlanetChannel.TEMPERATURE);
+		double moisture = sample.get(PlanetChannel.MOISTURE);
 		// ocean level check
 		if(altitude < 0){
 			if(temperature < -15){
@@ -246,7 +261,17 @@ public class StandardBiomeFactory extends BiomeFactory {
 			}
 			return MARINE;
 		} else {
-			return biomeFromTempRainfall(temperature,moisture);
+			StandardBiomeFactory.StandardBiome biome = biomeFromTempRainfall(temperature,moisture);
+			// rivers and lakes (NaN on planets without them, which fails these tests)
+			double lakeDepth = sample.get(PlanetChannel.LAKE);
+			if(lakeDepth > 0 || sample.get(PlanetChannel.RIVER) > 0){
+				return (temperature < -15) ? ICESHEET : SURFACE_WATER;
+			}
+			if(lakeDepth > -swampMargin && biome.getTScore() == 3 && biome != DESERT){
+				// low ground around a lake
+				return SWAMP;
+			}
+			return biome;
 		}
 	}
 	
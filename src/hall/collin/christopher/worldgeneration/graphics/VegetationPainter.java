@@ -31,6 +31,8 @@ along with CCH World Factory - GPL.  If not, see
 package hall.collin.christopher.worldgeneration.graphics;
 
 import hall.collin.christopher.worldgeneration.AbstractPlanet;
+import hall.collin.christopher.worldgeneration.ChannelSample;
+import hall.collin.christopher.worldgeneration.PlanetChannel;
 import hall.collin.christopher.worldgeneration.math.BarycentricInterpolator;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
@@ -84,14 +86,15 @@ public class VegetationPainter extends PlanetPainter {
 	 */
 	@Override
 	public int getColor(AbstractPlanet planet, double longitude, double latitude, double precision, int pixelX, int pixelY) {
-		if (planet.getAltitude(longitude, latitude, precision) < 0) {
-			if(planet.getTemperature(longitude, latitude, precision) < -10) {
+		ChannelSample sample = planet.sample(longitude, latitude, precision);
+		if (sample.get(PlanetChannel.ALTITUDE) < 0) {
+			if(sample.get(PlanetChannel.TEMPERATURE) < -10) {
 				return seaIceColor;
 			} else {
 				return oceanColor;
 			}
 		}
-		return interpolateColor(planet.getMoisture(longitude, latitude, precision), planet.getTemperature(longitude, latitude, precision));
+		return interpolateColor(sample.get(PlanetChannel.MOISTURE), sample.get(PlanetChannel.TEMPERATURE));
 	}
 
 	@Deprecated
@@ -0,0 +1,143 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration.math;
+
+import java.util.function.IntConsumer;
+
+/**
+ * A set of nearly evenly spaced points on a unit sphere, made by placing 
+ * points along a spiral whose turns are spaced by the golden angle. Every 
+ * point represents the same area (4&pi;/N steradians), so averages and 
+ * counts over these points are area-weighted without any correction, unlike 
+ * a longitude-latitude grid.
+ * <p>
+ * The points are ordered by decreasing y coordinate (from the north pole to 
+ * the south pole), which makes finding the neighbors of a point fast.
+ * </p>
+ * @author CCHall
+ */
+public final class FibonacciSphere {
+	private static final double GOLDEN_ANGLE = Math.PI * (3 - Math.sqrt(5));
+	
+	private final int numPoints;
+	private final double[] x;
+	private final double[] y;
+	private final double[] z;
+	/**
+	 * Creates a point set.
+	 * @param numPoints Number of points on the sphere (at least 1)
+	 */
+	public FibonacciSphere(int numPoints){
+		if(numPoints < 1) throw new IllegalArgumentException("Number of points must be at least 1");
+		this.numPoints = numPoints;
+		x = new double[numPoints];
+		y = new double[numPoints];
+		z = new double[numPoints];
+		for(int i = 0; i < numPoints; i++){
+			double py = 1 - (2.0 * i + 1) / numPoints;
+			double r = Math.sqrt(1 - py * py);
+			double theta = GOLDEN_ANGLE * i;
+			x[i] = r * Math.sin(theta);
+			y[i] = py;
+			z[i] = r * Math.cos(theta);
+		}
+	}
+	/**
+	 * Gets the number of points.
+	 * @return The number of points
+	 */
+	public int size(){
+		return numPoints;
+	}
+	/**
+	 * Gets the X coordinate of a point.
+	 * @param i Index of the point
+	 * @return X component of the unit vector
+	 */
+	public double getX(int i){
+		return x[i];
+	}
+	/**
+	 * Gets the Y coordinate (the polar axis) of a point.
+	 * @param i Index of the point
+	 * @return Y component of the unit vector
+	 */
+	public double getY(int i){
+		return y[i];
+	}
+	/**
+	 * Gets the Z coordinate of a point.
+	 * @param i Index of the point
+	 * @return Z component of the unit vector
+	 */
+	public double getZ(int i){
+		return z[i];
+	}
+	/**
+	 * Gets a point as a Point3D.
+	 * @param i Index of the point
+	 * @return A unit vector
+	 */
+	public Point3D getPoint(int i){
+		return new Point3D(x[i], y[i], z[i]);
+	}
+	/**
+	 * Gets the typical angle between neighboring points, which is the square 
+	 * root of the area that each point represents.
+	 * @return Approximate spacing, in radians
+	 */
+	public double getSpacing(){
+		return Math.sqrt(4 * Math.PI / numPoints);
+	}
+	/**
+	 * Calls <code>action</code> with the index of every other point within a 
+	 * given angle of point <code>i</code>. Because the points are sorted by 
+	 * y, only a window of indices needs to be checked.
+	 * @param i Index of the point
+	 * @param maxAngle Maximum angular distance, in radians
+	 * @param action Called once for each neighbor
+	 */
+	public void forEachNeighbor(int i, double maxAngle, IntConsumer action){
+		double chord = 2 * Math.sin(0.5 * Math.min(maxAngle, Math.PI));
+		double chord2 = chord * chord;
+		// y changes by 2/N per index
+		int window = (int)Math.ceil(chord * numPoints * 0.5) + 1;
+		int start = Math.max(0, i - window);
+		int end = Math.min(numPoints - 1, i + window);
+		for(int j = start; j <= end; j++){
+			if(j == i) continue;
+			double dx = x[j] - x[i], dy = y[j] - y[i], dz = z[j] - z[i];
+			if(dx*dx + dy*dy + dz*dz <= chord2){
+				action.accept(j);
+			}
+		}
+	}
+}
@@ -42,22 +42,25 @@ import java.util.Arrays;
 public class SphericalMath {
 	private static final double PI = Math.PI;
 	
-	private static SphericalMath singleton = null;
 	/**
 	 * Initialization. Does not do anything.
 	 */
 	protected SphericalMath(){
 		// defaults
 	}
+	/** 
+	 * holds the singleton, which the JVM creates (exactly once, thread-safely) 
+	 * the first time getInstance() is called
+	 */
+	private static final class SingletonHolder{
+		static final SphericalMath INSTANCE = new SphericalMath();
+	}
 	/**
-	 * Singleton instantiation.
+	 * Singleton instantiation. This method is thread-safe.
 	 * @return A singleton instance of this class.
 	 */
 	public static SphericalMath getInstance(){
-		if(singleton == null){
-			singleton = new SphericalMath();
-		}
-		return singleton;
+		return SingletonHolder.INSTANCE;
 	}
 	/**
 	 * Calculates the haversine of an angle. Haversine is used in spherical 
@@ -0,0 +1,131 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration.terrain;
+
+/**
+ * A flat coordinate system (in meters) on a plane that touches a sphere at a 
+ * chosen (longitude, latitude). The first axis points east and the second 
+ * points north. Points on the plane are mapped onto the sphere by 
+ * projecting them towards the center of the sphere (a gnomonic 
+ * projection), so distances are nearly true close to the origin and are 
+ * stretched by a factor of about 1 + (d/R)<sup>2</sup>/2 at a distance 
+ * <i>d</i> from it.
+ * @author CCHall
+ */
+public final class TangentPlaneFrame {
+	private final double radius;
+	private final double originLongitude;
+	private final double originLatitude;
+	// unit vectors, using the axes of SphericalMath.lonLatTo3D(...)
+	private final double upX, upY, upZ;
+	private final double eastX, eastY, eastZ;
+	private final double northX, northY, northZ;
+	/**
+	 * Creates a local frame.
+	 * @param radius Radius of the sphere, in meters
+	 * @param originLongitude Longitude (in radians) where the plane touches 
+	 * the sphere
+	 * @param originLatitude Latitude (in radians) where the plane touches 
+	 * the sphere. Must not be a pole.
+	 */
+	public TangentPlaneFrame(double radius, double originLongitude, double originLatitude){
+		if(!(radius > 0)) throw new IllegalArgumentException("Radius must be positive");
+		if(!(Math.abs(originLatitude) < 0.5 * Math.PI)){
+			throw new IllegalArgumentException("Origin latitude must be between the poles (exclusive)");
+		}
+		this.radius = radius;
+		this.originLongitude = originLongitude;
+		this.originLatitude = originLatitude;
+		double sinLon = Math.sin(originLongitude), cosLon = Math.cos(originLongitude);
+		double sinLat = Math.sin(originLatitude), cosLat = Math.cos(originLatitude);
+		upX = sinLon * cosLat; upY = sinLat; upZ = cosLon * cosLat;
+		eastX = cosLon; eastY = 0; eastZ = -sinLon;
+		northX = -sinLon * sinLat; northY = cosLat; northZ = -cosLon * sinLat;
+	}
+	/**
+	 * Converts a local coordinate into a unit vector from the center of the 
+	 * sphere (for use with <code>AbstractPlanet.getAltitude(x, y, z, precision)</code> 
+	 * and the other unit-vector getters).
+	 * @param east Distance east of the origin, in meters
+	 * @param north Distance north of the origin, in meters
+	 * @param out Array of length 3 to hold the (x, y, z) result
+	 */
+	public void toUnitVector(double east, double north, double[] out){
+		double e = east / radius;
+		double n = north / radius;
+		double x = upX + e * eastX + n * northX;
+		double y = upY + e * eastY + n * northY;
+		double z = upZ + e * eastZ + n * northZ;
+		double inv = 1.0 / Math.sqrt(x*x + y*y + z*z);
+		out[0] = x * inv;
+		out[1] = y * inv;
+		out[2] = z * inv;
+	}
+	/**
+	 * Converts a location on the sphere into local coordinates.
+	 * @param longitude Longitude, in radians
+	 * @param latitude Latitude, in radians
+	 * @return {east, north} in meters, or null if the location is on the far 
+	 * half of the sphere (where it cannot be projected onto the plane)
+	 */
+	public double[] toLocal(double longitude, double latitude){
+		double cosLat = Math.cos(latitude);
+		double x = Math.sin(longitude) * cosLat, y = Math.sin(latitude), z = Math.cos(longitude) * cosLat;
+		double up = x*upX + y*upY + z*upZ;
+		if(up <= 0) return null;
+		double scale = radius / up;
+		return new double[]{
+			scale * (x*eastX + y*eastY + z*eastZ),
+			scale * (x*northX + y*northY + z*northZ)
+		};
+	}
+	/**
+	 * Gets the radius of the sphere.
+	 * @return The radius, in meters
+	 */
+	public double getRadius(){
+		return radius;
+	}
+	/**
+	 * Gets the longitude of the origin.
+	 * @return The longitude where the plane touches the sphere, in radians
+	 */
+	public double getOriginLongitude(){
+		return originLongitude;
+	}
+	/**
+	 * Gets the latitude of the origin.
+	 * @return The latitude where the plane touches the sphere, in radians
+	 */
+	public double getOriginLatitude(){
+		return originLatitude;
+	}
+}
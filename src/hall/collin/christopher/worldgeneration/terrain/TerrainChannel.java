@@ -0,0 +1,47 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration.terrain;
+
+/**
+ * The kinds of planet data that can be stored in a TerrainChunk. Each one 
+ * matches a getter of <code>AbstractPlanet</code>.
+ * @author CCHall
+ */
+public enum TerrainChannel {
+	/** Altitude, in meters (from <code>getAltitude(...)</code>) */
+	ALTITUDE,
+	/** Roughness (from <code>getRoughness(...)</code>) */
+	ROUGHNESS,
+	/** Annual mean temperature, in °C (from <code>getTemperature(...)</code>) */
+	TEMPERATURE,
+	/** Moisture availability, in cm (from <code>getMoisture(...)</code>) */
+	MOISTURE
+}
@@ -0,0 +1,147 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration.terrain;
+
+/**
+ * A square block of terrain samples in a TangentPlaneFrame, made by 
+ * TerrainChunkGenerator. A chunk with a size of <i>N</i> holds 
+ * (<i>N</i>+1)&times;(<i>N</i>+1) samples, so neighboring chunks share 
+ * their edge samples and can be stitched together without gaps. Chunks are 
+ * immutable.
+ * @author CCHall
+ */
+public final class TerrainChunk {
+	private final int chunkX;
+	private final int chunkY;
+	private final int samplesPerSide;
+	private final double spacing;
+	private final double originEast;
+	private final double originNorth;
+	/** indexed by TerrainChannel.ordinal(), null if that channel was not generated */
+	private final float[][] data;
+	
+	TerrainChunk(int chunkX, int chunkY, int samplesPerSide, double spacing, 
+			double originEast, double originNorth, float[][] data){
+		this.chunkX = chunkX;
+		this.chunkY = chunkY;
+		this.samplesPerSide = samplesPerSide;
+		this.spacing = spacing;
+		this.originEast = originEast;
+		this.originNorth = originNorth;
+		this.data = data;
+	}
+	/**
+	 * Gets the east-west index of this chunk.
+	 * @return The chunk index, where chunk 0 starts at the frame origin
+	 */
+	public int getChunkX(){
+		return chunkX;
+	}
+	/**
+	 * Gets the north-south index of this chunk.
+	 * @return The chunk index, where chunk 0 starts at the frame origin
+	 */
+	public int getChunkY(){
+		return chunkY;
+	}
+	/**
+	 * Gets the number of samples along each edge of this chunk (the chunk 
+	 * size plus one).
+	 * @return Samples per side
+	 */
+	public int getSamplesPerSide(){
+		return samplesPerSide;
+	}
+	/**
+	 * Gets the distance between samples.
+	 * @return Sample spacing, in meters
+	 */
+	public double getSpacing(){
+		return spacing;
+	}
+	/**
+	 * Gets the local position of sample (0, 0).
+	 * @return Distance east of the frame origin, in meters
+	 */
+	public double getOriginEast(){
+		return originEast;
+	}
+	/**
+	 * Gets the local position of sample (0, 0).
+	 * @return Distance north of the frame origin, in meters
+	 */
+	public double getOriginNorth(){
+		return originNorth;
+	}
+	/**
+	 * Checks whether a channel was generated for this chunk.
+	 * @param channel A kind of planet data
+	 * @return True if this chunk has data for that channel
+	 */
+	public boolean hasChannel(TerrainChannel channel){
+		return data[channel.ordinal()] != null;
+	}
+	/**
+	 * Gets a single sample.
+	 * @param channel A kind of planet data (must have been generated)
+	 * @param i East-west sample index, from 0 to getSamplesPerSide()-1
+	 * @param j North-south sample index, from 0 to getSamplesPerSide()-1
+	 * @return The value of that sample
+	 */
+	public float getValue(TerrainChannel channel, int i, int j){
+		float[] d = data[channel.ordinal()];
+		if(d == null) throw new IllegalArgumentException("Channel "+channel+" was not generated for this chunk");
+		if(i < 0 || i >= samplesPerSide || j < 0 || j >= samplesPerSide){
+			throw new IndexOutOfBoundsException("Sample ("+i+", "+j+") is outside of this chunk");
+		}
+		return d[j * samplesPerSide + i];
+	}
+	/**
+	 * Gets a single altitude sample.
+	 * @param i East-west sample index, from 0 to getSamplesPerSide()-1
+	 * @param j North-south sample index, from 0 to getSamplesPerSide()-1
+	 * @return The altitude, in meters
+	 */
+	public float getAltitude(int i, int j){
+		return getValue(TerrainChannel.ALTITUDE, i, j);
+	}
+	/**
+	 * Copies all samples of one channel into a new array.
+	 * @param channel A kind of planet data (must have been generated)
+	 * @return Array of getSamplesPerSide()<sup>2</sup> values, in rows from 
+	 * south to north, with each row going from west to east
+	 */
+	public float[] getData(TerrainChannel channel){
+		float[] d = data[channel.ordinal()];
+		if(d == null) throw new IllegalArgumentException("Channel "+channel+" was not generated for this chunk");
+		return d.clone();
+	}
+}
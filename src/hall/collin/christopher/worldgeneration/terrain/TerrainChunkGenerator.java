@@ -0,0 +1,332 @@
+/*
+CCH World Factory - GPL
+
+Copyright (C) 2014 Christopher Collin Hall
+email: explosivegnome@yahoo.com
+
+CCH World Factory - GPL is distributed under the GNU General Public 
+License (GPL) version 3. A non-GPL branch of the CCH World Factory 
+also exists. For non-GPL licensing options, contact the copyright 
+holder, Christopher Collin Hall (explosivegnome@yahoo.com). 
+
+CCH World Factory - GPL is free software: you can redistribute it 
+and/or modify it under the terms of the GNU General Public License 
+as published by the Free Software Foundation, either version 3 of 
+the License, or (at your option) any later version.
+
+CCH World Factory - GPL is distributed in the hope that it will be 
+useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CCH World Factory - GPL.  If not, see 
+<http://www.gnu.org/licenses/>.
+
+*/
+/*
+ * Copyright 2014 - Christopher Collin Hall ( explosivegnome@yahoo.com )
+ * All rights reserved.
+ */
+package hall.collin.christopher.worldgeneration.terrain;
+
+import hall.collin.christopher.worldgeneration.AbstractPlanet;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Generates TerrainChunks from a planet, around a chosen (longitude, 
+ * latitude), at a fixed sample spacing. Recently used chunks are kept in a 
+ * least-recently-used cache, chunks are generated in parallel on an 
+ * executor, and a chunk that is already being generated is never generated 
+ * twice at the same time. Call <code>prefetch(...)</code> as the player (or 
+ * camera) moves to start generating the chunks it is heading towards before 
+ * they are needed.
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ * @author CCHall
+ */
+public class TerrainChunkGenerator {
+	/** Default number of chunks kept in the cache */
+	public static final int DEFAULT_CACHE_CAPACITY = 256;
+	
+	private final AbstractPlanet planet;
+	private final TangentPlaneFrame frame;
+	private final int chunkSize;
+	private final double spacing;
+	private final double chunkLength;
+	private final Set<TerrainChannel> channels;
+	private final Executor executor;
+	private final int cacheCapacity;
+	/** LRU cache, guarded by synchronized(cache) */
+	private final LinkedHashMap<Long, TerrainChunk> cache;
+	/** chunks that are currently being generated */
+	private final Map<Long, CompletableFuture<TerrainChunk>> inFlight = new ConcurrentHashMap<>();
+	
+	/**
+	 * Creates a generator of altitude-only chunks that runs on the common 
+	 * fork-join pool.
+	 * @param planet The planet to sample
+	 * @param originLongitude Longitude (in radians) of the origin of the 
+	 * local frame
+	 * @param originLatitude Latitude (in radians) of the origin of the local 
+	 * frame
+	 * @param chunkSize Number of sample intervals along each edge of a chunk 
+	 * (each chunk has chunkSize+1 samples per side)
+	 * @param spacing Distance between samples, in meters
+	 */
+	public TerrainChunkGenerator(AbstractPlanet planet, double originLongitude, double originLatitude, 
+			int chunkSize, double spacing){
+		this(planet, originLongitude, originLatitude, chunkSize, spacing, 
+				EnumSet.of(TerrainChannel.ALTITUDE), DEFAULT_CACHE_CAPACITY, ForkJoinPool.commonPool());
+	}
+	/**
+	 * Creates a chunk generator.
+	 * @param planet The planet to sample
+	 * @param originLongitude Longitude (in radians) of the origin of the 
+	 * local frame
+	 * @param originLatitude Latitude (in radians) of the origin of the local 
+	 * frame
+	 * @param chunkSize Number of sample intervals along each edge of a chunk 
+	 * (each chunk has chunkSize+1 samples per side)
+	 * @param spacing Distance between samples, in meters
+	 * @param channels The kinds of data to generate for each chunk
+	 * @param cacheCapacity Maximum number of chunks kept in memory
+	 * @param executor Executor that will generate the chunks
+	 */
+	public TerrainChunkGenerator(AbstractPlanet planet, double originLongitude, double originLatitude, 
+			int chunkSize, double spacing, Set<TerrainChannel> channels, int cacheCapacity, Executor executor){
+		if(chunkSize < 1) throw new IllegalArgumentException("Chunk size must be at least 1");
+		if(!(spacing > 0)) throw new IllegalArgumentException("Spacing must be positive");
+		if(channels.isEmpty()) throw new IllegalArgumentException("At least one channel is required");
+		if(cacheCapacity < 1) throw new IllegalArgumentException("Cache capacity must be at least 1");
+		this.planet = planet;
+		this.frame = new TangentPlaneFrame(planet.getRadius(), originLongitude, originLatitude);
+		this.chunkSize = chunkSize;
+		this.spacing = spacing;
+		this.chunkLength = chunkSize * spacing;
+		this.channels = EnumSet.copyOf(channels);
+		this.cacheCapacity = cacheCapacity;
+		this.executor = executor;
+		this.cache = new LinkedHashMap<Long, TerrainChunk>(16, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, TerrainChunk> eldest){
+				return size() > TerrainChunkGenerator.this.cacheCapacity;
+			}
+		};
+	}
+	
+	private static long key(int chunkX, int chunkY){
+		return ((long)chunkX << 32) | (chunkY & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Gets a chunk, generating it on the executor if it is not already 
+	 * cached. If the chunk is already being generated (e.g. by a prefetch), 
+	 * the returned future completes when that generation finishes.
+	 * @param chunkX East-west chunk index (chunk 0 starts at the frame origin)
+	 * @param chunkY North-south chunk index (chunk 0 starts at the frame origin)
+	 * @return A future for the chunk
+	 */
+	public CompletableFuture<TerrainChunk> getChunkAsync(int chunkX, int chunkY){
+		final Long k = key(chunkX, chunkY);
+		TerrainChunk cached = getCached(k);
+		if(cached != null) return CompletableFuture.completedFuture(cached);
+		final CompletableFuture<TerrainChunk> f = new CompletableFuture<>();
+		CompletableFuture<TerrainChunk> existing = inFlight.putIfAbsent(k, f);
+		if(existing != null) return existing.copy();
+		// it may have been finished between the cache check and now
+		cached = getCached(k);
+		if(cached != null){
+			inFlight.remove(k, f);
+			f.complete(cached);
+			return f.copy();
+		}
+		try{
+			executor.execute(()->{
+				try{
+					TerrainChunk chunk = generateChunk(chunkX, chunkY);
+					synchronized(cache){
+						cache.put(k, chunk);
+					}
+					f.complete(chunk);
+				} catch(RuntimeException | Error ex){
+					f.completeExceptionally(ex);
+				} finally {
+					inFlight.remove(k, f);
+				}
+			});
+		} catch(RejectedExecutionException ex){
+			inFlight.remove(k, f);
+			f.completeExceptionally(ex);
+		}
+		return f.copy();
+	}
+	/**
+	 * Gets a chunk, waiting for it to be generated if necessary.
+	 * @param chunkX East-west chunk index (chunk 0 starts at the frame origin)
+	 * @param chunkY North-south chunk index (chunk 0 starts at the frame origin)
+	 * @return The chunk
+	 * @throws CompletionException Thrown if the chunk could not be generated
+	 */
+	public TerrainChunk getChunk(int chunkX, int chunkY){
+		return getChunkAsync(chunkX, chunkY).join();
+	}
+	/**
+	 * Gets the chunk that contains a local position, waiting for it to be 
+	 * generated if necessary.
+	 * @param east Distance east of the frame origin, in meters
+	 * @param north Distance north of the frame origin, in meters
+	 * @return The chunk containing that position
+	 */
+	public TerrainChunk getChunkAt(double east, double north){
+		return getChunk(chunkIndex(east), chunkIndex(north));
+	}
+	
+	private TerrainChunk getCached(Long k){
+		synchronized(cache){
+			return cache.get(k);
+		}
+	}
+	
+	/**
+	 * Gets the index of the chunk that contains a local coordinate.
+	 * @param meters Distance east (or north) of the frame origin, in meters
+	 * @return The chunk index along that axis
+	 */
+	public int chunkIndex(double meters){
+		return (int)Math.floor(meters / chunkLength);
+	}
+	
+	/**
+	 * Starts generating the chunks around a moving position and the chunks 
+	 * it will cross in the near future, nearest first. Chunks that are 
+	 * cached or already being generated are skipped.
+	 * @param east Current distance east of the frame origin, in meters
+	 * @param north Current distance north of the frame origin, in meters
+	 * @param velocityEast Eastward speed, in meters per second
+	 * @param velocityNorth Northward speed, in meters per second
+	 * @param lookAheadSeconds How far ahead (in time) to prefetch
+	 * @return The number of chunks that were queued for generation
+	 */
+	public int prefetch(double east, double north, double velocityEast, double velocityNorth, double lookAheadSeconds){
+		LinkedHashSet<Long> wanted = new LinkedHashSet<>();
+		int cx = chunkIndex(east), cy = chunkIndex(north);
+		wanted.add(key(cx, cy));
+		for(int dy = -1; dy <= 1; dy++){
+			for(int dx = -1; dx <= 1; dx++){
+				wanted.add(key(cx + dx, cy + dy));
+			}
+		}
+		double distance = Math.sqrt(velocityEast*velocityEast + velocityNorth*velocityNorth) * Math.max(lookAheadSeconds, 0);
+		if(distance > 0){
+			// walk the path in half-chunk steps, also taking the chunks to either side
+			int steps = (int)Math.ceil(distance / (0.5 * chunkLength));
+			double ue = velocityEast * lookAheadSeconds / distance;
+			double un = velocityNorth * lookAheadSeconds / distance;
+			for(int s = 1; s <= steps; s++){
+				double d = Math.min(s * 0.5 * chunkLength, distance);
+				double pe = east + ue * d, pn = north + un * d;
+				wanted.add(key(chunkIndex(pe), chunkIndex(pn)));
+				wanted.add(key(chunkIndex(pe - un * chunkLength), chunkIndex(pn + ue * chunkLength)));
+				wanted.add(key(chunkIndex(pe + un * chunkLength), chunkIndex(pn - ue * chunkLength)));
+			}
+		}
+		int count = 0;
+		for(Long k : wanted){
+			if(getCached(k) != null || inFlight.containsKey(k)) continue;
+			getChunkAsync((int)(k >> 32), (int)(long)k);
+			count++;
+		}
+		return count;
+	}
+	
+	/** samples the planet for one chunk */
+	private TerrainChunk generateChunk(int chunkX, int chunkY){
+		final int n = chunkSize + 1;
+		final double originEast = chunkX * chunkLength;
+		final double originNorth = chunkY * chunkLength;
+		float[][] data = new float[TerrainChannel.values().length][];
+		for(TerrainChannel c : channels){
+			data[c.ordinal()] = new float[n * n];
+		}
+		float[] alt = data[TerrainChannel.ALTITUDE.ordinal()];
+		float[] rough = data[TerrainChannel.ROUGHNESS.ordinal()];
+		float[] temp = data[TerrainChannel.TEMPERATURE.ordinal()];
+		float[] moist = data[TerrainChannel.MOISTURE.ordinal()];
+		double[] v = new double[3];
+		for(int j = 0; j < n; j++){
+			double north = originNorth + j * spacing;
+			for(int i = 0; i < n; i++){
+				frame.toUnitVector(originEast + i * spacing, north, v);
+				int index = j * n + i;
+				if(alt != null) alt[index] = (float)planet.getAltitude(v[0], v[1], v[2], spacing);
+				if(rough != null) rough[index] = (float)planet.getRoughness(v[0], v[1], v[2], spacing);
+				if(temp != null) temp[index] = (float)planet.getTemperature(v[0], v[1], v[2], spacing);
+				if(moist != null) moist[index] = (float)planet.getMoisture(v[0], v[1], v[2], spacing);
+			}
+		}
+		return new TerrainChunk(chunkX, chunkY, n, spacing, originEast, originNorth, data);
+	}
+	
+	/** Removes all chunks from the cache. */
+	public void clearCache(){
+		synchronized(cache){
+			cache.clear();
+		}
+	}
+	/**
+	 * Gets the number of chunks in the cache.
+	 * @return Number of cached chunks
+	 */
+	public int getCachedChunkCount(){
+		synchronized(cache){
+			return cache.size();
+		}
+	}
+	/**
+	 * Gets the number of chunks that are currently being generated.
+	 * @return Number of chunks in progress
+	 */
+	public int getPendingChunkCount(){
+		return inFlight.size();
+	}
+	/**
+	 * Gets the local coordinate system used by this generator.
+	 * @return The tangent plane frame
+	 */
+	public TangentPlaneFrame getFrame(){
+		return frame;
+	}
+	/**
+	 * Gets the number of sample intervals along each edge of a chunk.
+	 * @return The chunk size (each chunk has one more sample than this per side)
+	 */
+	public int getChunkSize(){
+		return chunkSize;
+	}
+	/**
+	 * Gets the distance between samples.
+	 * @return Sample spacing, in meters
+	 */
+	public double getSpacing(){
+		return spacing;
+	}
+	/**
+	 * Gets the planet that this generator samples.
+	 * @return The planet
+	 */
+	public AbstractPlanet getPlanet(){
+		return planet;
+	}
+}
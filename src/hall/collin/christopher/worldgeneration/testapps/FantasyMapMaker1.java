@@ -31,6 +31,7 @@ along with CCH World Factory - GPL.  If not, see
 package hall.collin.christopher.worldgeneration.testapps;
 
 import hall.collin.christopher.worldgeneration.AbstractPlanet;
+import hall.collin.christopher.worldgeneration.CachingPlanet;
 import hall.collin.christopher.worldgeneration.TectonicHydrologyPlanet;
 import hall.collin.christopher.worldgeneration.biomes.StandardBiomeFactory;
 import hall.collin.christopher.worldgeneration.graphics.*;
@@ -162,54 +163,43 @@ public class FantasyMapMaker1 {
 		// mape types: basic, biome, landshader, oceanshader, labels
 
 
-		// make basemap with generic vegetation painter
+		// Each sector is drawn five times (basic, biome, labels, landshader, 
+		// oceanshader) from the same points, so the planet is wrapped in a 
+		// cache and each sector does all of its passes before moving on. The 
+		// cache only needs to hold the sectors that are being drawn at once.
+		int concurrentSectors = Math.min(12, Runtime.getRuntime().availableProcessors());
+		long cacheSize = Math.min(3L * size * size * concurrentSectors, 1 << 23);
+		final CachingPlanet cachedPlanet = new CachingPlanet(planet, (int)cacheSize);
 		List<SectorMapProjector> projector = Arrays.asList(SectorMapProjector.createSectorMaps());
 		projector.parallelStream().forEach((SectorMapProjector sector)->{
+			// make basemap with generic vegetation painter
 			sector.enableMap(true);
 			sector.enableLandShader(false);
 			sector.enableUnderwaterShader(false);
 			sector.enableLabels(false);
-			BufferedImage map = sector.createMapProjection(planet, size, vp,ptracker);
+			BufferedImage map = sector.createMapProjection(cachedPlanet, size, vp,ptracker);
 			writeImageToFile(map, createFile(dest,seed,sector.getSymbol(),"basic"));
-		});
-		// make basemap with color-coded biome painter
-		projector.parallelStream().forEach((SectorMapProjector sector)->{
-			sector.enableMap(true);
-			sector.enableLandShader(false);
-			sector.enableUnderwaterShader(false);
-			sector.enableLabels(false);
-			BufferedImage map = sector.createMapProjection(planet, size, bp,ptracker);
+			// make basemap with color-coded biome painter
+			map = sector.createMapProjection(cachedPlanet, size, bp,ptracker);
 			writeImageToFile(map, createFile(dest,seed,sector.getSymbol(),"biome"));
-		});
-		// make labels
-		projector.parallelStream().forEach((SectorMapProjector sector)->{
+			// make labels
 			sector.enableMap(false);
-			sector.enableLandShader(false);
-			sector.enableUnderwaterShader(false);
 			sector.enableLabels(true);
-			BufferedImage map = sector.createMapProjection(planet, size, vp,ptracker);
+			map = sector.createMapProjection(cachedPlanet, size, vp,ptracker);
 			writeImageToFile(map,  createFile(dest,seed,sector.getSymbol(),"labels"));
-		});
-		// make land hill-shading map (as transparency to go over the desired basemap)
-		projector.parallelStream().forEach((SectorMapProjector sector)->{
-			sector.enableMap(false);
-			sector.enableLandShader(true);
-			sector.enableUnderwaterShader(false);
+			// make land hill-shading map (as transparency to go over the desired basemap)
 			sector.enableLabels(false);
-			BufferedImage map = sector.createMapProjection(planet, size, vp,ptracker);
+			sector.enableLandShader(true);
+			map = sector.createMapProjection(cachedPlanet, size, vp,ptracker);
 			writeImageToFile(map, createFile(dest,seed,sector.getSymbol(),"landshader"));
-		});
-		// make ocean hill-shading map
-		projector.parallelStream().forEach((SectorMapProjector sector)->{
-			sector.enableMap(false);
+			// make ocean hill-shading map
 			sector.enableLandShader(false);
 			sector.enableUnderwaterShader(true);
-			sector.enableLabels(false);
-			BufferedImage map = sector.createMapProjection(planet, size, vp,ptracker);
+			map = sector.createMapProjection(cachedPlanet, size, vp,ptracker);
 			writeImageToFile(map, createFile(dest,seed,sector.getSymbol(),"oceanshader"));
 		});
 		// Save mercator overview
-		BufferedImage overviewMap = previewer.createMapProjection(planet, size, vp,ptracker);
+		BufferedImage overviewMap = previewer.createMapProjection(cachedPlanet, size, vp,ptracker);
 		writeImageToFile(overviewMap, createFile(dest,seed,"no","mercator-projection"));
 
 		// done
@@ -4,8 +4,10 @@ module gpl.cchall.worldfactory {
 	exports hall.collin.christopher.worldgeneration.automata.sphere;
 	exports hall.collin.christopher.worldgeneration.graphics;
 	exports hall.collin.christopher.worldgeneration.math;
+	exports hall.collin.christopher.worldgeneration.terrain;
 	exports hall.collin.christopher.worldgeneration.testapps;
 	exports hall.collin.christopher.worldgeneration.util;
 	
 	requires java.desktop;
+	requires java.logging;
 }
\ No newline at end of file